@@ -1,6 +1,8 @@
 package larson.groupcontrol.app;
 
+import larson.groupcontrol.app.buffer.BufferPool;
 import larson.groupcontrol.app.connection.ConnectionManager;
+import larson.groupcontrol.app.connection.MessageFuture;
 import larson.groupcontrol.app.exception.UnFormatMessageException;
 import larson.groupcontrol.app.filter.MessageFilter;
 import larson.groupcontrol.app.intf.IConnectionManager;
@@ -55,6 +57,7 @@ public class GroupControlManager implements ISocket {
         this.option = option;
         mConnMgr = new ConnectionManager(option, mStateChangeListener);
         LogUtils.setDebugMode(option.getSkSocketOption().isDebug());
+        BufferPool.getInstance().setLeakDetection(option.getSkSocketOption().isBufferLeakDetection());
     }
 
     @Override
@@ -106,6 +109,22 @@ public class GroupControlManager implements ISocket {
         return mConnMgr.sendSyncMessage(msg, filter, timeout);
     }
 
+    @Override
+    public MessageFuture sendAsync(Message msg, long timeout) {
+        if (timeout == 0) {
+            throw new UnFormatMessageException("Unable to send a message with timeout 0 in this method !!");
+        }
+        return mConnMgr.sendAsync(msg, timeout);
+    }
+
+    @Override
+    public MessageFuture sendAsync(Message msg, MessageFilter filter, long timeout) {
+        if (timeout == 0) {
+            throw new UnFormatMessageException("Unable to send a message with timeout 0 in this method !!");
+        }
+        return mConnMgr.sendAsync(msg, filter, timeout);
+    }
+
     @Override
     public void addMessageListener(IMessageListener listener, MessageFilter filter) {
         if (mConnMgr != null) {
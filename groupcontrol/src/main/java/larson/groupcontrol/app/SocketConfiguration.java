@@ -5,6 +5,8 @@ import android.net.LocalSocketAddress;
 import larson.groupcontrol.app.connection.ConnectOption;
 import larson.groupcontrol.app.filter.MessageFilter;
 import larson.groupcontrol.app.listener.IMessageListener;
+import larson.groupcontrol.app.transport.PipeTransport;
+import larson.groupcontrol.app.transport.Transport;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -21,6 +23,19 @@ import java.util.concurrent.ConcurrentHashMap;
  * ..larsonzhong@163.com      created in 2018/8/15     @author : larsonzhong
  */
 public class SocketConfiguration {
+    /**
+     * 通过{@link android.net.LocalSocket}连接，默认方式
+     */
+    public static final int TRANSPORT_LOCAL_SOCKET = 0;
+    /**
+     * 通过TCP连接，见{@link Builder#setTcpAddress(String, int)}
+     */
+    public static final int TRANSPORT_TCP = 1;
+    /**
+     * 使用自定义的传输层，如{@link PipeTransport}，见{@link Builder#setTransport(Transport.Factory)}
+     */
+    public static final int TRANSPORT_CUSTOM = 2;
+
     /**
      * 连接本地socket（{@link android.net.LocalSocket}）需要用到的Socket名字
      */
@@ -33,6 +48,19 @@ public class SocketConfiguration {
      * 是控制機還是測試機
      */
     private boolean isServer;
+    /**
+     * 传输层类型
+     */
+    private final int transportType;
+    /**
+     * TCP连接的主机和端口
+     */
+    private final String host;
+    private final int port;
+    /**
+     * 自定义传输层的工厂，每次连接创建一个新的传输层
+     */
+    private final Transport.Factory transportFactory;
 
     private final ConnectOption skSocketOption;
 
@@ -47,6 +75,10 @@ public class SocketConfiguration {
         this.skSocketOption = builder.skSocketOption;
         this.isServer = builder.isServer;
         this.mWrappers = builder.wrappers;
+        this.transportType = builder.transportType;
+        this.host = builder.host;
+        this.port = builder.port;
+        this.transportFactory = builder.transportFactory;
     }
 
     public String getSocketName() {
@@ -73,12 +105,32 @@ public class SocketConfiguration {
         return skSocketOption;
     }
 
+    public int getTransportType() {
+        return transportType;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public Transport.Factory getTransportFactory() {
+        return transportFactory;
+    }
+
     public static class Builder {
         String socketName;
         LocalSocketAddress.Namespace nameSpace;
         Map<MessageFilter, IMessageListener> wrappers = new ConcurrentHashMap<>();
         ConnectOption skSocketOption;
         boolean isServer;
+        int transportType = TRANSPORT_LOCAL_SOCKET;
+        String host;
+        int port;
+        Transport.Factory transportFactory;
 
         public Builder(boolean isServer, String socketName) {
             this.isServer = isServer;
@@ -105,6 +157,34 @@ public class SocketConfiguration {
             return this;
         }
 
+        /**
+         * 通过TCP连接到指定地址，而不是本地socket
+         *
+         * @param host 主机名或IP
+         * @param port 端口
+         */
+        public Builder setTcpAddress(String host, int port) {
+            this.transportType = TRANSPORT_TCP;
+            this.host = host;
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * 使用自定义的传输层，如{@link PipeTransport#newPair()}创建的进程内管道<br>
+         * 每次连接(包括重连)都会调用一次factory，传输层关闭之后不会再被使用
+         *
+         * @param factory 创建传输层的工厂
+         */
+        public Builder setTransport(Transport.Factory factory) {
+            if (factory == null) {
+                throw new NullPointerException("Transport factory is null.");
+            }
+            this.transportType = TRANSPORT_CUSTOM;
+            this.transportFactory = factory;
+            return this;
+        }
+
         public SocketConfiguration build() {
             return new SocketConfiguration(this);
         }
@@ -112,6 +192,13 @@ public class SocketConfiguration {
 
     @Override
     public String toString() {
-        return "socketName=" + socketName + ",nameSpace=" + nameSpace;
+        switch (transportType) {
+            case TRANSPORT_TCP:
+                return "host=" + host + ",port=" + port;
+            case TRANSPORT_CUSTOM:
+                return "transportFactory=" + transportFactory;
+            default:
+                return "socketName=" + socketName + ",nameSpace=" + nameSpace;
+        }
     }
 }
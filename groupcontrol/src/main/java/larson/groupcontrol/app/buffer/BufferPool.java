@@ -0,0 +1,204 @@
+package larson.groupcontrol.app.buffer;
+
+import larson.groupcontrol.app.util.LogUtils;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按大小分级的缓冲池，读取线程、包分发器和消息组包共用，减少短生命周期byte[]带来的GC
+ * <p>
+ * A size-class pool of {@link PooledBuffer}s shared by the reader, the router and message
+ * reassembly. Requests are rounded up to one of the classes 256 B, 1 KB, 4 KB, 16 KB, 64 KB and
+ * 256 KB; each class keeps a bounded free list and anything larger is allocated and dropped
+ * without pooling. Acquiring from a non-empty free list allocates nothing.
+ * <p>
+ * With leak detection on (debug builds only, it records a stack trace per acquire), a buffer that
+ * is garbage collected without being released is reported together with the place it was
+ * acquired.
+ */
+public class BufferPool {
+    private static final int MIN_CLASS_SHIFT = 8;
+    private static final int CLASS_COUNT = 6;
+    /**
+     * 最大的缓存级别，256KB
+     */
+    public static final int MAX_POOLED_SIZE = 1 << (MIN_CLASS_SHIFT + 2 * (CLASS_COUNT - 1));
+
+    private static volatile BufferPool instance;
+
+    private final SizeClass[] mClasses = new SizeClass[CLASS_COUNT];
+    private final AtomicLong mLeakCount = new AtomicLong();
+    private final ReferenceQueue<PooledBuffer> mLeakQueue = new ReferenceQueue<>();
+    private final Set<Reference<PooledBuffer>> mLeakRecords =
+            Collections.newSetFromMap(new ConcurrentHashMap<Reference<PooledBuffer>, Boolean>());
+    private volatile boolean isLeakDetection;
+
+    public static BufferPool getInstance() {
+        if (instance == null) {
+            synchronized (BufferPool.class) {
+                if (instance == null) {
+                    instance = new BufferPool();
+                }
+            }
+        }
+        return instance;
+    }
+
+    BufferPool() {
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            int size = 1 << (MIN_CLASS_SHIFT + 2 * i);
+            //小缓冲区多缓存一些，大缓冲区只缓存几个
+            int maxCached = Math.max(4, (1 << 20) / size);
+            mClasses[i] = new SizeClass(size, Math.min(maxCached, 256));
+        }
+    }
+
+    /**
+     * 获取一个至少能容纳size字节的缓冲区，引用计数为1
+     *
+     * @param size 需要的字节数
+     * @return 缓冲区
+     */
+    public PooledBuffer acquire(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size < 0: " + size);
+        }
+        SizeClass sizeClass = sizeClassOf(size);
+        PooledBuffer buffer = null;
+        if (sizeClass != null) {
+            buffer = sizeClass.poll();
+            if (buffer == null) {
+                buffer = new PooledBuffer(this, new byte[sizeClass.size]);
+            }
+        } else {
+            buffer = new PooledBuffer(this, new byte[size]);
+        }
+        buffer.reset(size);
+        if (isLeakDetection) {
+            track(buffer);
+        }
+        return buffer;
+    }
+
+    void recycle(PooledBuffer buffer) {
+        untrack(buffer);
+        SizeClass sizeClass = sizeClassOf(buffer.array().length);
+        if (sizeClass != null && sizeClass.size == buffer.array().length) {
+            sizeClass.offer(buffer);
+        }
+    }
+
+    /**
+     * 不再检测这个缓冲区的泄漏
+     */
+    void untrack(PooledBuffer buffer) {
+        Reference<PooledBuffer> record = buffer.mLeakRecord;
+        if (record != null) {
+            buffer.mLeakRecord = null;
+            mLeakRecords.remove(record);
+            record.clear();
+        }
+    }
+
+    /**
+     * 开启或关闭泄漏检测，只应该在调试模式下开启
+     *
+     * @param enable 是否开启
+     */
+    public void setLeakDetection(boolean enable) {
+        isLeakDetection = enable;
+    }
+
+    /**
+     * @return 检测到的泄漏次数，即没有release就被回收的缓冲区个数
+     */
+    public long getLeakCount() {
+        reportLeaks();
+        return mLeakCount.get();
+    }
+
+    /**
+     * @return 当前所有级别中空闲的缓冲区个数
+     */
+    public int getCachedCount() {
+        int count = 0;
+        for (SizeClass sizeClass : mClasses) {
+            count += sizeClass.count();
+        }
+        return count;
+    }
+
+    private SizeClass sizeClassOf(int size) {
+        for (SizeClass sizeClass : mClasses) {
+            if (size <= sizeClass.size) {
+                return sizeClass;
+            }
+        }
+        return null;
+    }
+
+    private void track(PooledBuffer buffer) {
+        reportLeaks();
+        LeakRecord record = new LeakRecord(buffer, mLeakQueue);
+        buffer.mLeakRecord = record;
+        mLeakRecords.add(record);
+    }
+
+    private void reportLeaks() {
+        Reference<? extends PooledBuffer> ref;
+        while ((ref = mLeakQueue.poll()) != null) {
+            if (mLeakRecords.remove(ref)) {
+                mLeakCount.incrementAndGet();
+                LogUtils.e("LEAK: PooledBuffer was garbage collected without release()", ((LeakRecord) ref).mSite);
+            }
+        }
+    }
+
+    private static class LeakRecord extends WeakReference<PooledBuffer> {
+        private final Throwable mSite;
+
+        LeakRecord(PooledBuffer referent, ReferenceQueue<PooledBuffer> queue) {
+            super(referent, queue);
+            mSite = new Throwable("buffer acquired here");
+        }
+    }
+
+    /**
+     * 同一大小的缓冲区的空闲列表，用数组实现，存取时不产生任何对象
+     */
+    private static class SizeClass {
+        private final int size;
+        private final PooledBuffer[] mFree;
+        private int mCount;
+
+        SizeClass(int size, int maxCached) {
+            this.size = size;
+            mFree = new PooledBuffer[maxCached];
+        }
+
+        synchronized PooledBuffer poll() {
+            if (mCount == 0) {
+                return null;
+            }
+            PooledBuffer buffer = mFree[--mCount];
+            mFree[mCount] = null;
+            return buffer;
+        }
+
+        synchronized void offer(PooledBuffer buffer) {
+            if (mCount < mFree.length) {
+                mFree[mCount++] = buffer;
+            }
+        }
+
+        synchronized int count() {
+            return mCount;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package larson.groupcontrol.app.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 由多段数组拼成的只读缓冲区，读取时不拷贝
+ * <p>
+ * A read-only view of a sequence of array slices as one contiguous run of bytes, used to expose the
+ * body of a large received message without copying its fragments together. Bytes are addressed by
+ * their index in the whole view; {@link #getSegment(int)} gives each slice as a read-only
+ * {@link ByteBuffer} for consumers that can work piecewise, and {@link #toByteArray()} flattens the
+ * view into a new array only when one is really needed.
+ * <p>
+ * The view does not own the arrays. Whoever creates it must keep them unchanged for as long as the
+ * view is reachable. Immutable and thread safe.
+ */
+public final class CompositeBuffer {
+    private final byte[][] mArrays;
+    private final int[] mOffsets;
+    private final int[] mLengths;
+    /**
+     * 每一段在整个缓冲区中的起始位置
+     */
+    private final int[] mStarts;
+    private final int mLength;
+
+    /**
+     * @param arrays  每一段所在的数组
+     * @param offsets 每一段在数组中的起始位置
+     * @param lengths 每一段的长度
+     */
+    public CompositeBuffer(byte[][] arrays, int[] offsets, int[] lengths) {
+        if (arrays.length != offsets.length || arrays.length != lengths.length) {
+            throw new IllegalArgumentException("segment arrays differ in length");
+        }
+        mArrays = arrays.clone();
+        mOffsets = offsets.clone();
+        mLengths = lengths.clone();
+        mStarts = new int[arrays.length];
+        int length = 0;
+        for (int i = 0; i < arrays.length; i++) {
+            if (offsets[i] < 0 || lengths[i] < 0 || offsets[i] > arrays[i].length - lengths[i]) {
+                throw new IndexOutOfBoundsException("segment " + i + ": offset " + offsets[i]
+                        + ", length " + lengths[i] + ", size " + arrays[i].length);
+            }
+            mStarts[i] = length;
+            length += lengths[i];
+        }
+        mLength = length;
+    }
+
+    /**
+     * @return 只有一段、覆盖整个数组的缓冲区
+     */
+    public static CompositeBuffer wrap(byte[] array) {
+        return new CompositeBuffer(new byte[][]{array}, new int[]{0}, new int[]{array.length});
+    }
+
+    /**
+     * @return 总字节数
+     */
+    public int length() {
+        return mLength;
+    }
+
+    /**
+     * @param index 在整个缓冲区中的位置
+     * @return 这个位置的字节
+     */
+    public byte get(int index) {
+        if (index < 0 || index >= mLength) {
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + mLength);
+        }
+        int segment = findSegment(index);
+        return mArrays[segment][mOffsets[segment] + index - mStarts[segment]];
+    }
+
+    /**
+     * 从index开始拷贝length个字节到dst
+     *
+     * @param index     在整个缓冲区中的起始位置
+     * @param dst       目标数组
+     * @param dstOffset 目标数组中的起始位置
+     * @param length    字节数
+     */
+    public void get(int index, byte[] dst, int dstOffset, int length) {
+        if (index < 0 || length < 0 || index > mLength - length) {
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + length + ", size: " + mLength);
+        }
+        if (length == 0) {
+            return;
+        }
+        int segment = findSegment(index);
+        int from = index - mStarts[segment];
+        while (length > 0) {
+            int count = Math.min(length, mLengths[segment] - from);
+            System.arraycopy(mArrays[segment], mOffsets[segment] + from, dst, dstOffset, count);
+            dstOffset += count;
+            length -= count;
+            segment++;
+            from = 0;
+        }
+    }
+
+    /**
+     * @return 段数
+     */
+    public int getSegmentCount() {
+        return mArrays.length;
+    }
+
+    /**
+     * @param segment 段序号，从0开始
+     * @return 这一段的只读视图，position为0，limit为这一段的长度
+     */
+    public ByteBuffer getSegment(int segment) {
+        return ByteBuffer.wrap(mArrays[segment], mOffsets[segment], mLengths[segment]).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * @return 所有字节拷贝到一个新数组中
+     */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[mLength];
+        get(0, bytes, 0, mLength);
+        return bytes;
+    }
+
+    /**
+     * @return 包含index的那一段，跳过长度为0的段
+     */
+    private int findSegment(int index) {
+        int segment = Arrays.binarySearch(mStarts, index);
+        if (segment < 0) {
+            return -segment - 2;
+        }
+        //长度为0的段和下一段起始位置相同
+        while (mLengths[segment] == 0) {
+            segment++;
+        }
+        return segment;
+    }
+
+    @Override
+    public String toString() {
+        return "CompositeBuffer{" +
+                "segments=" + mArrays.length +
+                ", length=" + mLength +
+                '}';
+    }
+}
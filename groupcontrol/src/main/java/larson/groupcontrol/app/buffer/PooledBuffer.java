@@ -0,0 +1,133 @@
+package larson.groupcontrol.app.buffer;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 带引用计数的缓冲区，引用计数归零时自动回到{@link BufferPool}
+ * <p>
+ * A reference-counted byte buffer handed out by {@link BufferPool}. The holder that acquires it
+ * owns one reference; anyone who keeps it beyond the current call must {@link #retain()} it and
+ * every reference must be {@link #release() released} exactly once. When the count drops to zero
+ * the buffer goes back to its pool and must not be touched again.
+ * <p>
+ * {@link #array()} may be larger than {@link #length()}, only the first {@code length()} bytes
+ * belong to the holder.
+ */
+public final class PooledBuffer {
+    private final BufferPool mPool;
+    private final byte[] mArray;
+    private final ByteBuffer mBuffer;
+    private final AtomicInteger mRefCnt = new AtomicInteger();
+    private int mLength;
+    private volatile boolean isUnpooled;
+    /**
+     * 调试模式下记录分配位置，用于检测泄漏
+     */
+    WeakReference<PooledBuffer> mLeakRecord;
+
+    PooledBuffer(BufferPool pool, byte[] array) {
+        mPool = pool;
+        mArray = array;
+        mBuffer = ByteBuffer.wrap(array).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * 包装一个不属于任何缓冲池的数组，释放时不会回收
+     *
+     * @param array 数组
+     * @return 引用计数为1的缓冲区
+     */
+    public static PooledBuffer wrap(byte[] array) {
+        PooledBuffer buffer = new PooledBuffer(null, array);
+        buffer.reset(array.length);
+        return buffer;
+    }
+
+    void reset(int length) {
+        mLength = length;
+        mRefCnt.set(1);
+    }
+
+    public byte[] array() {
+        return mArray;
+    }
+
+    /**
+     * @return 小字节序的{@link ByteBuffer}，覆盖整个数组，使用绝对位置读写
+     */
+    public ByteBuffer buffer() {
+        return mBuffer;
+    }
+
+    public int length() {
+        return mLength;
+    }
+
+    public int refCnt() {
+        return mRefCnt.get();
+    }
+
+    /**
+     * 增加一个引用
+     *
+     * @return this
+     */
+    public PooledBuffer retain() {
+        int refCnt;
+        do {
+            refCnt = mRefCnt.get();
+            if (refCnt <= 0) {
+                throw new IllegalStateException("buffer already released");
+            }
+        } while (!mRefCnt.compareAndSet(refCnt, refCnt + 1));
+        return this;
+    }
+
+    /**
+     * 释放一个引用，引用计数归零时回到缓冲池
+     *
+     * @return 是否已经回到缓冲池
+     */
+    public boolean release() {
+        int refCnt = mRefCnt.decrementAndGet();
+        if (refCnt < 0) {
+            throw new IllegalStateException("buffer released too many times");
+        }
+        if (refCnt == 0) {
+            if (mPool != null && !isUnpooled) {
+                mPool.recycle(this);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 把缓冲区交给GC管理：不再检测泄漏，引用计数归零时也不回到缓冲池
+     * <p>
+     * For a buffer whose last reader cannot be known, such as one behind a read-only view handed to
+     * application code. The buffer stays valid for as long as anything refers to it and is never
+     * reused.
+     *
+     * @return this
+     */
+    public PooledBuffer unpool() {
+        isUnpooled = true;
+        if (mPool != null) {
+            mPool.untrack(this);
+        }
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "PooledBuffer{" +
+                "capacity=" + mArray.length +
+                ", length=" + mLength +
+                ", refCnt=" + mRefCnt.get() +
+                '}';
+    }
+}
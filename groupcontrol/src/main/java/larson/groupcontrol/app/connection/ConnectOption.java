@@ -18,6 +18,42 @@ import java.nio.ByteOrder;
  * 可选配置，如果没有配置，使用默认值
  */
 public class ConnectOption {
+    /**
+     * 接收队列满时阻塞读线程，由TCP流控让对端降速
+     */
+    public static final int DROP_POLICY_BLOCK = 0;
+    /**
+     * 接收队列满时丢弃最旧的DATA包，没有DATA包时阻塞读线程
+     */
+    public static final int DROP_POLICY_OLDEST_DATA = 1;
+    /**
+     * 接收队列满时丢弃指定类型的包，见{@link Builder#setDroppableTypes(byte...)}，没有可丢弃的包时阻塞读线程
+     */
+    public static final int DROP_POLICY_BY_TYPE = 2;
+    /**
+     * 默认接收队列容量，单位是包
+     */
+    public static final int DEFAULT_RECEIVE_QUEUE_CAPACITY = 1024;
+    /**
+     * 默认每次合并写出的最大字节数
+     */
+    public static final int DEFAULT_WRITE_BATCH_SIZE = 64 * 1024;
+    /**
+     * 默认各发送优先级的权重，依次是高、普通、批量，单位是每轮发送的包数
+     */
+    static final int[] DEFAULT_LANE_WEIGHTS = {8, 4, 1};
+    /**
+     * 默认一个连接上同时等待回复的最大请求数
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT_REQUESTS = 64;
+    /**
+     * 默认执行监听器的线程数，0表示监听器在收包线程中依次执行，见{@link Builder#setListenerThreads(int, int)}
+     */
+    public static final int DEFAULT_LISTENER_THREADS = 0;
+    /**
+     * 默认每个监听器线程的队列容量，单位是消息
+     */
+    public static final int DEFAULT_LISTENER_QUEUE_CAPACITY = 256;
 
     /**
      * 框架是否是调试模式
@@ -51,6 +87,63 @@ public class ConnectOption {
     private int mSocketTimeout;
 
     private boolean isReconnectAllowed;
+    /**
+     * 是否在同一个线程中读取、解码和分发数据包
+     */
+    private boolean isSingleThreadRead;
+    /**
+     * 是否检测缓冲池泄漏，只在调试模式下生效
+     */
+    private boolean isBufferLeakDetection;
+    /**
+     * 读线程和解析线程之间接收队列的容量
+     */
+    private int mReceiveQueueCapacity;
+    /**
+     * 接收队列满时的处理策略
+     */
+    private int mReceiveDropPolicy;
+    /**
+     * {@link #DROP_POLICY_BY_TYPE}策略下可以丢弃的包类型
+     */
+    private byte[] mDroppableTypes;
+    /**
+     * 每次合并写出的最大字节数
+     */
+    private int mWriteBatchSize;
+    /**
+     * 凑批最多等待的时间，单位是微秒
+     */
+    private long mWriteBatchDelay;
+    /**
+     * 连续多少个心跳间隔没有收到任何数据时认为对端已断开，0表示不检测
+     */
+    private int mMaxMissedPulses;
+    /**
+     * 写线程各发送优先级每轮发送的包数
+     */
+    private int[] mLaneWeights;
+    /**
+     * 同时等待回复的最大请求数
+     */
+    private int mMaxInFlightRequests;
+    /**
+     * 长消息组包超时时间，单位是毫秒
+     */
+    private long mReassemblyTimeout;
+    /**
+     * 所有没收齐的长消息最多占用的字节数
+     */
+    private int mMaxReassemblyBytes;
+    /**
+     * 同一个pid没收齐的长消息最多占用的字节数
+     */
+    private int mMaxReassemblyBytesPerPid;
+    /**
+     * 执行监听器的线程数，0表示在收包线程中直接执行
+     */
+    private int mListenerThreads;
+    private int mListenerQueueCapacity;
 
     private ConnectOption(Builder okOptions) {
         mPulseFrequency = okOptions.mPulseFrequency;
@@ -61,6 +154,21 @@ public class ConnectOption {
         isReconnectAllowed = okOptions.isReconnectAllowed;
         isDebug = okOptions.isDebug;
         reconnectInterval = okOptions.mReconnectInterval;
+        isSingleThreadRead = okOptions.isSingleThreadRead;
+        isBufferLeakDetection = okOptions.isBufferLeakDetection;
+        mReceiveQueueCapacity = okOptions.mReceiveQueueCapacity;
+        mReceiveDropPolicy = okOptions.mReceiveDropPolicy;
+        mDroppableTypes = okOptions.mDroppableTypes;
+        mWriteBatchSize = okOptions.mWriteBatchSize;
+        mWriteBatchDelay = okOptions.mWriteBatchDelay;
+        mMaxMissedPulses = okOptions.mMaxMissedPulses;
+        mLaneWeights = okOptions.mLaneWeights;
+        mMaxInFlightRequests = okOptions.mMaxInFlightRequests;
+        mReassemblyTimeout = okOptions.mReassemblyTimeout;
+        mMaxReassemblyBytes = okOptions.mMaxReassemblyBytes;
+        mMaxReassemblyBytesPerPid = okOptions.mMaxReassemblyBytesPerPid;
+        mListenerThreads = okOptions.mListenerThreads;
+        mListenerQueueCapacity = okOptions.mListenerQueueCapacity;
     }
 
 
@@ -96,6 +204,66 @@ public class ConnectOption {
         return mSocketTimeout;
     }
 
+    public boolean isSingleThreadRead() {
+        return isSingleThreadRead;
+    }
+
+    public boolean isBufferLeakDetection() {
+        return isDebug && isBufferLeakDetection;
+    }
+
+    public int getReceiveQueueCapacity() {
+        return mReceiveQueueCapacity;
+    }
+
+    public int getReceiveDropPolicy() {
+        return mReceiveDropPolicy;
+    }
+
+    public byte[] getDroppableTypes() {
+        return mDroppableTypes;
+    }
+
+    public int getWriteBatchSize() {
+        return mWriteBatchSize;
+    }
+
+    public long getWriteBatchDelay() {
+        return mWriteBatchDelay;
+    }
+
+    public int getMaxMissedPulses() {
+        return mMaxMissedPulses;
+    }
+
+    public int[] getLaneWeights() {
+        return mLaneWeights.clone();
+    }
+
+    public int getMaxInFlightRequests() {
+        return mMaxInFlightRequests;
+    }
+
+    public long getReassemblyTimeout() {
+        return mReassemblyTimeout;
+    }
+
+    public int getMaxReassemblyBytes() {
+        return mMaxReassemblyBytes;
+    }
+
+    public int getMaxReassemblyBytesPerPid() {
+        return mMaxReassemblyBytesPerPid;
+    }
+
+    public int getListenerThreads() {
+        return mListenerThreads;
+    }
+
+    public int getListenerQueueCapacity() {
+        return mListenerQueueCapacity;
+    }
+
     public static class Builder {
         /**
          * 脉搏频率单位是毫秒
@@ -131,6 +299,60 @@ public class ConnectOption {
          * 是否调试模式
          */
         private boolean isDebug = true;
+        /**
+         * 是否单线程读取
+         */
+        private boolean isSingleThreadRead;
+        /**
+         * 是否检测缓冲池泄漏
+         */
+        private boolean isBufferLeakDetection;
+        /**
+         * 接收队列容量
+         */
+        private int mReceiveQueueCapacity = DEFAULT_RECEIVE_QUEUE_CAPACITY;
+        /**
+         * 接收队列满时的处理策略
+         */
+        private int mReceiveDropPolicy = DROP_POLICY_BLOCK;
+        /**
+         * 可以丢弃的包类型
+         */
+        private byte[] mDroppableTypes;
+        /**
+         * 每次合并写出的最大字节数
+         */
+        private int mWriteBatchSize = DEFAULT_WRITE_BATCH_SIZE;
+        /**
+         * 凑批最多等待的时间，单位是微秒
+         */
+        private long mWriteBatchDelay;
+        /**
+         * 读空闲检测的心跳间隔数
+         */
+        private int mMaxMissedPulses;
+        /**
+         * 各发送优先级的权重
+         */
+        private int[] mLaneWeights = DEFAULT_LANE_WEIGHTS;
+        /**
+         * 同时等待回复的最大请求数
+         */
+        private int mMaxInFlightRequests = DEFAULT_MAX_IN_FLIGHT_REQUESTS;
+        /**
+         * 长消息组包超时时间
+         */
+        private long mReassemblyTimeout = FragmentReassembler.DEFAULT_TIMEOUT;
+        /**
+         * 没收齐的长消息最多占用的字节数
+         */
+        private int mMaxReassemblyBytes = FragmentReassembler.DEFAULT_MAX_BYTES;
+        private int mMaxReassemblyBytesPerPid = FragmentReassembler.DEFAULT_MAX_BYTES_PER_PID;
+        /**
+         * 执行监听器的线程数和每个线程的队列容量
+         */
+        private int mListenerThreads = DEFAULT_LISTENER_THREADS;
+        private int mListenerQueueCapacity = DEFAULT_LISTENER_QUEUE_CAPACITY;
 
         public Builder(String clientID) throws Exception {
             MessageSnBuilder.getInstance().setClientKey(clientID);
@@ -139,6 +361,7 @@ public class ConnectOption {
         /**
          * 设置脉搏间隔频率<br>
          * 单位是毫秒<br>
+         * 只有连接空闲(这段时间内没有写出任何数据)时才发送心跳<br>
          *
          * @param pulseFrequency 间隔毫秒数
          */
@@ -238,6 +461,190 @@ public class ConnectOption {
             return this;
         }
 
+        /**
+         * 单线程读取模式，读取、解码以及{@link PacketRouter#onDataReceive}都在读线程中执行，
+         * 省掉了读线程和解析线程之间的队列交接和线程切换，但是listener处理耗时会直接阻塞读取<br>
+         * 默认关闭，即读线程和解析线程分开
+         *
+         * @param singleThread 是否单线程读取
+         */
+        public Builder setSingleThreadRead(boolean singleThread) {
+            isSingleThreadRead = singleThread;
+            return this;
+        }
+
+        /**
+         * 检测缓冲池泄漏，没有释放就被回收的缓冲区会打印出获取时的调用栈<br>
+         * 每次获取缓冲区都会记录调用栈，只在调试模式({@link #setDebug(boolean)})下生效
+         *
+         * @param enable 是否检测
+         */
+        public Builder setBufferLeakDetection(boolean enable) {
+            isBufferLeakDetection = enable;
+            return this;
+        }
+
+        /**
+         * 设置读线程和解析线程之间接收队列的容量，单位是包<br>
+         * 默认是{@link #DEFAULT_RECEIVE_QUEUE_CAPACITY}，单线程读取模式下没有接收队列
+         *
+         * @param capacity 队列容量
+         */
+        public Builder setReceiveQueueCapacity(int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("capacity <= 0: " + capacity);
+            }
+            mReceiveQueueCapacity = capacity;
+            return this;
+        }
+
+        /**
+         * 设置接收队列满时的处理策略<br>
+         * 默认是{@link #DROP_POLICY_BLOCK}
+         *
+         * @param policy {@link #DROP_POLICY_BLOCK}、{@link #DROP_POLICY_OLDEST_DATA}或{@link #DROP_POLICY_BY_TYPE}
+         */
+        public Builder setReceiveDropPolicy(int policy) {
+            if (policy < DROP_POLICY_BLOCK || policy > DROP_POLICY_BY_TYPE) {
+                throw new IllegalArgumentException("unknown drop policy: " + policy);
+            }
+            mReceiveDropPolicy = policy;
+            return this;
+        }
+
+        /**
+         * 设置{@link #DROP_POLICY_BY_TYPE}策略下可以丢弃的包类型，如
+         * {@link larson.groupcontrol.app.packet.PacketHeader#TYPE_HEART}、
+         * {@link larson.groupcontrol.app.packet.PacketHeader#TYPE_DATA}
+         *
+         * @param types 包类型
+         */
+        public Builder setDroppableTypes(byte... types) {
+            mDroppableTypes = types;
+            return this;
+        }
+
+        /**
+         * 设置写线程每次合并写出的最大字节数，队列中积压的包会合并成一次write和flush<br>
+         * 默认是{@link #DEFAULT_WRITE_BATCH_SIZE}，小于一个最大包时按一个最大包算，0表示不合并
+         *
+         * @param batchSize 最大字节数
+         */
+        public Builder setWriteBatchSize(int batchSize) {
+            if (batchSize < 0) {
+                throw new IllegalArgumentException("batchSize < 0: " + batchSize);
+            }
+            mWriteBatchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * 设置写线程凑批最多等待的时间，即合并写出给每个包增加的最大延迟<br>
+         * 默认是0，只合并已经在队列中的包，不额外等待
+         *
+         * @param delayMicros 等待时间，单位是微秒
+         */
+        public Builder setWriteBatchDelay(long delayMicros) {
+            if (delayMicros < 0) {
+                throw new IllegalArgumentException("delayMicros < 0: " + delayMicros);
+            }
+            mWriteBatchDelay = delayMicros;
+            return this;
+        }
+
+        /**
+         * 设置读空闲检测：连续maxMissed个心跳间隔({@link #setPulseFrequency(long)})没有收到对端任何数据时，
+         * 认为对端已断开并按连接异常断开处理<br>
+         * 默认是0，不检测；对端需要在空闲时发送心跳或者回复心跳
+         *
+         * @param maxMissed 心跳间隔数
+         */
+        public Builder setMaxMissedPulses(int maxMissed) {
+            if (maxMissed < 0) {
+                throw new IllegalArgumentException("maxMissed < 0: " + maxMissed);
+            }
+            mMaxMissedPulses = maxMissed;
+            return this;
+        }
+
+        /**
+         * 设置写线程按加权轮询调度各发送优先级时每轮发送的包数，大消息按包和其他消息交错发送<br>
+         * 默认依次是8、4、1
+         *
+         * @param high   {@link larson.groupcontrol.app.message.Message#PRIORITY_HIGH}的权重
+         * @param normal {@link larson.groupcontrol.app.message.Message#PRIORITY_NORMAL}的权重
+         * @param bulk   {@link larson.groupcontrol.app.message.Message#PRIORITY_BULK}的权重
+         */
+        public Builder setLaneWeights(int high, int normal, int bulk) {
+            if (high <= 0 || normal <= 0 || bulk <= 0) {
+                throw new IllegalArgumentException("lane weights must be positive");
+            }
+            mLaneWeights = new int[]{high, normal, bulk};
+            return this;
+        }
+
+        /**
+         * 设置一个连接上同时等待回复的最大请求数，超出的请求排队，等前面的请求完成后再发出<br>
+         * 默认是{@link #DEFAULT_MAX_IN_FLIGHT_REQUESTS}，{@link RequestWindow#UNLIMITED}表示不限制
+         *
+         * @param maxInFlight 最大请求数
+         */
+        public Builder setMaxInFlightRequests(int maxInFlight) {
+            if (maxInFlight < 0) {
+                throw new IllegalArgumentException("maxInFlight < 0: " + maxInFlight);
+            }
+            mMaxInFlightRequests = maxInFlight;
+            return this;
+        }
+
+        /**
+         * 设置长消息的组包超时：这么久没有收到新的分包时丢弃没收齐的消息<br>
+         * 默认是{@link FragmentReassembler#DEFAULT_TIMEOUT}
+         *
+         * @param timeout 超时时间，单位是毫秒
+         */
+        public Builder setReassemblyTimeout(long timeout) {
+            if (timeout <= 0) {
+                throw new IllegalArgumentException("timeout <= 0: " + timeout);
+            }
+            mReassemblyTimeout = timeout;
+            return this;
+        }
+
+        /**
+         * 设置没收齐的长消息最多占用的内存，超出时先丢弃最久没有收到新分包的消息<br>
+         * 默认是{@link FragmentReassembler#DEFAULT_MAX_BYTES}和{@link FragmentReassembler#DEFAULT_MAX_BYTES_PER_PID}
+         *
+         * @param maxBytes       这个连接上所有没收齐的消息最多占用的字节数
+         * @param maxBytesPerPid 同一个pid没收齐的消息最多占用的字节数
+         */
+        public Builder setReassemblyMemoryLimits(int maxBytes, int maxBytesPerPid) {
+            if (maxBytes <= 0 || maxBytesPerPid <= 0) {
+                throw new IllegalArgumentException("reassembly limits must be positive");
+            }
+            mMaxReassemblyBytes = maxBytes;
+            mMaxReassemblyBytesPerPid = maxBytesPerPid;
+            return this;
+        }
+
+        /**
+         * 设置执行监听器的线程：同一个设备(pid和vid)的消息总是在同一个线程中按顺序处理，
+         * 不同设备的消息并行处理，慢的监听器不会阻塞收包；队列满时收包线程等待<br>
+         * 线程数大于0时同一个监听器会被不同线程同时调用，监听器需要自己保证线程安全，抛出的异常只记录日志<br>
+         * 默认线程数为0，监听器在收包线程中直接执行；每个线程的队列默认{@link #DEFAULT_LISTENER_QUEUE_CAPACITY}条消息
+         *
+         * @param threads       线程数
+         * @param queueCapacity 每个线程的队列容量
+         */
+        public Builder setListenerThreads(int threads, int queueCapacity) {
+            if (threads < 0 || queueCapacity <= 0) {
+                throw new IllegalArgumentException("threads < 0 or queueCapacity <= 0");
+            }
+            mListenerThreads = threads;
+            mListenerQueueCapacity = queueCapacity;
+            return this;
+        }
+
         public ConnectOption build() {
             return new ConnectOption(this);
         }
@@ -1,17 +1,20 @@
 package larson.groupcontrol.app.connection;
 
-import android.net.LocalSocket;
-import android.net.LocalSocketAddress;
-
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
 
 import larson.groupcontrol.app.SocketConfiguration;
+import larson.groupcontrol.app.exception.UnconnectedException;
 import larson.groupcontrol.app.filter.MessageFilter;
-import larson.groupcontrol.app.filter.MessageIdFilter;
 import larson.groupcontrol.app.listener.IMessageListener;
 import larson.groupcontrol.app.message.Message;
+import larson.groupcontrol.app.packet.PacketHeader;
+import larson.groupcontrol.app.transport.Transport;
+import larson.groupcontrol.app.transport.Transports;
+import larson.groupcontrol.app.util.BytesUtils;
 import larson.groupcontrol.app.util.LogUtils;
 
 
@@ -37,13 +40,15 @@ public class Connection {
      */
     private SocketConfiguration mConfig;
     /**
-     * The socket which is used for this connection
+     * The transport which is used for this connection
      */
-    private LocalSocket mSocket;
+    private Transport mTransport;
     private InputStream mInputStream;
     private OutputStream mOutputStream;
     private PacketReader mReader;
     private PacketWriter mWriter;
+    private Heartbeat mHeartbeat;
+    private RequestWindow mRequestWindow;
     private IConnectionListener connListener;
     /**
      * 包分发器，因为控制端会收到不同的客户端发过来的包，需要对这些包进行分包路由，
@@ -61,7 +66,15 @@ public class Connection {
      */
     Connection(SocketConfiguration cfg) {
         mConfig = cfg;
-        packetRouter = new PacketRouter();
+        ConnectOption option = cfg.getSkSocketOption();
+        if (option == null) {
+            packetRouter = new PacketRouter();
+        } else {
+            StripedExecutor listenerExecutor = option.getListenerThreads() == 0 ? null : new StripedExecutor(
+                    option.getListenerThreads(), option.getListenerQueueCapacity(), "GroupControl listener");
+            packetRouter = new PacketRouter(new FragmentReassembler(option.getReassemblyTimeout(),
+                    option.getMaxReassemblyBytes(), option.getMaxReassemblyBytesPerPid()), listenerExecutor);
+        }
     }
 
 
@@ -73,15 +86,14 @@ public class Connection {
      * Listeners will be preserved from a previous connection.
      */
     public void connect() throws IOException {
-        mSocket = new LocalSocket();
-        //int timeout =  mConfig.getSkSocketOption().getConnectTimeoutSecond()*1000;
-        mSocket.connect(new LocalSocketAddress(mConfig.getSocketName()));
-        mSocket.setSoTimeout(3000);
+        // The transport is chosen by the configuration: local socket, TCP or a custom one
+        mTransport = Transports.create(mConfig);
+        mTransport.connect();
 
         // Set the input stream and output stream instance variables
         try {
-            mInputStream = mSocket.getInputStream();
-            mOutputStream = mSocket.getOutputStream();
+            mInputStream = mTransport.getInputStream();
+            mOutputStream = mTransport.getOutputStream();
         } catch (IOException ioe) {
             // An exception occurred in setting up the connection. Make sure we shut down the input
             // stream and output stream and close the socket
@@ -93,17 +105,29 @@ public class Connection {
         mWriter = new PacketWriter(this);
         mReader = new PacketReader(this, new PacketReader.OnCallbackListener() {
             @Override
-            public void onDataReceive(byte[] data, int len) {
-                packetRouter.onDataReceive(data, len);
+            public void onDataReceive(ByteBuffer buffer, int offset, int len) {
+                if (BytesUtils.bytesToType(buffer.array(), buffer.arrayOffset() + offset) == PacketHeader.TYPE_HEART) {
+                    mHeartbeat.onHeartbeat(buffer, offset, len);
+                }
+                packetRouter.onDataReceive(buffer, offset, len);
             }
         });
+        ConnectOption option = mConfig.getSkSocketOption();
+        mHeartbeat = new Heartbeat(this, mReader, mWriter, option.getPulseFrequency(), option.getMaxMissedPulses());
+        final PacketWriter writer = mWriter;
+        mRequestWindow = new RequestWindow(new RequestWindow.Sender() {
+            @Override
+            public void send(Message msg) {
+                writer.sendMessage(msg);
+            }
+        }, option.getMaxInFlightRequests());
 
         // Start the message writer
         mWriter.startup();
         // Start the message reader, the startup() method will block until we get a packet from server
         mReader.startup();
 
-        mWriter.keepAlive(mConfig.getSkSocketOption().getPulseFrequency());
+        mHeartbeat.start();
 
         // Make note of the fact that we're now connected
         setConnected(true);
@@ -125,6 +149,9 @@ public class Connection {
     }
 
     private void resetConnection() {
+        if (mHeartbeat != null) {
+            mHeartbeat.stop();
+        }
         if (mWriter != null) {
             mWriter.shutdown();
             mWriter = null;
@@ -149,13 +176,13 @@ public class Connection {
             }
             mOutputStream = null;
         }
-        if (mSocket != null) {
+        if (mTransport != null) {
             try {
-                mSocket.close();
+                mTransport.close();
             } catch (IOException e) {
                 // Ignore
             }
-            mSocket = null;
+            mTransport = null;
         }
 
         if (packetRouter != null) {
@@ -169,6 +196,10 @@ public class Connection {
         resetConnection();
     }
 
+    SocketConfiguration getConfiguration() {
+        return mConfig;
+    }
+
     public InputStream getInputStream() {
         return mInputStream;
     }
@@ -177,6 +208,95 @@ public class Connection {
         return mOutputStream;
     }
 
+    /**
+     * @return 最近一次心跳往返时间，单位是微秒，0表示还没有样本
+     */
+    public long getLastHeartbeatRtt() {
+        return mHeartbeat == null ? 0 : mHeartbeat.getLastRtt();
+    }
+
+    /**
+     * @return 平滑后的心跳往返时间，单位是微秒，0表示还没有样本
+     */
+    public long getSmoothedHeartbeatRtt() {
+        return mHeartbeat == null ? 0 : mHeartbeat.getSmoothedRtt();
+    }
+
+    /**
+     * @return 心跳往返时间样本数
+     */
+    public long getHeartbeatRttSamples() {
+        return mHeartbeat == null ? 0 : mHeartbeat.getRttSamples();
+    }
+
+    /**
+     * @param priority 发送优先级，如{@link Message#PRIORITY_HIGH}
+     * @return 该优先级发送队列中还没开始发送的消息数
+     */
+    public int getSendQueueDepth(int priority) {
+        PacketWriter writer = mWriter;
+        return writer == null ? 0 : writer.getQueueDepth(priority);
+    }
+
+    /**
+     * @param priority 发送优先级
+     * @return 该优先级发送队列曾经达到的最大深度
+     */
+    public int getMaxSendQueueDepth(int priority) {
+        PacketWriter writer = mWriter;
+        return writer == null ? 0 : writer.getMaxQueueDepth(priority);
+    }
+
+    /**
+     * @param priority 发送优先级
+     * @return 该优先级的消息从调用发送到开始写出的平均等待时间，单位是微秒
+     */
+    public long getAverageSendWait(int priority) {
+        PacketWriter writer = mWriter;
+        return writer == null ? 0 : writer.getAverageWaitTime(priority);
+    }
+
+    /**
+     * @param priority 发送优先级
+     * @return 该优先级的消息从调用发送到开始写出的最大等待时间，单位是微秒
+     */
+    public long getMaxSendWait(int priority) {
+        PacketWriter writer = mWriter;
+        return writer == null ? 0 : writer.getMaxWaitTime(priority);
+    }
+
+    /**
+     * @return 已经写出、等待回复的异步请求数
+     */
+    public int getInFlightRequests() {
+        RequestWindow window = mRequestWindow;
+        return window == null ? 0 : window.getInFlightCount();
+    }
+
+    /**
+     * @return 等待窗口空位、还没写出的异步请求数
+     */
+    public int getWaitingRequests() {
+        RequestWindow window = mRequestWindow;
+        return window == null ? 0 : window.getWaitingCount();
+    }
+
+    /**
+     * @return 长消息的组包器，可以查看完成、丢弃和重复分包的统计；连接关闭后为null
+     */
+    public FragmentReassembler getReassembler() {
+        PacketRouter router = packetRouter;
+        return router == null ? null : router.getReassembler();
+    }
+
+    /**
+     * @return 执行监听器的线程，可以查看每一条的排队和延迟；在收包线程中直接执行或连接关闭后为null
+     */
+    public StripedExecutor getListenerExecutor() {
+        PacketRouter router = packetRouter;
+        return router == null ? null : router.getListenerExecutor();
+    }
+
     public boolean isConnected() {
         return mConnected;
     }
@@ -216,40 +336,78 @@ public class Connection {
     }
 
 
+    /**
+     * 发送消息并等待这个请求的回复，阻塞调用线程，是{@link #sendAsync(Message, long)}的同步包装
+     *
+     * @param msg     要发送的消息
+     * @param timeOut 超时时间，单位是毫秒
+     * @return 回复的消息，超时或者连接断开返回null
+     */
     public Message sendSyncMessage(final Message msg, long timeOut) {
-        if (!isConnected()) {
-            LogUtils.e("Not connected to server...");
-            return null;
-        }
-        if (msg == null) {
-            LogUtils.e("Message is null.");
+        return getSync(sendAsync(msg, timeOut));
+    }
+
+    /**
+     * 发送消息并等待符合filter的回复，阻塞调用线程，是{@link #sendAsync(Message, MessageFilter, long)}的同步包装
+     *
+     * @param msg     要发送的消息
+     * @param filter  回复的过滤器
+     * @param timeOut 超时时间，单位是毫秒
+     * @return 回复的消息，超时或者连接断开返回null
+     */
+    public Message sendSyncMessage(final Message msg, MessageFilter filter, long timeOut) {
+        return getSync(sendAsync(msg, filter, timeOut));
+    }
+
+    private static Message getSync(MessageFuture future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            LogUtils.d("sync message failed:" + e.getCause());
             return null;
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            throw new RuntimeException(e);
         }
+    }
 
-        mWriter.sendMessage(msg);
-
-        //创造一个filter过滤不属于该ClientID的消息
-        MessageFilter idFilter = new MessageIdFilter(msg.getMsgId());
-        MessageCollector collector = packetRouter.createMessageCollector(idFilter);
-        Message retMsg = collector.nextResult(timeOut);
-        collector.cancel();
-        return retMsg;
+    /**
+     * 发送消息，不阻塞调用线程，返回的future在收到这个请求的回复(sn、msgId相同并且带回复标志)时完成
+     *
+     * @param msg     要发送的消息
+     * @param timeOut 超时时间，单位是毫秒，小于等于0表示不超时
+     * @return 等待中的回复
+     */
+    public MessageFuture sendAsync(Message msg, long timeOut) {
+        return sendAsync(msg, null, timeOut);
     }
 
-    public Message sendSyncMessage(final Message msg, MessageFilter filter, long timeOut) {
-        if (!isConnected()) {
+    /**
+     * 发送消息，不阻塞调用线程，返回的future在收到符合filter的消息时完成；
+     * 回复的future在写出请求之前就注册好，不会漏掉很快到达的回复；
+     * 等待回复的请求数达到{@link ConnectOption#getMaxInFlightRequests()}时请求先排队
+     *
+     * @param msg     要发送的消息
+     * @param filter  回复的过滤器，null表示等待这个请求的回复
+     * @param timeOut 超时时间，单位是毫秒，小于等于0表示不超时
+     * @return 等待中的回复
+     */
+    public MessageFuture sendAsync(Message msg, MessageFilter filter, long timeOut) {
+        PacketRouter router = packetRouter;
+        RequestWindow window = mRequestWindow;
+        if (!isConnected() || router == null || window == null) {
             LogUtils.e("Not connected to server...");
-            return null;
+            return MessageFuture.failed(new UnconnectedException("Not connected to server"));
         }
         if (msg == null) {
             LogUtils.e("Message is null.");
-            return null;
+            return MessageFuture.failed(new NullPointerException("Message is null."));
         }
-        mWriter.sendMessage(msg);
-        MessageCollector collector = packetRouter.createMessageCollector(filter);
-        Message retMsg = collector.nextResult(timeOut);
-        collector.cancel();
-        return retMsg;
+        MessageFuture future = filter == null
+                ? router.createResponseFuture(msg) : router.createResponseFuture(filter);
+        future.setTimeout(timeOut);
+        window.submit(msg, future);
+        return future;
     }
 
     public void addMsgListener(IMessageListener listener, MessageFilter filter) {
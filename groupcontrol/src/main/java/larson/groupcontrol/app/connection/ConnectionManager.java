@@ -129,6 +129,16 @@ public class ConnectionManager implements IConnectionManager {
         return mConnection.sendSyncMessage(msgDataBean, timeout);
     }
 
+    @Override
+    public MessageFuture sendAsync(Message msgDataBean, long timeout) {
+        return mConnection.sendAsync(msgDataBean, timeout);
+    }
+
+    @Override
+    public MessageFuture sendAsync(Message msgDataBean, MessageFilter filter, long timeout) {
+        return mConnection.sendAsync(msgDataBean, filter, timeout);
+    }
+
     /**
      * Send a message, each message will be sent through the child thread
      * to avoid blocking the child thread
@@ -0,0 +1,322 @@
+package larson.groupcontrol.app.connection;
+
+import larson.groupcontrol.app.buffer.BufferPool;
+import larson.groupcontrol.app.buffer.PooledBuffer;
+import larson.groupcontrol.app.message.PayloadChecker;
+import larson.groupcontrol.app.packet.PacketView;
+import larson.groupcontrol.app.util.LogUtils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 长消息的组包器，按分包序号存放分包，超时或超出内存上限时丢弃没收齐的消息
+ * <p>
+ * Collects the fragments of large messages until each is complete. A partial message is keyed by
+ * pid, sn, msgId and the response bit, gets a slot array sized by its {@code subCount} on the
+ * first fragment, and every fragment is copied into a pooled buffer at its {@code subIndex}, so a
+ * repeated fragment is detected and dropped instead of completing the message with the wrong
+ * contents. A fragment whose {@code subCount} disagrees with the partial message under the same
+ * key means the sn was reused; the stale partial is evicted and a new one started.
+ * <p>
+ * The CRC is computed by a {@link PayloadChecker} as the fragments arrive, so a complete message
+ * is already verified and its fragments never have to be read again to check it. A message whose
+ * CRC does not match is dropped and counted.
+ * <p>
+ * Partial messages are evicted when no fragment arrived for the timeout, and, least recently
+ * active first, when the buffered bytes would exceed the total or the per-pid limit. Expiry is
+ * checked on every received packet, so heartbeats keep sweeping an idle connection.
+ * <p>
+ * Not thread safe: all methods except the counters must be called from the single thread that
+ * receives packets. The counters can be read from any thread.
+ */
+public class FragmentReassembler {
+    /**
+     * 默认的组包超时时间，单位是毫秒
+     */
+    public static final long DEFAULT_TIMEOUT = 30 * 1000;
+    /**
+     * 默认所有没收齐的消息最多占用的字节数
+     */
+    public static final int DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+    /**
+     * 默认同一个pid没收齐的消息最多占用的字节数
+     */
+    public static final int DEFAULT_MAX_BYTES_PER_PID = 16 * 1024 * 1024;
+
+    private final long mTimeoutNanos;
+    private final int mMaxBytes;
+    private final int mMaxBytesPerPid;
+    /**
+     * 按最近收到分包的时间排序，最久没有进展的在前；按插入顺序排列，接受分包时移到表尾，
+     * 查找、重复和被拒绝的分包不改变顺序
+     */
+    private final Map<Long, Partial> mPartials = new LinkedHashMap<>();
+    private final Map<Integer, int[]> mBytesPerPid = new LinkedHashMap<>();
+    private volatile int mBytes;
+    private volatile int mPendingCount;
+    private volatile long mCompletedCount;
+    private volatile long mEvictedCount;
+    private volatile long mDuplicateCount;
+    private volatile long mDroppedCount;
+    private volatile long mCorruptCount;
+    /**
+     * 复用的分包视图，用于找到分包缓冲区中的包体
+     */
+    private final PacketView mFrameView = new PacketView();
+
+    public FragmentReassembler() {
+        this(DEFAULT_TIMEOUT, DEFAULT_MAX_BYTES, DEFAULT_MAX_BYTES_PER_PID);
+    }
+
+    /**
+     * @param timeout        多久没有收到新的分包就丢弃没收齐的消息，单位是毫秒
+     * @param maxBytes       所有没收齐的消息最多占用的字节数
+     * @param maxBytesPerPid 同一个pid没收齐的消息最多占用的字节数
+     */
+    public FragmentReassembler(long timeout, int maxBytes, int maxBytesPerPid) {
+        if (timeout <= 0 || maxBytes <= 0 || maxBytesPerPid <= 0) {
+            throw new IllegalArgumentException("timeout and limits must be positive");
+        }
+        mTimeoutNanos = timeout * 1000000;
+        mMaxBytes = maxBytes;
+        mMaxBytesPerPid = maxBytesPerPid;
+    }
+
+    /**
+     * 放入一个分包
+     *
+     * @param view 收到的分包，必须是长消息的分包
+     * @param now  当前时间，{@link System#nanoTime()}
+     * @return 收齐并且crc正确时按分包序号排好的所有分包，调用者负责释放；没收齐、分包被丢弃或crc错误时返回null
+     */
+    PooledBuffer[] add(PacketView view, long now) {
+        int count = view.getSubCount();
+        int index = view.getSubIndex();
+        if (count < 2 || index < 1 || index > count) {
+            LogUtils.e("bad fragment " + index + " of " + count + ", sn=" + view.getSn());
+            mDroppedCount++;
+            return null;
+        }
+        int pid = view.getPacketHeader().getPid();
+        Long key = PacketRouter.getCorrelationKey(pid, view.getSn(), view.getMsgId(), view.isResponseMsg());
+        Partial partial = mPartials.get(key);
+        if (partial != null && partial.frames.length != count) {
+            //流水号被复用，旧的消息不会再收齐了
+            evict(key, partial);
+            partial = null;
+        }
+        if (partial != null && partial.frames[index - 1] != null) {
+            mDuplicateCount++;
+            return null;
+        }
+        int size = view.getLength();
+        if (!reserve(pid, size, key)) {
+            if (partial != null) {
+                evict(key, partial);
+            }
+            mDroppedCount++;
+            return null;
+        }
+        if (partial == null) {
+            partial = new Partial(pid, count);
+        }
+        PooledBuffer frame = BufferPool.getInstance().acquire(size);
+        view.copyTo(frame.array(), 0);
+        partial.frames[index - 1] = frame;
+        mFrameView.wrap(frame.buffer(), 0, size);
+        partial.checker.add(index, frame.buffer(), mFrameView.getBodyOffset(), mFrameView.getBodyLength());
+        partial.received++;
+        partial.bytes += size;
+        addPidBytes(pid, size);
+        partial.lastArrival = now;
+        mPartials.remove(key);
+        if (partial.received < count) {
+            //重新插入到表尾
+            mPartials.put(key, partial);
+            mPendingCount = mPartials.size();
+            return null;
+        }
+        mPendingCount = mPartials.size();
+        addPidBytes(pid, -partial.bytes);
+        if (!partial.checker.isValid()) {
+            LogUtils.e("data bytes crc16 check failure! sn=" + view.getSn() + ", msgId=" + view.getMsgId());
+            releaseFrames(partial);
+            mCorruptCount++;
+            return null;
+        }
+        mCompletedCount++;
+        return partial.frames;
+    }
+
+    /**
+     * 丢弃超时没有收到新分包的消息
+     *
+     * @param now 当前时间，{@link System#nanoTime()}
+     */
+    void evictExpired(long now) {
+        Iterator<Map.Entry<Long, Partial>> iterator = mPartials.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Partial> entry = iterator.next();
+            Partial partial = entry.getValue();
+            if (now - partial.lastArrival < mTimeoutNanos) {
+                break;
+            }
+            LogUtils.e("fragments timed out, received " + partial.received + " of " + partial.frames.length);
+            iterator.remove();
+            discard(partial);
+        }
+        mPendingCount = mPartials.size();
+    }
+
+    /**
+     * 丢弃所有没收齐的消息
+     */
+    void clear() {
+        for (Partial partial : mPartials.values()) {
+            addPidBytes(partial.pid, -partial.bytes);
+            releaseFrames(partial);
+        }
+        mPartials.clear();
+        mPendingCount = 0;
+    }
+
+    /**
+     * 为新分包腾出空间，按最久没有进展的顺序丢弃其他消息，不会丢弃current
+     *
+     * @return false表示即使丢弃其他所有消息也放不下
+     */
+    private boolean reserve(int pid, int size, Long current) {
+        if (size > mMaxBytesPerPid || size > mMaxBytes) {
+            return false;
+        }
+        Iterator<Map.Entry<Long, Partial>> iterator = mPartials.entrySet().iterator();
+        while (getPidBytes(pid) + size > mMaxBytesPerPid && iterator.hasNext()) {
+            Map.Entry<Long, Partial> entry = iterator.next();
+            Partial partial = entry.getValue();
+            if (partial.pid == pid && !entry.getKey().equals(current)) {
+                iterator.remove();
+                discard(partial);
+            }
+        }
+        iterator = mPartials.entrySet().iterator();
+        while (mBytes + size > mMaxBytes && iterator.hasNext()) {
+            Map.Entry<Long, Partial> entry = iterator.next();
+            if (!entry.getKey().equals(current)) {
+                iterator.remove();
+                discard(entry.getValue());
+            }
+        }
+        mPendingCount = mPartials.size();
+        return getPidBytes(pid) + size <= mMaxBytesPerPid && mBytes + size <= mMaxBytes;
+    }
+
+    private void evict(Long key, Partial partial) {
+        mPartials.remove(key);
+        mPendingCount = mPartials.size();
+        discard(partial);
+    }
+
+    /**
+     * 丢弃一个已经从表中移除的消息：扣除占用的字节数并释放分包缓冲区
+     */
+    private void discard(Partial partial) {
+        addPidBytes(partial.pid, -partial.bytes);
+        releaseFrames(partial);
+        mEvictedCount++;
+    }
+
+    private static void releaseFrames(Partial partial) {
+        for (PooledBuffer frame : partial.frames) {
+            if (frame != null) {
+                frame.release();
+            }
+        }
+    }
+
+    private int getPidBytes(int pid) {
+        int[] bytes = mBytesPerPid.get(pid);
+        return bytes == null ? 0 : bytes[0];
+    }
+
+    private void addPidBytes(int pid, int delta) {
+        if (delta == 0) {
+            return;
+        }
+        int[] bytes = mBytesPerPid.get(pid);
+        if (bytes == null) {
+            bytes = new int[1];
+            mBytesPerPid.put(pid, bytes);
+        }
+        bytes[0] += delta;
+        if (bytes[0] == 0) {
+            mBytesPerPid.remove(pid);
+        }
+        mBytes += delta;
+    }
+
+    /**
+     * @return 正在组包的消息数
+     */
+    public int getPendingCount() {
+        return mPendingCount;
+    }
+
+    /**
+     * @return 没收齐的消息占用的字节数
+     */
+    public int getPendingBytes() {
+        return mBytes;
+    }
+
+    /**
+     * @return 组包完成的消息数
+     */
+    public long getCompletedCount() {
+        return mCompletedCount;
+    }
+
+    /**
+     * @return 因为超时、超出内存上限或流水号复用而丢弃的没收齐的消息数
+     */
+    public long getEvictedCount() {
+        return mEvictedCount;
+    }
+
+    /**
+     * @return 收齐后crc错误而丢弃的消息数
+     */
+    public long getCorruptCount() {
+        return mCorruptCount;
+    }
+
+    /**
+     * @return 重复收到而丢弃的分包数
+     */
+    public long getDuplicateCount() {
+        return mDuplicateCount;
+    }
+
+    /**
+     * @return 序号非法或者超出内存上限而丢弃的分包数
+     */
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    private static class Partial {
+        final int pid;
+        final PooledBuffer[] frames;
+        final PayloadChecker checker;
+        int received;
+        int bytes;
+        long lastArrival;
+
+        Partial(int pid, int count) {
+            this.pid = pid;
+            this.frames = new PooledBuffer[count];
+            this.checker = new PayloadChecker(count);
+        }
+    }
+}
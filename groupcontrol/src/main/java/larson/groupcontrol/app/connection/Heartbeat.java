@@ -0,0 +1,184 @@
+package larson.groupcontrol.app.connection;
+
+import larson.groupcontrol.app.message.Message;
+import larson.groupcontrol.app.packet.PacketView;
+import larson.groupcontrol.app.util.LogUtils;
+
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按流量发送心跳并检测读空闲
+ * <p>
+ * Traffic-aware keep-alive for one {@link Connection}. A heartbeat is sent only when nothing has
+ * been written for a whole pulse interval, so a busy link carries no heartbeats at all. When
+ * {@link ConnectOption#getMaxMissedPulses()} is set, a peer that has not sent a single byte for
+ * that many intervals is declared dead and the connection is closed as if the socket had failed.
+ * <p>
+ * Heartbeat requests from the peer are answered with a heartbeat response carrying the same sn,
+ * and the answer to our own latest heartbeat gives a round-trip sample, see
+ * {@link #getLastRtt()} and {@link #getSmoothedRtt()}.
+ * <p>
+ * Checks are not periodic: each run schedules the next one at the earliest moment the link can
+ * become write-idle or read-dead, on the {@link SharedTimer} thread.
+ */
+class Heartbeat implements Runnable {
+    /**
+     * 默认心跳时间间隔，单位是毫秒
+     */
+    static final long DEFAULT_INTERVAL = 10 * 1000;
+    private static final short HEARTBEAT_MSG_ID = 0;
+    private static final long MIN_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Connection mConnection;
+    private final PacketReader mReader;
+    private final PacketWriter mWriter;
+    private final long mIntervalNanos;
+    private final int mMaxMissed;
+    private final PacketView mView = new PacketView();
+    private ScheduledFuture<?> mFuture;
+    private volatile boolean isStopped;
+    /**
+     * 最后一次发出心跳的时间，心跳在写队列中还没写出时也算作写活动，避免重复发送
+     */
+    private volatile long mLastPingNanos;
+    /**
+     * 等待回复的心跳流水号和发送时间，发送时间为0表示没有等待中的心跳
+     */
+    private volatile short mPingSn;
+    private volatile long mPingSentNanos;
+    private volatile long mLastRttNanos;
+    private volatile long mSmoothedRttNanos;
+    private volatile long mRttSamples;
+
+    /**
+     * @param interval  心跳间隔，单位是毫秒，小于等于0时使用{@link #DEFAULT_INTERVAL}
+     * @param maxMissed 连续多少个间隔没有收到任何数据时认为对端已断开，0表示不检测
+     */
+    Heartbeat(Connection connection, PacketReader reader, PacketWriter writer, long interval, int maxMissed) {
+        if (interval <= 0) {
+            LogUtils.e("read config error:keepAliveInterval=" + interval);
+            interval = DEFAULT_INTERVAL;
+        }
+        mConnection = connection;
+        mReader = reader;
+        mWriter = writer;
+        mIntervalNanos = TimeUnit.MILLISECONDS.toNanos(interval);
+        mMaxMissed = maxMissed;
+    }
+
+    void start() {
+        schedule(mIntervalNanos);
+    }
+
+    synchronized void stop() {
+        isStopped = true;
+        if (mFuture != null) {
+            mFuture.cancel(false);
+            mFuture = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        if (isStopped) {
+            return;
+        }
+        long now = System.nanoTime();
+        long readIdle = now - mReader.getLastReadTime();
+        if (mMaxMissed > 0 && readIdle >= mIntervalNanos * mMaxMissed) {
+            LogUtils.e("Peer silent for " + TimeUnit.NANOSECONDS.toMillis(readIdle) + "ms, closing connection");
+            stop();
+            if (mConnection.isConnected()) {
+                mConnection.onSocketCloseUnexpected(new SocketTimeoutException("read idle timeout"));
+            }
+            return;
+        }
+        long writeIdle = now - Math.max(mWriter.getLastWriteTime(), mLastPingNanos);
+        if (writeIdle >= mIntervalNanos) {
+            sendPing(now);
+            writeIdle = 0;
+        }
+        long delay = mIntervalNanos - writeIdle;
+        if (mMaxMissed > 0) {
+            delay = Math.min(delay, mIntervalNanos * mMaxMissed - readIdle);
+        }
+        schedule(delay);
+    }
+
+    /**
+     * 收到一个心跳包，在读线程或者解析线程中调用
+     *
+     * @param buffer 包所在的缓冲区
+     * @param offset 包在缓冲区中的起始位置
+     * @param length 包长度
+     */
+    void onHeartbeat(ByteBuffer buffer, int offset, int length) {
+        PacketView view = mView.wrap(buffer, offset, length);
+        short sn = view.getSn();
+        if (!view.isResponseMsg()) {
+            //对端的心跳请求，原样回复流水号，对端用它计算往返时间
+            try {
+                mWriter.sendMessage(new Message.Builder(HEARTBEAT_MSG_ID, sn)
+                        .setType(Message.MSG_TYPE_HEART).setAck(false).build());
+            } catch (Exception e) {
+                LogUtils.e("reply heartbeat failed:" + e.getMessage());
+            }
+            return;
+        }
+        long sent = mPingSentNanos;
+        if (sent == 0 || sn != mPingSn) {
+            return;
+        }
+        mPingSentNanos = 0;
+        long rtt = System.nanoTime() - sent;
+        long smoothed = mSmoothedRttNanos;
+        //和TCP一样按1/8的权重平滑
+        mSmoothedRttNanos = smoothed == 0 ? rtt : smoothed + (rtt - smoothed) / 8;
+        mLastRttNanos = rtt;
+        mRttSamples++;
+    }
+
+    /**
+     * @return 最近一次心跳往返时间，单位是微秒，0表示还没有样本
+     */
+    long getLastRtt() {
+        return TimeUnit.NANOSECONDS.toMicros(mLastRttNanos);
+    }
+
+    /**
+     * @return 平滑后的心跳往返时间，单位是微秒，0表示还没有样本
+     */
+    long getSmoothedRtt() {
+        return TimeUnit.NANOSECONDS.toMicros(mSmoothedRttNanos);
+    }
+
+    /**
+     * @return 往返时间样本数
+     */
+    long getRttSamples() {
+        return mRttSamples;
+    }
+
+    private void sendPing(long now) {
+        try {
+            Message msg = new Message.Builder(HEARTBEAT_MSG_ID)
+                    .setType(Message.MSG_TYPE_HEART).setAck(false).build();
+            mPingSn = msg.getSn();
+            mPingSentNanos = now;
+            mLastPingNanos = now;
+            mWriter.sendMessage(msg);
+        } catch (Exception e) {
+            LogUtils.e("send heartbeat failed:" + e.getMessage());
+        }
+    }
+
+    private synchronized void schedule(long delayNanos) {
+        if (isStopped) {
+            return;
+        }
+        mFuture = SharedTimer.schedule(this, Math.max(delayNanos, MIN_DELAY_NANOS), TimeUnit.NANOSECONDS);
+    }
+}
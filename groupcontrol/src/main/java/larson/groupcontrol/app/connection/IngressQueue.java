@@ -0,0 +1,203 @@
+package larson.groupcontrol.app.connection;
+
+import larson.groupcontrol.app.buffer.PooledBuffer;
+import larson.groupcontrol.app.packet.PacketHeader;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 读线程和解析线程之间的有界队列，队列满时按{@link ConnectOption}中配置的策略处理
+ * <p>
+ * The bounded hand-off between the read thread and the data thread. When it is full the reader
+ * either blocks, which stops reading the socket and lets the transport apply backpressure, or
+ * drops frames according to the configured policy:
+ * <ul>
+ * <li>{@link ConnectOption#DROP_POLICY_BLOCK}: always block the reader.</li>
+ * <li>{@link ConnectOption#DROP_POLICY_OLDEST_DATA}: drop the oldest queued DATA frame, block
+ * if there is none.</li>
+ * <li>{@link ConnectOption#DROP_POLICY_BY_TYPE}: drop the incoming frame if its type is
+ * droppable, otherwise the oldest queued droppable frame, block if there is none.</li>
+ * </ul>
+ * Depth and drop counters can be read from any thread.
+ */
+class IngressQueue {
+    private static final int TYPE_COUNT = PacketHeader.TYPE_MASK + 1;
+
+    private final PooledBuffer[] mItems;
+    private final byte[] mTypes;
+    private final int mPolicy;
+    private final boolean[] mDroppable = new boolean[TYPE_COUNT];
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mNotEmpty = mLock.newCondition();
+    private final Condition mNotFull = mLock.newCondition();
+    private int mHead;
+    private volatile int mCount;
+    private volatile int mMaxDepth;
+    private volatile long mDroppedCount;
+    private final long[] mDroppedByType = new long[TYPE_COUNT];
+    private boolean isClosed;
+
+    /**
+     * @param capacity       队列容量，单位是包
+     * @param policy         队列满时的处理策略
+     * @param droppableTypes {@link ConnectOption#DROP_POLICY_BY_TYPE}策略下可以丢弃的包类型
+     */
+    IngressQueue(int capacity, int policy, byte[] droppableTypes) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity <= 0: " + capacity);
+        }
+        mItems = new PooledBuffer[capacity];
+        mTypes = new byte[capacity];
+        mPolicy = policy;
+        if (policy == ConnectOption.DROP_POLICY_OLDEST_DATA) {
+            mDroppable[PacketHeader.TYPE_DATA] = true;
+        } else if (policy == ConnectOption.DROP_POLICY_BY_TYPE && droppableTypes != null) {
+            for (byte type : droppableTypes) {
+                mDroppable[type & PacketHeader.TYPE_MASK] = true;
+            }
+        }
+    }
+
+    /**
+     * 放入一个包，队列满时按策略丢包或者阻塞；被丢弃的包会被释放
+     *
+     * @param frame 包
+     * @param type  包类型
+     * @return false表示队列已关闭或者放入的包被丢弃
+     * @throws InterruptedException 阻塞时被中断
+     */
+    boolean put(PooledBuffer frame, byte type) throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            while (!isClosed && mCount == mItems.length) {
+                if (mPolicy == ConnectOption.DROP_POLICY_BY_TYPE && mDroppable[type]) {
+                    onDropped(frame, type);
+                    return false;
+                }
+                if (mPolicy != ConnectOption.DROP_POLICY_BLOCK && dropOldest()) {
+                    break;
+                }
+                mNotFull.await();
+            }
+            if (isClosed) {
+                frame.release();
+                return false;
+            }
+            int tail = (mHead + mCount) % mItems.length;
+            mItems[tail] = frame;
+            mTypes[tail] = type;
+            mCount++;
+            if (mCount > mMaxDepth) {
+                mMaxDepth = mCount;
+            }
+            mNotEmpty.signal();
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * 取出一个包，队列为空时阻塞
+     *
+     * @return 包，null表示队列已关闭
+     * @throws InterruptedException 阻塞时被中断
+     */
+    PooledBuffer take() throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            while (!isClosed && mCount == 0) {
+                mNotEmpty.await();
+            }
+            if (isClosed) {
+                return null;
+            }
+            PooledBuffer frame = mItems[mHead];
+            mItems[mHead] = null;
+            mHead = (mHead + 1) % mItems.length;
+            mCount--;
+            mNotFull.signal();
+            return frame;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * 关闭队列，唤醒所有等待的线程并释放队列中剩余的包
+     */
+    void close() {
+        mLock.lock();
+        try {
+            isClosed = true;
+            while (mCount > 0) {
+                mItems[mHead].release();
+                mItems[mHead] = null;
+                mHead = (mHead + 1) % mItems.length;
+                mCount--;
+            }
+            mNotEmpty.signalAll();
+            mNotFull.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    int capacity() {
+        return mItems.length;
+    }
+
+    int getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    long getDroppedCount(byte type) {
+        mLock.lock();
+        try {
+            return mDroppedByType[type & PacketHeader.TYPE_MASK];
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * 丢弃队列中最旧的一个可丢弃的包，后面的包往前移
+     *
+     * @return 是否丢弃成功
+     */
+    private boolean dropOldest() {
+        int length = mItems.length;
+        for (int i = 0; i < mCount; i++) {
+            int index = (mHead + i) % length;
+            if (!mDroppable[mTypes[index]]) {
+                continue;
+            }
+            onDropped(mItems[index], mTypes[index]);
+            for (int j = i; j < mCount - 1; j++) {
+                int to = (mHead + j) % length;
+                int from = (to + 1) % length;
+                mItems[to] = mItems[from];
+                mTypes[to] = mTypes[from];
+            }
+            mItems[(mHead + mCount - 1) % length] = null;
+            mCount--;
+            return true;
+        }
+        return false;
+    }
+
+    private void onDropped(PooledBuffer frame, byte type) {
+        frame.release();
+        mDroppedCount++;
+        mDroppedByType[type]++;
+    }
+}
@@ -0,0 +1,117 @@
+package larson.groupcontrol.app.connection;
+
+import larson.groupcontrol.app.filter.CompiledFilter;
+import larson.groupcontrol.app.filter.FilterCompiler;
+import larson.groupcontrol.app.message.Message;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 按msgId索引的监听器分发表，创建后不再修改
+ * <p>
+ * An immutable snapshot of the registered listeners, indexed by message ID. Every filter is
+ * compiled by {@link FilterCompiler} when it is registered; when all clauses of the compiled form
+ * restrict the msgId, the filter can only accept that set of IDs and its listener is filed under
+ * each of them. Any other filter is opaque and evaluated for every message as before. Dispatching a message
+ * therefore looks at the listeners filed under its ID plus the opaque ones, however many listeners
+ * are registered. Filters are still evaluated in full on the candidates, so the index only has to
+ * be a superset of what a filter accepts.
+ * <p>
+ * The router publishes a new table on every registration or removal, so dispatch never locks and
+ * never sees a half-updated table. A listener removed while a message is being dispatched may still
+ * receive that message.
+ */
+class ListenerTable {
+    static final ListenerTable EMPTY = new ListenerTable(Collections.<PacketRouter.ListenerWrapper>emptyList());
+
+    /**
+     * 消息ID的个数，和消息头中msgId的13位一致
+     */
+    private static final int MSG_ID_COUNT = 0x2000;
+
+    /**
+     * 按msgId索引的监听器，没有可索引的过滤器时为null
+     */
+    private final PacketRouter.ListenerWrapper[][] mById;
+    /**
+     * 无法分析的过滤器，每个消息都要逐个匹配
+     */
+    private final PacketRouter.ListenerWrapper[] mOpaque;
+
+    ListenerTable(Collection<PacketRouter.ListenerWrapper> wrappers) {
+        List<PacketRouter.ListenerWrapper> opaque = new ArrayList<>();
+        List<PacketRouter.ListenerWrapper>[] byId = null;
+        for (PacketRouter.ListenerWrapper wrapper : wrappers) {
+            BitSet ids = getMsgIds(wrapper.getFilter());
+            if (ids == null) {
+                opaque.add(wrapper);
+                continue;
+            }
+            if (byId == null) {
+                @SuppressWarnings({"unchecked", "rawtypes"})
+                List<PacketRouter.ListenerWrapper>[] lists = new List[MSG_ID_COUNT];
+                byId = lists;
+            }
+            for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+                if (byId[id] == null) {
+                    byId[id] = new ArrayList<>(1);
+                }
+                byId[id].add(wrapper);
+            }
+        }
+        mOpaque = opaque.toArray(new PacketRouter.ListenerWrapper[opaque.size()]);
+        if (byId == null) {
+            mById = null;
+            return;
+        }
+        mById = new PacketRouter.ListenerWrapper[MSG_ID_COUNT][];
+        for (int id = 0; id < MSG_ID_COUNT; id++) {
+            if (byId[id] != null) {
+                mById[id] = byId[id].toArray(new PacketRouter.ListenerWrapper[byId[id].size()]);
+            }
+        }
+    }
+
+    /**
+     * @return 是否有可能接受这个msgId的监听器，没有时不需要分发
+     */
+    boolean hasCandidates(short msgId) {
+        if (mOpaque.length > 0) {
+            return true;
+        }
+        return mById != null && msgId >= 0 && msgId < MSG_ID_COUNT && mById[msgId] != null;
+    }
+
+    /**
+     * 通知过滤器接受这个消息的所有监听器
+     */
+    void dispatch(Message msg) {
+        if (mById != null) {
+            int id = msg.getMsgId();
+            if (id >= 0 && id < MSG_ID_COUNT) {
+                PacketRouter.ListenerWrapper[] indexed = mById[id];
+                if (indexed != null) {
+                    for (PacketRouter.ListenerWrapper wrapper : indexed) {
+                        wrapper.notifyListener(msg);
+                    }
+                }
+            }
+        }
+        for (PacketRouter.ListenerWrapper wrapper : mOpaque) {
+            wrapper.notifyListener(msg);
+        }
+    }
+
+    /**
+     * 分析过滤器可能接受的所有msgId
+     *
+     * @return 过滤器只可能接受这些msgId，null表示无法分析
+     */
+    static BitSet getMsgIds(CompiledFilter filter) {
+        return filter == null ? null : filter.getMsgIds();
+    }
+}
@@ -1,5 +1,6 @@
 package larson.groupcontrol.app.connection;
 
+import larson.groupcontrol.app.filter.FilterCompiler;
 import larson.groupcontrol.app.filter.MessageFilter;
 import larson.groupcontrol.app.listener.IMessageListener;
 import larson.groupcontrol.app.message.Message;
@@ -32,7 +33,7 @@ public class MessageCollector {
 
     MessageCollector(PacketRouter router, MessageFilter filter) {
         this.packetRouter = router;
-        this.filter = filter;
+        this.filter = filter == null ? null : FilterCompiler.compile(filter);
         mQueue = new ArrayBlockingQueue<>(500);
     }
 
@@ -49,6 +50,8 @@ public class MessageCollector {
         }
 
         if(filter==null||filter.accept(msg)){
+            //收包缓冲区复用之前拷贝出消息体
+            msg.detach();
             //offer方法在添加元素时，如果发现队列已满无法添加的话，会直接返回false
             //因此要及时清理队列以免真正阻塞，导致无法往队列添加新的结果（message，Collector是用来收集结果用的）
             while (!mQueue.offer(msg)) {
@@ -0,0 +1,238 @@
+package larson.groupcontrol.app.connection;
+
+import larson.groupcontrol.app.filter.FilterCompiler;
+import larson.groupcontrol.app.filter.MessageFilter;
+import larson.groupcontrol.app.message.Message;
+import larson.groupcontrol.app.util.LogUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 异步请求的回复，收到符合过滤器的消息、超时或者连接断开时完成
+ * <p>
+ * The pending reply to a request sent with {@code sendAsync}. It is registered on the
+ * {@link PacketRouter} before the request is written, so a fast reply cannot be missed, and it is
+ * completed by the router with the reply carrying the request's sn and msgId (a single hash
+ * lookup), or with the first received message accepted by a custom filter. A timeout runs
+ * on the {@link SharedTimer} thread and fails the future with a {@link TimeoutException}; closing
+ * the connection fails it with an {@link larson.groupcontrol.app.exception.UnconnectedException}.
+ * <p>
+ * No thread waits while the request is outstanding: {@link Callback}s run on the thread that
+ * completes the future (the router's dispatch thread or the timer thread) and must not block.
+ * {@link #get()} is still available for callers that want to block.
+ */
+public class MessageFuture implements Future<Message> {
+    /**
+     * 按过滤器匹配，不在关联表中
+     */
+    static final long NO_KEY = -1;
+
+    private final PacketRouter mRouter;
+    private final MessageFilter mFilter;
+    private final long mKey;
+    private List<Callback> mCallbacks;
+    private ScheduledFuture<?> mTimeout;
+    private Message mResult;
+    private Exception mError;
+    private boolean isDone;
+
+    MessageFuture(PacketRouter router, MessageFilter filter, long key) {
+        mRouter = router;
+        mFilter = filter == null ? null : FilterCompiler.compile(filter);
+        mKey = key;
+    }
+
+    /**
+     * @return 一个已经以异常完成的future，用于请求无法发出的情况
+     */
+    public static MessageFuture failed(Exception e) {
+        MessageFuture future = new MessageFuture(null, null, NO_KEY);
+        future.fail(e);
+        return future;
+    }
+
+    /**
+     * 设置超时时间，超时后以{@link TimeoutException}完成
+     *
+     * @param timeout 超时时间，单位是毫秒，小于等于0表示不超时
+     */
+    public void setTimeout(final long timeout) {
+        if (timeout <= 0) {
+            return;
+        }
+        ScheduledFuture<?> task = SharedTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                fail(new TimeoutException("no response in " + timeout + "ms"));
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+        synchronized (this) {
+            if (!isDone) {
+                mTimeout = task;
+                return;
+            }
+        }
+        task.cancel(false);
+    }
+
+    /**
+     * 添加完成回调，已经完成时在当前线程立即回调
+     *
+     * @param callback 回调
+     */
+    public void addCallback(Callback callback) {
+        synchronized (this) {
+            if (!isDone) {
+                if (mCallbacks == null) {
+                    mCallbacks = new ArrayList<>(1);
+                }
+                mCallbacks.add(callback);
+                return;
+            }
+        }
+        notifyCallback(callback);
+    }
+
+    long getKey() {
+        return mKey;
+    }
+
+    /**
+     * @return 是否是这个请求等待的回复
+     */
+    boolean accept(Message msg) {
+        return mFilter == null || mFilter.accept(msg);
+    }
+
+    /**
+     * 以收到的回复完成
+     *
+     * @return false表示已经完成过
+     */
+    boolean complete(Message msg) {
+        msg.detach();
+        return finish(msg, null);
+    }
+
+    /**
+     * 以异常完成
+     *
+     * @return false表示已经完成过
+     */
+    boolean fail(Exception e) {
+        return finish(null, e);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finish(null, new CancellationException());
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mError instanceof CancellationException;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return isDone;
+    }
+
+    @Override
+    public synchronized Message get() throws InterruptedException, ExecutionException {
+        while (!isDone) {
+            wait();
+        }
+        return getResult();
+    }
+
+    @Override
+    public synchronized Message get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isDone) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return getResult();
+    }
+
+    private Message getResult() throws ExecutionException {
+        if (mError instanceof CancellationException) {
+            throw (CancellationException) mError;
+        }
+        if (mError != null) {
+            throw new ExecutionException(mError);
+        }
+        return mResult;
+    }
+
+    private boolean finish(Message msg, Exception e) {
+        List<Callback> callbacks;
+        ScheduledFuture<?> timeout;
+        synchronized (this) {
+            if (isDone) {
+                return false;
+            }
+            isDone = true;
+            mResult = msg;
+            mError = e;
+            callbacks = mCallbacks;
+            mCallbacks = null;
+            timeout = mTimeout;
+            mTimeout = null;
+            notifyAll();
+        }
+        if (timeout != null) {
+            timeout.cancel(false);
+        }
+        if (mRouter != null) {
+            mRouter.removeResponseFuture(this);
+        }
+        if (callbacks != null) {
+            for (Callback callback : callbacks) {
+                notifyCallback(callback);
+            }
+        }
+        return true;
+    }
+
+    private void notifyCallback(Callback callback) {
+        try {
+            if (mError == null) {
+                callback.onResponse(mResult);
+            } else {
+                callback.onFailure(mError);
+            }
+        } catch (RuntimeException e) {
+            LogUtils.e("response callback failed:" + e.getMessage());
+        }
+    }
+
+    public interface Callback {
+        /**
+         * 收到回复
+         *
+         * @param msg 回复的消息
+         */
+        void onResponse(Message msg);
+
+        /**
+         * 超时、连接断开或者被取消
+         *
+         * @param e {@link TimeoutException}、{@link larson.groupcontrol.app.exception.UnconnectedException}
+         *          或者{@link CancellationException}
+         */
+        void onFailure(Exception e);
+    }
+}
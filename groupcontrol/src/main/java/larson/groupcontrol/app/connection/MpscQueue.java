@@ -0,0 +1,83 @@
+package larson.groupcontrol.app.connection;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 无锁的多生产者单消费者队列
+ * <p>
+ * An unbounded multi-producer single-consumer linked queue. {@link #offer(Object)} is wait-free:
+ * a producer swaps itself in as the new tail with one atomic exchange and then links the previous
+ * tail to it, so producers never block each other or the consumer. {@link #poll()},
+ * {@link #isEmpty()} and {@link #clear()} must only be called from the single consumer thread.
+ * <p>
+ * Between the exchange and the link a just-offered element is briefly invisible to the consumer;
+ * callers that park the consumer must therefore wake it after {@link #offer(Object)} returns, not
+ * rely on {@link #isEmpty()} alone.
+ */
+class MpscQueue<E> {
+    private final AtomicReference<Node<E>> mTail;
+    /**
+     * 哨兵节点，它的next是队首，只在消费者线程中访问
+     */
+    private Node<E> mHead;
+
+    MpscQueue() {
+        Node<E> stub = new Node<>(null);
+        mHead = stub;
+        mTail = new AtomicReference<>(stub);
+    }
+
+    /**
+     * 放入一个元素，可以在任意线程调用
+     */
+    void offer(E value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        Node<E> node = new Node<>(value);
+        Node<E> prev = mTail.getAndSet(node);
+        //volatile写，和消费者park前的检查构成happens-before，不能换成lazySet
+        prev.next = node;
+    }
+
+    /**
+     * 取出队首元素，只能在消费者线程中调用
+     *
+     * @return 队首元素，null表示队列为空或者生产者还没把刚放入的元素链接上
+     */
+    E poll() {
+        Node<E> next = mHead.next;
+        if (next == null) {
+            return null;
+        }
+        E value = next.value;
+        next.value = null;
+        mHead = next;
+        return value;
+    }
+
+    /**
+     * 只能在消费者线程中调用
+     */
+    boolean isEmpty() {
+        return mHead.next == null;
+    }
+
+    /**
+     * 丢弃已链接的所有元素，只能在消费者线程中调用
+     */
+    void clear() {
+        while (poll() != null) {
+            //丢弃
+        }
+    }
+
+    private static class Node<E> {
+        E value;
+        volatile Node<E> next;
+
+        Node(E value) {
+            this.value = value;
+        }
+    }
+}
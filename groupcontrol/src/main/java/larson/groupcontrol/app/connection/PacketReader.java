@@ -2,9 +2,11 @@ package larson.groupcontrol.app.connection;
 
 import android.support.annotation.NonNull;
 
-import larson.groupcontrol.app.message.Message;
-import larson.groupcontrol.app.packet.Packet;
+import larson.groupcontrol.app.buffer.BufferPool;
+import larson.groupcontrol.app.buffer.PooledBuffer;
+import larson.groupcontrol.app.packet.FrameDecoder;
 import larson.groupcontrol.app.packet.PacketHeader;
+import larson.groupcontrol.app.util.BytesUtils;
 import larson.groupcontrol.app.util.LogUtils;
 
 import java.io.IOException;
@@ -14,7 +16,6 @@ import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -33,11 +34,18 @@ import java.util.concurrent.atomic.AtomicInteger;
  * ..larsonzhong@163.com      created in 2018/8/15     @author : larsonzhong
  */
 public class PacketReader {
-
     private final OnCallbackListener mCallbackListener;
     private final ExecutorService mExecutorService;
-    private ByteBuffer mByteBuffer;
-    private BlockingQueue<byte[]> mQueue;
+    private final FrameDecoder mDecoder;
+    /**
+     * 单线程模式下读线程直接分发数据包，不经过mQueue
+     */
+    private final boolean isSingleThread;
+    private final int mQueueCapacity;
+    private final int mDropPolicy;
+    private final byte[] mDroppableTypes;
+    private FrameDecoder.OnFrameListener mFrameListener;
+    private IngressQueue mQueue;
     private ReadRunnable mReadRunnable;
     private DataRunnable mDataRunnable;
     private Future mReadRunnableFuture;
@@ -45,8 +53,11 @@ public class PacketReader {
      * is PacketReader shutdown
      */
     private AtomicBoolean bExit;
-    private final Connection mConnection;
     private InputStream mInputStream;
+    /**
+     * 最后一次读到数据的时间，{@link System#nanoTime()}，在读线程中更新，不受解析线程积压影响
+     */
+    private volatile long mLastReadNanos = System.nanoTime();
 
     /**
      * Creates a new MessageReader with the special connection
@@ -54,12 +65,41 @@ public class PacketReader {
      * @param conn the connection
      */
     PacketReader(Connection conn, OnCallbackListener listener) {
-        mConnection = conn;
-        mInputStream = mConnection.getInputStream();
+        this(conn.getInputStream(), conn.getConfiguration().getSkSocketOption(), listener);
+    }
+
+    /**
+     * Creates a new MessageReader which reads packets from the given stream
+     *
+     * @param in     the stream to read from
+     * @param option thread mode and receive queue settings
+     */
+    PacketReader(InputStream in, ConnectOption option, OnCallbackListener listener) {
+        this(in, option.isSingleThreadRead(), option.getReceiveQueueCapacity(),
+                option.getReceiveDropPolicy(), option.getDroppableTypes(), listener);
+    }
+
+    /**
+     * Creates a new MessageReader with the default receive queue
+     *
+     * @param in           the stream to read from
+     * @param singleThread whether reading, decoding and dispatching run on one thread
+     */
+    PacketReader(InputStream in, boolean singleThread, OnCallbackListener listener) {
+        this(in, singleThread, ConnectOption.DEFAULT_RECEIVE_QUEUE_CAPACITY,
+                ConnectOption.DROP_POLICY_BLOCK, null, listener);
+    }
+
+    private PacketReader(InputStream in, boolean singleThread, int queueCapacity, int dropPolicy,
+                         byte[] droppableTypes, OnCallbackListener listener) {
+        mInputStream = in;
+        isSingleThread = singleThread;
+        mQueueCapacity = queueCapacity;
+        mDropPolicy = dropPolicy;
+        mDroppableTypes = droppableTypes;
         mCallbackListener = listener;
         mExecutorService = newExecutor();
-        mByteBuffer = ByteBuffer.allocate(8192);
-        mByteBuffer.clear();
+        mDecoder = new FrameDecoder();
         init();
     }
 
@@ -70,7 +110,8 @@ public class PacketReader {
     private void init() {
         LogUtils.d("init reader..");
         bExit = new AtomicBoolean(false);
-        mQueue = new LinkedBlockingQueue<>();
+        mQueue = new IngressQueue(mQueueCapacity, mDropPolicy, mDroppableTypes);
+        mFrameListener = isSingleThread ? new DirectFrameListener() : new QueueFrameListener();
         mReadRunnable = new ReadRunnable();
         mDataRunnable = new DataRunnable();
     }
@@ -103,7 +144,9 @@ public class PacketReader {
      */
     public synchronized void startup() {
         mReadRunnableFuture = mExecutorService.submit(mReadRunnable);
-        mExecutorService.execute(mDataRunnable);
+        if (!isSingleThread) {
+            mExecutorService.execute(mDataRunnable);
+        }
     }
 
     private class ReadRunnable implements Runnable {
@@ -112,14 +155,12 @@ public class PacketReader {
         public void run() {
             while (!bExit.get()) {
                 try {
-                    byte[] buffer = new byte[4096];
-                    int num = mInputStream.read(buffer);
+                    int num = mDecoder.readFrom(mInputStream);
                     if (num <= 0) {
                         continue;
                     }
-                    byte[] bytes = new byte[num];
-                    System.arraycopy(buffer, 0, bytes, 0, num);
-                    mQueue.add(bytes);
+                    mLastReadNanos = System.nanoTime();
+                    mDecoder.decode(mFrameListener);
                 } catch (IOException e) {
                     //LogUtils.d(e.toString());
                 }
@@ -128,26 +169,75 @@ public class PacketReader {
         }
     }
 
-    private class DataRunnable implements Runnable {
-        public void stop() {
+    private static byte getFrameType(ByteBuffer buffer, int offset) {
+        return BytesUtils.bytesToType(buffer.array(), buffer.arrayOffset() + offset);
+    }
+
+    private static boolean isAckFrame(ByteBuffer buffer, int offset) {
+        return getFrameType(buffer, offset) == PacketHeader.TYPE_ACK;
+    }
+
+    /**
+     * 解码出来的包只在回调期间有效，交给DataRunnable之前需要拷贝到缓冲池的缓冲区中，
+     * DataRunnable分发完成后释放；接收队列满时按策略阻塞读线程或者丢包
+     */
+    private class QueueFrameListener implements FrameDecoder.OnFrameListener {
+        @Override
+        public void onFrame(ByteBuffer buffer, int offset, int length) {
+            byte type = getFrameType(buffer, offset);
+            if (type == PacketHeader.TYPE_ACK) {
+                return;
+            }
+            PooledBuffer frame = BufferPool.getInstance().acquire(length);
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + offset, frame.array(), 0, length);
             try {
-                Packet packet = new Packet.Builder(Message.MSG_TYPE_ACK, (short) 0, (short) 0, (short) 0).build();
-                mQueue.add(packet.getBytes());
-            } catch (Exception e) {
-                e.printStackTrace();
+                mQueue.put(frame, type);
+            } catch (InterruptedException e) {
+                //读线程被中断说明正在关闭，包没有进入队列，直接释放
+                frame.release();
+                Thread.currentThread().interrupt();
             }
         }
+    }
+
+    /**
+     * 单线程模式，在读线程中直接分发，不需要拷贝
+     */
+    private class DirectFrameListener implements FrameDecoder.OnFrameListener {
+        @Override
+        public void onFrame(ByteBuffer buffer, int offset, int length) {
+            if (isAckFrame(buffer, offset)) {
+                return;
+            }
+            if (mCallbackListener != null) {
+                mCallbackListener.onDataReceive(buffer, offset, length);
+            }
+        }
+    }
+
+    private class DataRunnable implements Runnable {
+        public void stop() {
+            mQueue.close();
+        }
 
         @Override
         public void run() {
             LogUtils.d("start read block thread ..");
             while (!bExit.get()) {
                 try {
-                    byte[] bytes = mQueue.take();
-                    if (bytes == null) {
-                        continue;
+                    PooledBuffer frame = mQueue.take();
+                    if (frame == null) {
+                        //队列已关闭
+                        break;
+                    }
+                    //发送数据给ui显示，listener处理完之后缓冲区回到缓冲池
+                    try {
+                        if (mCallbackListener != null) {
+                            mCallbackListener.onDataReceive(frame.buffer(), 0, frame.length());
+                        }
+                    } finally {
+                        frame.release();
                     }
-                    parseData(bytes);
                 } catch (InterruptedException e) {
                     e.printStackTrace();
                 }
@@ -155,61 +245,65 @@ public class PacketReader {
         }
     }
 
-    private void parseData(byte[] data) {
-        PacketHeader header;
-        int len = data.length + mByteBuffer.position();
-        mByteBuffer.put(data);
-        mByteBuffer.flip();
-        byte[] bytes = new byte[len];
-        mByteBuffer.get(bytes);
-        mByteBuffer.clear();
-        int index = 0;
-        while (len > 0) {
-            /*
-             * 保存非完整的头
-             */
-            if (len < PacketHeader.SIZE) {
-                mByteBuffer.put(bytes, index, len);
-                break;
-            }
-            header = PacketHeader.parse(bytes, index);
-            if ((header.getMagic() & PacketHeader.MAGIC_MASK) != PacketHeader.DEFAULT_MAGIC) {
-                LogUtils.e("Error package, error magic index:" + index);
-                index += 1;
-                len -= 1;
-                continue;
-            }
-            /*
-             * 检查是否一个完整包
-             */
-            int packetSize = header.getPaddingSize() + PacketHeader.SIZE;
-            if (len >= packetSize) {
-                //发送数据给ui显示
-                if (header.getType() != PacketHeader.TYPE_ACK) {
-                    if (mCallbackListener != null) {
-                        byte[] packet = new byte[packetSize];
-                        System.arraycopy(bytes, index, packet, 0, packetSize);
-                        mCallbackListener.onDataReceive(packet, packetSize);
-                    }
-                }
-                index += packetSize;
-                len -= packetSize;
-            } else {
-                //保存非完整数据,已经有包头
-                mByteBuffer.put(bytes, index, len);
-                break;
-            }
-        }
+    /**
+     * @return 最后一次读到数据的时间，{@link System#nanoTime()}，用于判断对端是否还活着
+     */
+    long getLastReadTime() {
+        return mLastReadNanos;
+    }
+
+    /**
+     * @return 因数据错乱而重新查找包头的次数
+     */
+    public long getResyncCount() {
+        return mDecoder.getResyncCount();
+    }
+
+    /**
+     * @return 因数据错乱而丢弃的字节数
+     */
+    public long getSkippedBytes() {
+        return mDecoder.getSkippedBytes();
+    }
+
+    /**
+     * @return 接收队列中等待分发的包数，单线程读取模式下总是0
+     */
+    public int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    /**
+     * @return 接收队列曾经达到的最大深度
+     */
+    public int getMaxQueueDepth() {
+        return mQueue.getMaxDepth();
+    }
+
+    /**
+     * @return 接收队列满时丢弃的包总数
+     */
+    public long getDroppedCount() {
+        return mQueue.getDroppedCount();
+    }
+
+    /**
+     * @param type 包类型，如{@link PacketHeader#TYPE_DATA}
+     * @return 接收队列满时丢弃的该类型的包数
+     */
+    public long getDroppedCount(byte type) {
+        return mQueue.getDroppedCount(type);
     }
 
     public interface OnCallbackListener {
         /**
-         * 获取回调数据
+         * 获取回调数据，一个完整的包
          *
-         * @param data 数据
-         * @param len  长度
+         * @param buffer 数据
+         * @param offset 包在buffer中的起始位置
+         * @param len    长度
          */
-        void onDataReceive(byte[] data, int len);
+        void onDataReceive(ByteBuffer buffer, int offset, int len);
     }
 
     public void shutdown() {
@@ -232,10 +326,8 @@ public class PacketReader {
                     Thread.currentThread().interrupt();
                 }
             }
-            if (mQueue != null) {
-                mQueue.clear();
-                mQueue = null;
-            }
+            //关闭之后才放进来的包也会在put中直接释放
+            mQueue.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -1,18 +1,22 @@
 package larson.groupcontrol.app.connection;
 
+import larson.groupcontrol.app.buffer.PooledBuffer;
+import larson.groupcontrol.app.exception.UnconnectedException;
+import larson.groupcontrol.app.filter.CompiledFilter;
+import larson.groupcontrol.app.filter.FilterCompiler;
 import larson.groupcontrol.app.filter.MessageFilter;
 import larson.groupcontrol.app.listener.IMessageListener;
 import larson.groupcontrol.app.message.Message;
-import larson.groupcontrol.app.packet.Packet;
+import larson.groupcontrol.app.packet.PacketView;
 import larson.groupcontrol.app.util.LogUtils;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * ......................-~~~~~~~~~-._       _.-~~~~~~~~~-.
@@ -36,6 +40,44 @@ public class PacketRouter {
      * List of MessageListeners that will be notified when a new message was received
      */
     private final Map<MessageFilter, ListenerWrapper> mRcvListeners = new ConcurrentHashMap<>();
+    /**
+     * mRcvListeners按msgId索引后的快照，注册和移除时重建，分发时不加锁
+     */
+    private volatile ListenerTable mListenerTable = ListenerTable.EMPTY;
+    /**
+     * 按过滤器等待回复的异步请求，每个收到的消息都要逐个匹配
+     */
+    private final Collection<MessageFuture> mFutures = new ConcurrentLinkedQueue<>();
+    /**
+     * 按关联键等待回复的异步请求，见{@link #getResponseKey(short, short)}，
+     * 每个回复只需要查一次表。声明为ConcurrentMap，remove(key, value)才能在API 24以下使用
+     */
+    private final ConcurrentMap<Long, MessageFuture> mPendingResponses = new ConcurrentHashMap<>();
+    /**
+     * 长消息的组包器，只在读取线程中访问
+     */
+    private final FragmentReassembler mReassembler;
+    /**
+     * 执行监听器的线程，null表示在收包线程中直接执行
+     */
+    private final StripedExecutor mListenerExecutor;
+    /**
+     * crc错误而丢弃的短消息数，只在读取线程中修改
+     */
+    private volatile long mCorruptCount;
+
+    public PacketRouter() {
+        this(new FragmentReassembler(), null);
+    }
+
+    /**
+     * @param reassembler      长消息的组包器，决定组包超时和内存上限
+     * @param listenerExecutor 按设备分条执行监听器，null表示在收包线程中直接执行
+     */
+    public PacketRouter(FragmentReassembler reassembler, StripedExecutor listenerExecutor) {
+        mReassembler = reassembler;
+        mListenerExecutor = listenerExecutor;
+    }
 
 
     /**
@@ -53,6 +95,73 @@ public class PacketRouter {
         return collector;
     }
 
+    /**
+     * 创建一个等待回复的future，必须在发送请求之前创建，避免回复先到
+     * <p>
+     * Creates a future completed by the first received message accepted by the filter. Register
+     * it before writing the request so a fast reply cannot be missed.
+     *
+     * @param filter the message filter to use
+     * @return a new pending response
+     */
+    public MessageFuture createResponseFuture(MessageFilter filter) {
+        MessageFuture future = new MessageFuture(this, filter, MessageFuture.NO_KEY);
+        mFutures.add(future);
+        return future;
+    }
+
+    /**
+     * 创建一个等待request回复的future，回复是sn和msgId都和请求相同并且带回复标志的消息，
+     * 收到回复时只需要查一次表，和等待中的请求数无关；必须在发送请求之前创建
+     * <p>
+     * Creates a future for the reply to {@code request}: the message on this connection with the
+     * same sn and msgId and the response bit set. Matching is a single hash lookup however many
+     * requests are outstanding.
+     *
+     * @param request the request about to be sent
+     * @return a new pending response
+     */
+    public MessageFuture createResponseFuture(Message request) {
+        long key = getResponseKey(request.getSn(), request.getMsgId());
+        MessageFuture future = new MessageFuture(this, null, key);
+        MessageFuture previous = mPendingResponses.put(key, future);
+        if (previous != null) {
+            //流水号回绕到了一个还在等待的请求，旧请求不可能再被正确匹配
+            previous.fail(new IllegalStateException("sn reused before response: " + request.getSn()));
+        }
+        return future;
+    }
+
+    void removeResponseFuture(MessageFuture future) {
+        if (future.getKey() == MessageFuture.NO_KEY) {
+            mFutures.remove(future);
+        } else {
+            mPendingResponses.remove(future.getKey(), future);
+        }
+    }
+
+    /**
+     * 把pid、sn、msgId和回复标志打包成一个long，用于区分不同设备发来的同一个流水号的消息
+     */
+    static long getCorrelationKey(int pid, short sn, short msgId, boolean isResponse) {
+        return (long) (pid & 0xFFFF) << 32
+                | (long) (sn & 0xFFFF) << 16
+                | (msgId & 0x1FFF) << 1
+                | (isResponse ? 1 : 0);
+    }
+
+    /**
+     * 请求和回复的关联键，只用回复原样带回的sn和msgId
+     * <p>
+     * A reply is built with {@code new Message.Builder(msgId, sn)} and carries the responder's own
+     * client key as its pid, not the requester's, so the pid cannot be part of the key. Each
+     * connection has its own router, and sn comes from one counter per process, so sn and msgId are
+     * unique among the requests outstanding on a connection until the sn wraps.
+     */
+    static long getResponseKey(short sn, short msgId) {
+        return getCorrelationKey(0, sn, msgId, true);
+    }
+
     /**
      * Get the collection of all message collectors for this connection.
      *
@@ -78,7 +187,7 @@ public class PacketRouter {
     public static class ListenerWrapper {
 
         private IMessageListener listener;
-        private MessageFilter filter;
+        private CompiledFilter filter;
 
         /**
          * Creates a class which associates a message filter with a listener.
@@ -88,7 +197,7 @@ public class PacketRouter {
          */
         public ListenerWrapper(MessageFilter filter, IMessageListener listener) {
             this.listener = listener;
-            this.filter = filter;
+            this.filter = filter == null ? null : FilterCompiler.compile(filter);
         }
 
         /**
@@ -99,15 +208,27 @@ public class PacketRouter {
          */
         public void notifyListener(Message msg) {
             if (this.filter == null || this.filter.accept(msg)) {
+                msg.detach();
                 listener.processMessage(msg);
             }
         }
+
+        CompiledFilter getFilter() {
+            return filter;
+        }
+
+        IMessageListener getListener() {
+            return listener;
+        }
     }
 
     /**
      * Registers a message listener with this connection. A message filter determines which messages
      * will be delivered to the listener. If the same message listener is added again with a different
      * filter, only the new filter will be used.
+     * <p>
+     * Filters built from {@link larson.groupcontrol.app.filter.MessageIdFilter}s are indexed by
+     * message ID, so they must not be changed after registration.
      *
      * @param listener the message listener to notify of new received messages
      * @param filter   the message filter to use
@@ -117,7 +238,10 @@ public class PacketRouter {
             throw new NullPointerException("Message listener is null.");
         }
         ListenerWrapper wrapper = new ListenerWrapper(filter, listener);
-        mRcvListeners.put(filter, wrapper);
+        synchronized (mRcvListeners) {
+            mRcvListeners.put(filter, wrapper);
+            mListenerTable = new ListenerTable(mRcvListeners.values());
+        }
     }
 
     /**
@@ -135,11 +259,42 @@ public class PacketRouter {
      * @param listener the message listener to remove
      */
     public void removeRcvListener(IMessageListener listener) {
-        mRcvListeners.remove(listener);
+        synchronized (mRcvListeners) {
+            Iterator<ListenerWrapper> iterator = mRcvListeners.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().getListener() == listener) {
+                    iterator.remove();
+                }
+            }
+            mListenerTable = new ListenerTable(mRcvListeners.values());
+        }
     }
 
-    private void handlerMessage(Message message) {
+    private void handlerMessage(final Message message) {
         LogUtils.d(Thread.currentThread().getName()+":handle message :" + message.toString());
+        MessageFuture pending = null;
+        if (message.isResponse() && !mPendingResponses.isEmpty()) {
+            pending = mPendingResponses.get(getResponseKey(message.getSn(), message.getMsgId()));
+        }
+        boolean hasListeners = !message.isResponse() && mListenerTable.hasCandidates(message.getMsgId());
+        if (pending == null && mFutures.isEmpty() && mCollectors.isEmpty() && !hasListeners) {
+            //没有人要的消息不拷贝也不校验
+            return;
+        }
+        //过滤器也可能读取消息体，所以在交给任何过滤器之前校验，crc错误的消息谁都看不到
+        if (!message.detach()) {
+            mCorruptCount++;
+            LogUtils.e("data bytes crc16 check failure! drop message:" + message.toString());
+            return;
+        }
+        if (pending != null) {
+            pending.complete(message);
+        }
+        for (MessageFuture future : mFutures) {
+            if (future.accept(message)) {
+                future.complete(message);
+            }
+        }
         for (MessageCollector collector : mCollectors) {
             collector.processMessage(message);
         }
@@ -149,55 +304,134 @@ public class PacketRouter {
             return;
         }
 
-        for (ListenerWrapper wrapper : mRcvListeners.values()) {
-            wrapper.notifyListener(message);
+        if (!hasListeners) {
+            return;
         }
+        if (mListenerExecutor == null) {
+            notifyListeners(message);
+        } else {
+            //同一个设备的消息在同一条线程中按顺序处理，慢的监听器不会阻塞收包
+            mListenerExecutor.execute(getDeviceKey(message), new Runnable() {
+                @Override
+                public void run() {
+                    notifyListeners(message);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return 标识发送消息的设备，由pid和vid组成
+     */
+    static int getDeviceKey(Message message) {
+        return (message.getPid() & 0xFFFF) << 16 | (message.getVid() & 0xFFFF);
     }
 
-    private Map<String, List<Packet>> packetMap = new HashMap<>();
+    /**
+     * 按msgId查表通知监听器，见{@link ListenerTable}
+     */
+    void notifyListeners(Message message) {
+        mListenerTable.dispatch(message);
+    }
 
-    public void onDataReceive(byte[] data, int packageSize) {
-        Packet packet = new Packet(data);
-        if (!packet.isLargeMsg()) {
-            Packet[] packets = {packet};
+    /**
+     * 复用的包视图，onDataReceive只会在读取线程中调用
+     */
+    private final PacketView mPacketView = new PacketView();
+
+    /**
+     * 收到一个完整的包
+     * <p>
+     * The message is routed on its header fields alone; its body still points into the receive
+     * buffer or the reassembled frames. Only when a pending reply, future, collector or listener
+     * might take the message is its body copied out and its CRC checked, once, before any filter
+     * sees it (see {@link Message#detach()}); a message that fails is dropped and counted in
+     * {@link #getCorruptCount()}, so no consumer ever gets a corrupt message and messages nobody
+     * wants are never copied or checked. Large messages are checked while their fragments arrive
+     * instead and are never copied into one array unless {@link Message#getBody()} asks for it.
+     *
+     * @param buffer     包所在的缓冲区
+     * @param offset     包在缓冲区中的起始位置
+     * @param packetSize 包长度
+     */
+    public void onDataReceive(ByteBuffer buffer, int offset, int packetSize) {
+        PacketView view = mPacketView.wrap(buffer, offset, packetSize);
+        long now = System.nanoTime();
+        mReassembler.evictExpired(now);
+        if (!view.isLargeMsg()) {
             Message message;
             try {
-                message = new Message.Builder(packets).build();
+                message = new Message.Builder(view).build();
                 handlerMessage(message);
             } catch (Exception e) {
                 e.printStackTrace();
             }
         } else {
-            String packetKey = packet.getPacketHeader().getPid() + "_"
-                    + packet.getSn() + "_" + packet.getMsgId() + "_"
-                    + (packet.isResponseMsg() ? "response" : "normal");
-            short count = packet.getSubCount();
-            List<Packet> packets = packetMap.get(packetKey);
-            if (packets == null || packets.size() == 0) {
-                packets = new ArrayList<>(count);
-                packetMap.put(packetKey, packets);
+            //分包拷贝到缓冲池的缓冲区中保存到收齐为止，没有被拿走的消息处理完后释放，
+            //被拿走的消息的分包交给GC管理
+            PooledBuffer[] frameArray;
+            try {
+                frameArray = mReassembler.add(view, now);
+            } catch (Exception e) {
+                e.printStackTrace();
+                return;
             }
-            packets.add(packet);
-            if (packets.size() >= count) {
-                Packet[] packetArray = packets.toArray(new Packet[packets.size()]);
+            if (frameArray != null) {
                 Message message;
                 try {
-                    message = new Message.Builder(packetArray).build();
+                    //crc已经在分包到达时校验过
+                    message = new Message.Builder(frameArray, true).build();
                     handlerMessage(message);
                 } catch (Exception e) {
                     e.printStackTrace();
+                } finally {
+                    for (PooledBuffer pooled : frameArray) {
+                        pooled.release();
+                    }
                 }
-                packetMap.remove(packetKey);
             }
         }
     }
 
+    /**
+     * @return 执行监听器的线程，可以查看每一条的排队和延迟；null表示在收包线程中直接执行
+     */
+    public StripedExecutor getListenerExecutor() {
+        return mListenerExecutor;
+    }
+
+    /**
+     * @return crc错误而丢弃的短消息数，长消息的见{@link FragmentReassembler#getCorruptCount()}
+     */
+    public long getCorruptCount() {
+        return mCorruptCount;
+    }
+
+    /**
+     * @return 长消息的组包器，可以查看组包的统计
+     */
+    public FragmentReassembler getReassembler() {
+        return mReassembler;
+    }
+
     /**
      * 清理资源
      */
     public void clear() {
+        for (MessageFuture future : mFutures) {
+            future.fail(new UnconnectedException("connection closed"));
+        }
+        for (MessageFuture future : mPendingResponses.values()) {
+            future.fail(new UnconnectedException("connection closed"));
+        }
         mCollectors.clear();
-        mRcvListeners.clear();
-        packetMap.clear();
+        synchronized (mRcvListeners) {
+            mRcvListeners.clear();
+            mListenerTable = ListenerTable.EMPTY;
+        }
+        mReassembler.clear();
+        if (mListenerExecutor != null) {
+            mListenerExecutor.shutdown();
+        }
     }
 }
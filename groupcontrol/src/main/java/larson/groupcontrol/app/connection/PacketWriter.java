@@ -1,21 +1,18 @@
 package larson.groupcontrol.app.connection;
 
 
-import android.support.annotation.NonNull;
-
+import larson.groupcontrol.app.message.FragmentIterator;
 import larson.groupcontrol.app.message.Message;
 import larson.groupcontrol.app.packet.Packet;
 import larson.groupcontrol.app.util.LogUtils;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.ThreadFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * ......................-~~~~~~~~~-._       _.-~~~~~~~~~-.
@@ -27,22 +24,50 @@ import java.util.concurrent.atomic.AtomicInteger;
  * ......'//______.============-..   \ | /   ..-============.______\\`.
  * ....'______________________________\|/______________________________`.
  * ..larsonzhong@163.com      created in 2018/8/15     @author : larsonzhong
+ * <p>
+ * 写线程，消息按发送优先级进入不同的队列，写线程按包加权轮询各个队列，
+ * 大消息的分包会和控制、输入消息交错发送，不会长时间占住连接；
+ * 包在写入缓冲区时才编码，大消息不会在内存中展开
  */
 class PacketWriter {
+    private static final int LANE_COUNT = Message.PRIORITY_BULK + 1;
+
+    /**
+     * 每个发送优先级一个队列，下标就是优先级
+     */
+    private final Lane[] mLanes;
     /**
-     * 默认心跳时间间隔
+     * 写线程没有消息可写、即将或已经park时为true，发送线程看到后unpark它
      */
-    private static final long DEFAULT_HEART_INTERVAL = 10 * 1000;
-    private final BlockingQueue<Packet> mQueue;
+    private volatile boolean isParked;
+    /**
+     * 加权轮询当前所在的队列
+     */
+    private int mCursor;
+    /**
+     * 编码缓冲区，消息直接编码到这里然后一次写出
+     */
+    private final ByteBuffer mBatch;
+    /**
+     * 是否合并写出，否则每个包单独写出
+     */
+    private final boolean isBatching;
+    /**
+     * 凑批最多等待的时间，单位是纳秒
+     */
+    private final long mBatchDelayNanos;
 
     private Connection mConnection;
     private final OutputStream mOutputStream;
     private Thread mWriteThread;
-    private ScheduledExecutorService mTimeExecutor;
+    /**
+     * 最后一次写出数据的时间，{@link System#nanoTime()}
+     */
+    private volatile long mLastWriteNanos = System.nanoTime();
     /**
      * writer是否停止工作
      */
-    private boolean mShutdown;
+    private volatile boolean mShutdown;
 
     /**
      * Creates a new message writer with the specified connection.
@@ -50,9 +75,31 @@ class PacketWriter {
      * @param conn the connection
      */
     PacketWriter(Connection conn) {
-        mQueue = new LinkedBlockingQueue<>();
+        this(conn, conn.getOutputStream(), conn.getConfiguration().getSkSocketOption().getWriteBatchSize(),
+                conn.getConfiguration().getSkSocketOption().getWriteBatchDelay(),
+                conn.getConfiguration().getSkSocketOption().getLaneWeights());
+    }
+
+    /**
+     * @param conn             the connection to report errors to, may be null
+     * @param out              the stream to write to
+     * @param batchSize        max bytes per write, 0 writes and flushes every packet on its own
+     * @param batchDelayMicros how long to wait for more packets before writing a batch
+     * @param laneWeights      packets sent per round for each priority, indexed by priority
+     */
+    PacketWriter(Connection conn, OutputStream out, int batchSize, long batchDelayMicros, int[] laneWeights) {
+        if (laneWeights.length != LANE_COUNT) {
+            throw new IllegalArgumentException("need " + LANE_COUNT + " lane weights");
+        }
+        mLanes = new Lane[LANE_COUNT];
+        for (int i = 0; i < LANE_COUNT; i++) {
+            mLanes[i] = new Lane(laneWeights[i]);
+        }
         mConnection = conn;
-        mOutputStream = mConnection.getOutputStream();
+        mOutputStream = out;
+        isBatching = batchSize > 0;
+        mBatch = ByteBuffer.allocate(Math.max(batchSize, Packet.MAX_SOCKET_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+        mBatchDelayNanos = TimeUnit.MICROSECONDS.toNanos(batchDelayMicros);
         init();
     }
 
@@ -80,16 +127,12 @@ class PacketWriter {
      */
     public void shutdown() {
         mShutdown = true;
-        synchronized (mQueue) {
-            mQueue.notifyAll();
+        if (mWriteThread != null) {
+            LockSupport.unpark(mWriteThread);
         }
 
         //larson add below
         try {
-            //关闭心跳
-            if (mTimeExecutor != null && !mTimeExecutor.isShutdown()) {
-                mTimeExecutor.shutdownNow();
-            }
             //关闭输出线程
             if (mWriteThread != null) {
                 mWriteThread.interrupt();
@@ -115,62 +158,80 @@ class PacketWriter {
     }
 
     /**
-     * 开启一个守护线程防止线程挂掉，一旦挂了就没办法写数据了
-     * <p>
-     * Starts the keep alive process. An empty message (aka heartbeat) is going to be sent to the
-     * server every 30 seconds (by default) since the last packet was sent to the server.
+     * @return 最后一次写出数据的时间，{@link System#nanoTime()}，用于判断连接是否空闲
      */
-    public void keepAlive(long keepAliveInterval) {
-        // Schedule a keep-alive task to run if the feature is enabled, will write out a empty
-        // message each time it runs to keep the TCP/IP connection open
-
-        if (keepAliveInterval <= 0) {
-            keepAliveInterval = DEFAULT_HEART_INTERVAL;
-            LogUtils.e("read config error:keepAliveInterval=" + keepAliveInterval);
-        }
-
-        if (mTimeExecutor != null && !mTimeExecutor.isShutdown()) {
-            mTimeExecutor.shutdownNow();
-        }
-        mTimeExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
-            private final AtomicInteger integer = new AtomicInteger();
-
-            @Override
-            public Thread newThread(@NonNull Runnable r) {
-                return new Thread(r, "Heartbeat thread: " + integer.getAndIncrement());
-            }
-        });
-        mTimeExecutor.scheduleAtFixedRate(new Runnable() {
-            @Override
-            public void run() {
-                sendHeartbeatMsg();
-            }
-        }, 0, keepAliveInterval, TimeUnit.MILLISECONDS);
+    long getLastWriteTime() {
+        return mLastWriteNanos;
     }
 
     /**
-     * 将message写入到socket，如果message有多个packet则分多个packet发送
+     * 将message放进对应优先级的队列，如果message有多个packet则分多个packet发送，
+     * 消息在写线程中才编码，编码结果直接进入写缓冲区。
+     * 不加锁，只有写线程在等待时才需要唤醒它
      *
      * @param msg 需要发送的消息
      */
     public void sendMessage(Message msg) {
         if (!mShutdown) {
-            try {
-                synchronized (this) {
-                    for (Packet packet : msg.getPackets()) {
-                        mQueue.put(packet);
-                        //队列满时put会等待一段时间而offer直接返回false
-                    }
-                }
-            } catch (Exception ie) {
-                ie.printStackTrace();
-                return;
+            mLanes[getLane(msg)].offer(msg);
+            if (isParked) {
+                LockSupport.unpark(mWriteThread);
             }
+        }
+    }
 
-            synchronized (mQueue) {
-                mQueue.notifyAll();
-            }
+    /**
+     * @param priority 发送优先级，如{@link Message#PRIORITY_HIGH}
+     * @return 该优先级队列中还没开始发送的消息数
+     */
+    int getQueueDepth(int priority) {
+        return mLanes[priority].mDepth.get();
+    }
+
+    /**
+     * @param priority 发送优先级
+     * @return 该优先级队列曾经达到的最大深度
+     */
+    int getMaxQueueDepth(int priority) {
+        return mLanes[priority].mMaxDepth;
+    }
+
+    /**
+     * @param priority 发送优先级
+     * @return 该优先级的消息从进入队列到开始发送的平均等待时间，单位是微秒
+     */
+    long getAverageWaitTime(int priority) {
+        Lane lane = mLanes[priority];
+        long count = lane.mStarted;
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(lane.mTotalWaitNanos / count);
+    }
+
+    /**
+     * @param priority 发送优先级
+     * @return 该优先级的消息从进入队列到开始发送的最大等待时间，单位是微秒
+     */
+    long getMaxWaitTime(int priority) {
+        return TimeUnit.NANOSECONDS.toMicros(mLanes[priority].mMaxWaitNanos);
+    }
+
+    /**
+     * 没有指定优先级时，分包的大消息走批量，控制、心跳和触控输入消息走高优先级，其他走普通。
+     * 控制类型是消息的默认类型，所以先按大小判断，否则大消息都会进入高优先级
+     */
+    private static int getLane(Message msg) {
+        int priority = msg.getPriority();
+        if (priority != Message.PRIORITY_AUTO) {
+            return priority;
         }
+        if (msg.isLongMsg()) {
+            return Message.PRIORITY_BULK;
+        }
+        short type = msg.getType();
+        if (type == Message.MSG_TYPE_CONTROL || type == Message.MSG_TYPE_HEART
+                || msg.getMsgId() == Constants.MSG_MINICAP_INPUT) {
+            return Message.PRIORITY_HIGH;
+        }
+        return Message.PRIORITY_NORMAL;
     }
 
     private class WriteThread extends Thread {
@@ -184,65 +245,199 @@ class PacketWriter {
     }
 
     /**
-     * 不断读取队列中的packet并写入到connection中
+     * 不断从各个队列中取出包并写入到connection中，积压的包合并成一次write和flush
      */
     private void writePackets() {
         try {
             while (!mShutdown) {
-                Packet packet = nextPacket();
-                synchronized (mOutputStream) {
-                    if (packet != null) {
-                        mOutputStream.write(packet.getBytes());
+                int length = fillBatch();
+                if (length > 0) {
+                    synchronized (mOutputStream) {
+                        mOutputStream.write(mBatch.array(), 0, length);
                         mOutputStream.flush();
                     }
+                    mLastWriteNanos = System.nanoTime();
                 }
             }
-            mQueue.clear();
+            for (Lane lane : mLanes) {
+                lane.clear();
+            }
         } catch (Exception e) {
-            if (mConnection.isConnected()) {
+            if (mConnection != null && mConnection.isConnected()) {
                 mConnection.onSocketCloseUnexpected(e);
             }
         }
     }
 
     /**
-     * 取出下一个包，取出成功，然后让队列阻塞
-     * fetch next packet if not empty and then block
+     * 按加权轮询一个包一个包地编码进mBatch：先阻塞等到有包可写，然后取走各队列中已有的包，
+     * 批没满时最多再等mBatchDelayNanos；放不下的包留在所属队列，下一批接着发。
+     * 不合并时每批只放一个包
      *
-     * @return next packet
-     */
-    private Packet nextPacket() {
-        Packet packet = null;
-        synchronized (mQueue) {
-            while (!mShutdown && (packet = mQueue.poll()) == null) {
-                try {
-                    mQueue.wait();
-                } catch (InterruptedException e) {
-                    LogUtils.i(e.getMessage());
+     * @return 这一批的字节数
+     */
+    private int fillBatch() {
+        mBatch.clear();
+        Lane lane = nextLane();
+        if (lane == null) {
+            awaitMessage(0);
+            return 0;
+        }
+        long deadline = System.nanoTime() + mBatchDelayNanos;
+        while (true) {
+            FragmentIterator fragments = lane.mCurrent;
+            if (mBatch.remaining() < fragments.nextSize()) {
+                return mBatch.position();
+            }
+            fragments.encodeNext(mBatch);
+            lane.onFragmentEncoded();
+            if (!isBatching) {
+                return mBatch.position();
+            }
+            lane = nextLane();
+            if (lane == null && mBatchDelayNanos > 0 && !mShutdown) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining > 0) {
+                    awaitMessage(remaining);
+                    lane = nextLane();
                 }
             }
+            if (lane == null) {
+                return mBatch.position();
+            }
         }
-        return packet;
     }
 
-    private void sendHeartbeatMsg() {
-        try {
-            Message msg = new Message.Builder((short) 0).setType(Message.MSG_TYPE_HEART).setAck(false).build();
-            synchronized (mOutputStream) {
-                for (Packet packet : msg.getPackets()) {
-                    if (mOutputStream != null) {
-                        mOutputStream.write(packet.getBytes());
-                        mOutputStream.flush();
-                    } else {
-                        LogUtils.e("illegal current outputStream state:null !!!");
-                    }
-                }
+    /**
+     * 加权轮询：当前队列还有额度并且有包时继续发当前队列，否则补满它的额度换到下一个队列
+     *
+     * @return 下一个要发包的队列，null表示所有队列都是空的
+     */
+    private Lane nextLane() {
+        for (int i = 0; i <= LANE_COUNT; i++) {
+            Lane lane = mLanes[mCursor];
+            if (lane.mCredits > 0 && lane.hasFragment()) {
+                return lane;
             }
-        } catch (Exception e) {
-            if (mConnection.isConnected()) {
-                mConnection.onSocketCloseUnexpected(e);
+            lane.mCredits = lane.mWeight;
+            mCursor = (mCursor + 1) % LANE_COUNT;
+        }
+        return null;
+    }
+
+    /**
+     * 等待新的消息
+     *
+     * @param timeoutNanos 最多等待的时间，0表示一直等到有消息或者shutdown
+     */
+    private void awaitMessage(long timeoutNanos) {
+        //先声明要park再检查队列，和sendMessage中先入队再检查isParked配对，不会漏掉唤醒
+        isParked = true;
+        if (!mShutdown && !hasQueued()) {
+            if (timeoutNanos == 0) {
+                LockSupport.park(this);
+            } else {
+                LockSupport.parkNanos(this, timeoutNanos);
+            }
+            if (Thread.interrupted()) {
+                //shutdown，先把已经凑好的写出去
+                LogUtils.i("writer interrupted");
+            }
+        }
+        isParked = false;
+    }
+
+    private boolean hasQueued() {
+        for (Lane lane : mLanes) {
+            if (!lane.mQueue.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 一个发送优先级的队列，以及写线程发到一半的消息和这个队列的统计
+     */
+    private static class Lane {
+        final int mWeight;
+        /**
+         * 等待发送的消息，任意线程放入，只有写线程取出
+         */
+        final MpscQueue<Queued> mQueue = new MpscQueue<>();
+        /**
+         * 先加计数再入队，计数不会小于队列中实际的消息数
+         */
+        final AtomicInteger mDepth = new AtomicInteger();
+        volatile int mMaxDepth;
+        /**
+         * 以下字段只在写线程中修改
+         */
+        FragmentIterator mCurrent;
+        int mCredits;
+        volatile long mStarted;
+        volatile long mTotalWaitNanos;
+        volatile long mMaxWaitNanos;
+
+        Lane(int weight) {
+            mWeight = weight;
+            mCredits = weight;
+        }
+
+        void offer(Message msg) {
+            int depth = mDepth.incrementAndGet();
+            if (depth > mMaxDepth) {
+                mMaxDepth = depth;
+            }
+            mQueue.offer(new Queued(msg, System.nanoTime()));
+        }
+
+        /**
+         * @return 是否有包可发，当前消息发完时取出下一个消息并记录它的等待时间
+         */
+        boolean hasFragment() {
+            if (mCurrent != null) {
+                return true;
+            }
+            Queued queued = mQueue.poll();
+            if (queued == null) {
+                return false;
+            }
+            mDepth.decrementAndGet();
+            long wait = System.nanoTime() - queued.mEnqueueNanos;
+            mStarted++;
+            mTotalWaitNanos += wait;
+            if (wait > mMaxWaitNanos) {
+                mMaxWaitNanos = wait;
+            }
+            mCurrent = queued.mMessage.fragments();
+            return true;
+        }
+
+        void onFragmentEncoded() {
+            mCredits--;
+            if (!mCurrent.hasNext()) {
+                mCurrent = null;
             }
         }
+
+        /**
+         * 只在写线程中调用
+         */
+        void clear() {
+            mQueue.clear();
+            mDepth.set(0);
+            mCurrent = null;
+        }
     }
 
+    private static class Queued {
+        final Message mMessage;
+        final long mEnqueueNanos;
+
+        Queued(Message message, long enqueueNanos) {
+            mMessage = message;
+            mEnqueueNanos = enqueueNanos;
+        }
+    }
 }
@@ -0,0 +1,151 @@
+package larson.groupcontrol.app.connection;
+
+import larson.groupcontrol.app.message.Message;
+
+import java.util.ArrayDeque;
+
+/**
+ * 一个连接上同时等待回复的请求数的窗口
+ * <p>
+ * Lets many requests be in flight on one connection while bounding how many the peer has to
+ * hold at once. A request is written immediately while fewer than the window size are awaiting
+ * their responses; otherwise it waits here, in order, and is written as soon as an earlier request
+ * completes by response, timeout, cancellation or disconnect. Responses are matched to their
+ * requests by sn through the router's correlation table, so pipelined replies may arrive in any
+ * order.
+ * <p>
+ * A request's timeout starts when it is submitted, so time spent waiting for a slot counts.
+ */
+public class RequestWindow {
+    /**
+     * 不限制同时等待回复的请求数
+     */
+    public static final int UNLIMITED = 0;
+
+    private final Sender mSender;
+    private final int mSize;
+    private final ArrayDeque<Request> mWaiting = new ArrayDeque<>();
+    private int mInFlight;
+    private volatile int mMaxInFlight;
+
+    /**
+     * @param sender 写出请求
+     * @param size   最多同时等待回复的请求数，{@link #UNLIMITED}表示不限制
+     */
+    public RequestWindow(Sender sender, int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size < 0: " + size);
+        }
+        mSender = sender;
+        mSize = size;
+    }
+
+    /**
+     * 窗口有空位时立即写出请求，否则排队等待
+     *
+     * @param msg    请求
+     * @param future 请求的回复，必须已经在router中注册
+     */
+    public void submit(Message msg, MessageFuture future) {
+        Request request = new Request(msg, future);
+        boolean isSendNow;
+        synchronized (this) {
+            isSendNow = mSize == UNLIMITED || mInFlight < mSize;
+            if (isSendNow) {
+                onSent(request);
+            } else {
+                mWaiting.add(request);
+            }
+        }
+        //回复可能在addCallback之前就完成了，此时addCallback在当前线程回调
+        future.addCallback(request);
+        if (isSendNow) {
+            mSender.send(msg);
+        }
+    }
+
+    /**
+     * @return 已经写出、等待回复的请求数
+     */
+    public synchronized int getInFlightCount() {
+        return mInFlight;
+    }
+
+    /**
+     * @return 曾经同时等待回复的最大请求数
+     */
+    public int getMaxInFlightCount() {
+        return mMaxInFlight;
+    }
+
+    /**
+     * @return 等待窗口空位的请求数
+     */
+    public synchronized int getWaitingCount() {
+        return mWaiting.size();
+    }
+
+    private void onSent(Request request) {
+        request.isSent = true;
+        mInFlight++;
+        if (mInFlight > mMaxInFlight) {
+            mMaxInFlight = mInFlight;
+        }
+    }
+
+    /**
+     * 请求完成：已经写出的释放窗口并写出下一个排队的请求，还在排队的直接移出队列
+     */
+    private void onCompleted(Request request) {
+        Request next = null;
+        synchronized (this) {
+            if (!request.isSent) {
+                mWaiting.remove(request);
+                return;
+            }
+            mInFlight--;
+            while ((next = mWaiting.poll()) != null && next.mFuture.isDone()) {
+                //排队期间已经超时或被取消
+            }
+            if (next != null) {
+                onSent(next);
+            }
+        }
+        if (next != null) {
+            mSender.send(next.mMessage);
+        }
+    }
+
+    private class Request implements MessageFuture.Callback {
+        final Message mMessage;
+        final MessageFuture mFuture;
+        /**
+         * 只在持有RequestWindow锁时访问
+         */
+        boolean isSent;
+
+        Request(Message message, MessageFuture future) {
+            mMessage = message;
+            mFuture = future;
+        }
+
+        @Override
+        public void onResponse(Message msg) {
+            onCompleted(this);
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            onCompleted(this);
+        }
+    }
+
+    public interface Sender {
+        /**
+         * 写出请求，不能阻塞
+         *
+         * @param msg 请求
+         */
+        void send(Message msg);
+    }
+}
@@ -0,0 +1,41 @@
+package larson.groupcontrol.app.connection;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 所有连接共用的定时器线程
+ * <p>
+ * One daemon timer thread shared by every connection, for heartbeats and response timeouts. Tasks
+ * must be short and must not block; anything heavier should be handed off to another executor.
+ * The thread is created on first use.
+ */
+final class SharedTimer {
+    private static ScheduledExecutorService sTimer;
+
+    private SharedTimer() {
+    }
+
+    static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return getTimer().schedule(task, delay, unit);
+    }
+
+    private static synchronized ScheduledExecutorService getTimer() {
+        if (sTimer == null) {
+            sTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    Thread thread = new Thread(r, "GroupControl timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sTimer;
+    }
+}
@@ -0,0 +1,189 @@
+package larson.groupcontrol.app.connection;
+
+import larson.groupcontrol.app.util.LogUtils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * 按设备分条执行任务：同一个设备的任务按提交顺序串行执行，不同设备的任务在不同线程并行执行
+ * <p>
+ * Runs listener work off the data thread. Each task carries a key (the sender's pid and vid) and
+ * always goes to the same stripe, a single thread with its own bounded queue, so messages from one
+ * device are handled in order while a slow listener for one device only delays the devices that
+ * share its stripe. When a stripe's queue is full {@link #execute(int, Runnable)} blocks, which
+ * pushes back to the data thread and, through the receive queue, to the socket.
+ * <p>
+ * Threads are started on the first task. Per-stripe depth, lag (how long the task that just
+ * started had waited) and completed counts can be read from any thread.
+ */
+public class StripedExecutor {
+    private final Stripe[] mStripes;
+    private final String mName;
+    private volatile boolean isStarted;
+    private volatile boolean isShutdown;
+
+    /**
+     * @param stripes  条数，即线程数
+     * @param capacity 每条的队列容量
+     * @param name     线程名前缀
+     */
+    public StripedExecutor(int stripes, int capacity, String name) {
+        if (stripes <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("stripes and capacity must be positive");
+        }
+        mName = name;
+        mStripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            mStripes[i] = new Stripe(capacity);
+        }
+    }
+
+    /**
+     * 把任务交给key对应的那一条执行，队列满时阻塞
+     *
+     * @param key  相同的key按提交顺序执行
+     * @param task 任务
+     * @return false表示已经关闭或者等待时被中断，任务没有执行
+     */
+    public boolean execute(int key, Runnable task) {
+        if (isShutdown) {
+            return false;
+        }
+        if (!isStarted) {
+            start();
+        }
+        try {
+            Stripe stripe = mStripes[getStripe(key)];
+            stripe.mQueue.put(new Task(task, System.nanoTime()));
+            int depth = stripe.mQueue.size();
+            if (depth > stripe.mMaxDepth) {
+                stripe.mMaxDepth = depth;
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 停止所有线程，丢弃还没执行的任务
+     */
+    public synchronized void shutdown() {
+        isShutdown = true;
+        for (Stripe stripe : mStripes) {
+            stripe.mQueue.clear();
+            if (stripe.mThread != null) {
+                stripe.mThread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return key对应的条
+     */
+    public int getStripe(int key) {
+        //混合高低位，pid和vid的变化都能分散到不同的条
+        int hash = key * 0x9E3779B9;
+        return ((hash ^ (hash >>> 16)) & 0x7FFFFFFF) % mStripes.length;
+    }
+
+    public int getStripeCount() {
+        return mStripes.length;
+    }
+
+    /**
+     * @return 这一条排队中的任务数
+     */
+    public int getQueueDepth(int stripe) {
+        return mStripes[stripe].mQueue.size();
+    }
+
+    /**
+     * @return 这一条曾经的最大排队任务数
+     */
+    public int getMaxQueueDepth(int stripe) {
+        return mStripes[stripe].mMaxDepth;
+    }
+
+    /**
+     * @return 这一条最近开始执行的任务排队等待的时间，单位是微秒
+     */
+    public long getLag(int stripe) {
+        return mStripes[stripe].mLag / 1000;
+    }
+
+    /**
+     * @return 这一条任务排队等待的最长时间，单位是微秒
+     */
+    public long getMaxLag(int stripe) {
+        return mStripes[stripe].mMaxLag / 1000;
+    }
+
+    /**
+     * @return 这一条已经执行完的任务数
+     */
+    public long getCompletedCount(int stripe) {
+        return mStripes[stripe].mCompleted;
+    }
+
+    private synchronized void start() {
+        if (isStarted || isShutdown) {
+            return;
+        }
+        isStarted = true;
+        for (int i = 0; i < mStripes.length; i++) {
+            Thread thread = new Thread(mStripes[i], mName + "-" + i);
+            thread.setDaemon(true);
+            mStripes[i].mThread = thread;
+            thread.start();
+        }
+    }
+
+    private static class Task {
+        final Runnable runnable;
+        final long enqueueTime;
+
+        Task(Runnable runnable, long enqueueTime) {
+            this.runnable = runnable;
+            this.enqueueTime = enqueueTime;
+        }
+    }
+
+    private class Stripe implements Runnable {
+        final BlockingQueue<Task> mQueue;
+        Thread mThread;
+        volatile int mMaxDepth;
+        volatile long mLag;
+        volatile long mMaxLag;
+        volatile long mCompleted;
+
+        Stripe(int capacity) {
+            mQueue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        @Override
+        public void run() {
+            while (!isShutdown) {
+                Task task;
+                try {
+                    task = mQueue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long lag = System.nanoTime() - task.enqueueTime;
+                mLag = lag;
+                if (lag > mMaxLag) {
+                    mMaxLag = lag;
+                }
+                try {
+                    task.runnable.run();
+                } catch (RuntimeException e) {
+                    LogUtils.e("listener failed", e);
+                }
+                mCompleted++;
+            }
+        }
+    }
+}
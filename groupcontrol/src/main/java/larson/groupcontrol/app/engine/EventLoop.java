@@ -0,0 +1,139 @@
+package larson.groupcontrol.app.engine;
+
+import larson.groupcontrol.app.util.LogUtils;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一个线程加一个Selector，负责多个连接的读写以及投递过来的任务
+ * <p>
+ * One thread driving one {@link Selector}. All I/O of the channels registered here and every task
+ * passed to {@link #execute(Runnable)} run on that thread, so per-connection state needs no locks.
+ * Other threads only touch the task queue and wake the selector, and only when it may be sleeping.
+ */
+class EventLoop implements Runnable {
+    private final Selector mSelector;
+    private final Queue<Runnable> mTasks = new ConcurrentLinkedQueue<>();
+    /**
+     * selector是否已经被唤醒，避免重复调用wakeup
+     */
+    private final AtomicBoolean mWakenUp = new AtomicBoolean();
+    private final AtomicInteger mChannelCount = new AtomicInteger();
+    private final Thread mThread;
+    private volatile boolean isShutdown;
+
+    EventLoop(String name) throws IOException {
+        mSelector = Selector.open();
+        mThread = new Thread(this, name);
+        mThread.setDaemon(true);
+    }
+
+    void start() {
+        mThread.start();
+    }
+
+    /**
+     * 在事件循环线程中执行任务，任务按投递顺序执行
+     *
+     * @param task 任务
+     */
+    void execute(Runnable task) {
+        mTasks.add(task);
+        if (!inEventLoop() && mWakenUp.compareAndSet(false, true)) {
+            mSelector.wakeup();
+        }
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == mThread;
+    }
+
+    Selector selector() {
+        return mSelector;
+    }
+
+    /**
+     * @return 注册在这个事件循环上的channel数
+     */
+    int getChannelCount() {
+        return mChannelCount.get();
+    }
+
+    void onChannelRegistered() {
+        mChannelCount.incrementAndGet();
+    }
+
+    void onChannelClosed() {
+        mChannelCount.decrementAndGet();
+    }
+
+    void shutdown() {
+        isShutdown = true;
+        mSelector.wakeup();
+    }
+
+    void awaitTermination(long millis) throws InterruptedException {
+        mThread.join(millis);
+    }
+
+    @Override
+    public void run() {
+        while (!isShutdown) {
+            try {
+                mSelector.select();
+                mWakenUp.set(false);
+                processSelectedKeys();
+                runTasks();
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (Throwable e) {
+                //一个连接的异常不能让整个事件循环退出
+                LogUtils.e("EventLoop error", e);
+            }
+        }
+        closeAll();
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> iterator = mSelector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            if (!key.isValid()) {
+                continue;
+            }
+            ((SelectHandler) key.attachment()).onSelected(key);
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = mTasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                LogUtils.e("EventLoop task error", e);
+            }
+        }
+    }
+
+    private void closeAll() {
+        runTasks();
+        for (SelectionKey key : mSelector.keys()) {
+            ((SelectHandler) key.attachment()).onLoopShutdown();
+        }
+        try {
+            mSelector.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package larson.groupcontrol.app.engine;
+
+import larson.groupcontrol.app.connection.MessageFuture;
+import larson.groupcontrol.app.connection.PacketRouter;
+import larson.groupcontrol.app.connection.RequestWindow;
+import larson.groupcontrol.app.exception.UnconnectedException;
+import larson.groupcontrol.app.filter.MessageFilter;
+import larson.groupcontrol.app.listener.IMessageListener;
+import larson.groupcontrol.app.message.FragmentIterator;
+import larson.groupcontrol.app.message.Message;
+import larson.groupcontrol.app.packet.FrameDecoder;
+import larson.groupcontrol.app.packet.Packet;
+import larson.groupcontrol.app.packet.PacketHeader;
+import larson.groupcontrol.app.util.BytesUtils;
+import larson.groupcontrol.app.util.LogUtils;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link NioEngine}中的一个设备连接，读写都在所属的{@link EventLoop}线程中完成，不占用独立线程
+ * <p>
+ * One device connection multiplexed on an {@link EventLoop}. Frames are decoded in place by a
+ * {@link FrameDecoder} and handed to a per-connection {@link PacketRouter}, so filters, listeners,
+ * collectors and large-message reassembly behave exactly as on a
+ * {@link larson.groupcontrol.app.connection.Connection}. Listeners run on the event loop thread and
+ * must not block it.
+ * <p>
+ * {@link #sendMessage(Message)} may be called from any thread: packets are queued and flushed by the
+ * event loop, with {@link SelectionKey#OP_WRITE} only set while the socket buffer is full.
+ */
+public class NioConnection implements SelectHandler, RequestWindow.Sender {
+    /**
+     * 每个连接的接收缓冲区大小，连接数很多时内存占用按这个值线性增长
+     */
+    private static final int DECODER_CAPACITY = 2 * FrameDecoder.MAX_FRAME_SIZE;
+    /**
+     * 每个连接的发送缓冲区大小，包从待发送的消息中即时编码进来
+     */
+    private static final int WRITE_BUFFER_SIZE = 4 * Packet.MAX_SOCKET_SIZE;
+
+    private final NioEngine mEngine;
+    private final EventLoop mLoop;
+    private final SocketChannel mChannel;
+    private final SocketAddress mRemoteAddress;
+    private final FrameDecoder mDecoder = new FrameDecoder(DECODER_CAPACITY);
+    private final PacketRouter mRouter = new PacketRouter();
+    private final Queue<FragmentIterator> mOutbound = new ConcurrentLinkedQueue<>();
+    /**
+     * 已编码还没写出的数据，处于读模式；第一次发送时才分配
+     */
+    private ByteBuffer mWriteBuffer;
+    /**
+     * 是否已经投递了flush任务，避免每个包都唤醒一次selector
+     */
+    private final AtomicBoolean mFlushScheduled = new AtomicBoolean();
+    private SelectionKey mKey;
+    private volatile RequestWindow mRequestWindow = new RequestWindow(this, RequestWindow.UNLIMITED);
+    private volatile boolean isClosed;
+
+    private final FrameDecoder.OnFrameListener mFrameListener = new FrameDecoder.OnFrameListener() {
+        @Override
+        public void onFrame(ByteBuffer buffer, int offset, int length) {
+            if (BytesUtils.bytesToType(buffer.array(), buffer.arrayOffset() + offset) == PacketHeader.TYPE_ACK) {
+                return;
+            }
+            mRouter.onDataReceive(buffer, offset, length);
+        }
+    };
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            mFlushScheduled.set(false);
+            flush();
+        }
+    };
+
+    NioConnection(NioEngine engine, EventLoop loop, SocketChannel channel) {
+        mEngine = engine;
+        mLoop = loop;
+        mChannel = channel;
+        mRemoteAddress = channel.socket().getRemoteSocketAddress();
+    }
+
+    /**
+     * 注册到事件循环，在事件循环线程中调用
+     */
+    void register() throws IOException {
+        mKey = mChannel.register(mLoop.selector(), SelectionKey.OP_READ, this);
+        mLoop.onChannelRegistered();
+    }
+
+    @Override
+    public void onSelected(SelectionKey key) {
+        try {
+            if (key.isReadable()) {
+                int num = mDecoder.readFrom(mChannel);
+                if (num < 0) {
+                    closeInLoop(null);
+                    return;
+                }
+                mDecoder.decode(mFrameListener);
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush();
+            }
+        } catch (IOException e) {
+            closeInLoop(e);
+        }
+    }
+
+    @Override
+    public void onLoopShutdown() {
+        closeInLoop(null);
+    }
+
+    /**
+     * 发送消息，可以在任意线程调用，大消息会拆成多个包
+     *
+     * @param msg 要发送的消息
+     */
+    @Override
+    public void send(Message msg) {
+        sendMessage(msg);
+    }
+
+    public void sendMessage(Message msg) {
+        if (isClosed) {
+            LogUtils.e("Connection closed: " + mRemoteAddress);
+            return;
+        }
+        mOutbound.add(msg.fragments());
+        if (mLoop.inEventLoop()) {
+            flush();
+        } else if (mFlushScheduled.compareAndSet(false, true)) {
+            mLoop.execute(mFlushTask);
+        }
+    }
+
+    /**
+     * 发送消息并等待这个请求的回复，会阻塞调用线程，不能在listener中调用
+     *
+     * @param msg     要发送的消息
+     * @param timeOut 超时时间，单位是毫秒
+     * @return 回复的消息，超时返回null
+     */
+    public Message sendSyncMessage(Message msg, long timeOut) {
+        MessageFuture future = sendAsync(msg, null, timeOut);
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 发送消息，不阻塞调用线程，返回的future在收到符合filter的消息时在事件循环线程中完成，
+     * 超时在共享定时器线程中完成
+     *
+     * @param msg     要发送的消息
+     * @param filter  回复的过滤器，null表示等待这个请求的回复(sn、msgId相同并且带回复标志)
+     * @param timeOut 超时时间，单位是毫秒，小于等于0表示不超时
+     * @return 等待中的回复
+     */
+    public MessageFuture sendAsync(Message msg, MessageFilter filter, long timeOut) {
+        if (isClosed) {
+            return MessageFuture.failed(new UnconnectedException("Connection closed: " + mRemoteAddress));
+        }
+        MessageFuture future = filter == null
+                ? mRouter.createResponseFuture(msg) : mRouter.createResponseFuture(filter);
+        future.setTimeout(timeOut);
+        mRequestWindow.submit(msg, future);
+        return future;
+    }
+
+    /**
+     * 设置同时等待回复的最大请求数，超出的请求排队，需要在发送请求之前设置
+     *
+     * @param size 最大请求数，{@link RequestWindow#UNLIMITED}表示不限制
+     */
+    public void setRequestWindow(int size) {
+        mRequestWindow = new RequestWindow(this, size);
+    }
+
+    /**
+     * @return 请求窗口，可以查看等待回复和排队的请求数
+     */
+    public RequestWindow getRequestWindow() {
+        return mRequestWindow;
+    }
+
+    public void addMsgListener(IMessageListener listener, MessageFilter filter) {
+        mRouter.addRcvListener(filter, listener);
+    }
+
+    public void removeMsgListener(IMessageListener listener) {
+        mRouter.removeRcvListener(listener);
+    }
+
+    /**
+     * @return 该连接的包分发器
+     */
+    public PacketRouter getRouter() {
+        return mRouter;
+    }
+
+    public SocketAddress getRemoteAddress() {
+        return mRemoteAddress;
+    }
+
+    public boolean isConnected() {
+        return !isClosed;
+    }
+
+    /**
+     * 关闭连接，可以在任意线程调用
+     */
+    public void close() {
+        if (mLoop.inEventLoop()) {
+            closeInLoop(null);
+            return;
+        }
+        mLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeInLoop(null);
+            }
+        });
+    }
+
+    /**
+     * 把待发送的包尽量写出去，socket缓冲区满时注册OP_WRITE等待下次可写；
+     * 发送缓冲区写空之后才从待发送的消息中编码下一批包
+     */
+    private void flush() {
+        if (isClosed || mKey == null) {
+            return;
+        }
+        if (mWriteBuffer == null) {
+            mWriteBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+            mWriteBuffer.limit(0);
+        }
+        try {
+            while (mWriteBuffer.hasRemaining() || fillWriteBuffer()) {
+                mChannel.write(mWriteBuffer);
+                if (mWriteBuffer.hasRemaining()) {
+                    mKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            mKey.interestOps(SelectionKey.OP_READ);
+        } catch (IOException e) {
+            closeInLoop(e);
+        }
+    }
+
+    /**
+     * @return 是否编码了新的数据
+     */
+    private boolean fillWriteBuffer() {
+        mWriteBuffer.clear();
+        FragmentIterator fragments;
+        while ((fragments = mOutbound.peek()) != null) {
+            fragments.encodeAvailable(mWriteBuffer);
+            if (fragments.hasNext()) {
+                break;
+            }
+            mOutbound.poll();
+        }
+        mWriteBuffer.flip();
+        return mWriteBuffer.hasRemaining();
+    }
+
+    private void closeInLoop(Exception e) {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        if (mKey != null) {
+            mKey.cancel();
+            mLoop.onChannelClosed();
+        }
+        try {
+            mChannel.close();
+        } catch (IOException ignore) {
+            // Ignore
+        }
+        mOutbound.clear();
+        mDecoder.clear();
+        mRouter.clear();
+        mEngine.onConnectionClosed(this, e);
+    }
+
+    @Override
+    public String toString() {
+        return "NioConnection[" + mRemoteAddress + "]";
+    }
+}
@@ -0,0 +1,230 @@
+package larson.groupcontrol.app.engine;
+
+import larson.groupcontrol.app.util.LogUtils;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于Selector的多连接引擎，少量事件循环线程复用大量非阻塞连接，用于一个控制进程同时连接成千上万台设备
+ * <p>
+ * A selector-driven engine for controllers that hold many device connections. Unlike
+ * {@link larson.groupcontrol.app.connection.Connection}, which needs a reader, a parser and a writer
+ * thread per device, a connection here costs a decoder buffer and a {@link NioConnection} object;
+ * the threads are the {@link EventLoop}s, one per core by default. Connections, both accepted with
+ * {@link #bind(SocketAddress)} and opened with {@link #connect(SocketAddress)}, are spread over the
+ * loops round-robin.
+ * <p>
+ * The engine does not send heartbeats; device liveness is up to the caller.
+ */
+public class NioEngine {
+    private final EventLoop[] mLoops;
+    private final AtomicInteger mNextLoop = new AtomicInteger();
+    private final Set<NioConnection> mConnections =
+            Collections.newSetFromMap(new ConcurrentHashMap<NioConnection, Boolean>());
+    private final List<ServerSocketChannel> mServers = new ArrayList<>();
+    private final OnConnectionListener mListener;
+    private boolean isStarted;
+
+    /**
+     * 每个CPU核心一个事件循环
+     */
+    public NioEngine(OnConnectionListener listener) throws IOException {
+        this(Runtime.getRuntime().availableProcessors(), listener);
+    }
+
+    /**
+     * @param loopCount 事件循环线程数
+     * @param listener  连接建立和断开的回调，在事件循环线程中调用
+     */
+    public NioEngine(int loopCount, OnConnectionListener listener) throws IOException {
+        if (loopCount <= 0) {
+            throw new IllegalArgumentException("loopCount <= 0: " + loopCount);
+        }
+        mListener = listener;
+        mLoops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            mLoops[i] = new EventLoop("NioEngine loop: " + i);
+        }
+    }
+
+    public synchronized void start() {
+        if (isStarted) {
+            return;
+        }
+        isStarted = true;
+        for (EventLoop loop : mLoops) {
+            loop.start();
+        }
+    }
+
+    /**
+     * 监听指定地址，接受的连接分配到各个事件循环上
+     *
+     * @param address 监听地址
+     * @return 实际监听的地址，端口为0时可以通过它获取分配到的端口
+     * @throws IOException 监听失败
+     */
+    public SocketAddress bind(SocketAddress address) throws IOException {
+        final ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().setReuseAddress(true);
+        server.socket().bind(address, 1024);
+        server.configureBlocking(false);
+        synchronized (this) {
+            mServers.add(server);
+        }
+        final EventLoop loop = mLoops[0];
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    server.register(loop.selector(), SelectionKey.OP_ACCEPT, new Acceptor(server));
+                } catch (IOException e) {
+                    LogUtils.e("register server failed", e);
+                }
+            }
+        });
+        return server.socket().getLocalSocketAddress();
+    }
+
+    /**
+     * 连接到指定地址，连接过程阻塞调用线程，建立之后交给事件循环
+     *
+     * @param address 设备地址
+     * @return 新的连接
+     * @throws IOException 连接失败
+     */
+    public NioConnection connect(SocketAddress address) throws IOException {
+        SocketChannel channel = SocketChannel.open(address);
+        return register(channel);
+    }
+
+    /**
+     * @return 当前连接数
+     */
+    public int getConnectionCount() {
+        return mConnections.size();
+    }
+
+    /**
+     * @return 事件循环线程数
+     */
+    public int getLoopCount() {
+        return mLoops.length;
+    }
+
+    /**
+     * 关闭所有监听和连接，停止事件循环
+     */
+    public void shutdown() {
+        synchronized (this) {
+            for (ServerSocketChannel server : mServers) {
+                try {
+                    server.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+            mServers.clear();
+        }
+        for (EventLoop loop : mLoops) {
+            loop.shutdown();
+        }
+        for (EventLoop loop : mLoops) {
+            try {
+                loop.awaitTermination(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private NioConnection register(SocketChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        EventLoop loop = mLoops[(mNextLoop.getAndIncrement() & Integer.MAX_VALUE) % mLoops.length];
+        final NioConnection connection = new NioConnection(this, loop, channel);
+        mConnections.add(connection);
+        //Selector.select期间register会阻塞，所以放到事件循环线程中执行
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    connection.register();
+                } catch (IOException e) {
+                    connection.close();
+                    return;
+                }
+                if (mListener != null) {
+                    mListener.onConnected(connection);
+                }
+            }
+        });
+        return connection;
+    }
+
+    void onConnectionClosed(NioConnection connection, Exception e) {
+        if (mConnections.remove(connection) && mListener != null) {
+            mListener.onClosed(connection, e);
+        }
+    }
+
+    /**
+     * 监听channel的处理，接受所有等待中的连接
+     */
+    private class Acceptor implements SelectHandler {
+        private final ServerSocketChannel mServer;
+
+        Acceptor(ServerSocketChannel server) {
+            mServer = server;
+        }
+
+        @Override
+        public void onSelected(SelectionKey key) {
+            SocketChannel channel;
+            try {
+                while ((channel = mServer.accept()) != null) {
+                    register(channel);
+                }
+            } catch (IOException e) {
+                LogUtils.e("accept failed", e);
+            }
+        }
+
+        @Override
+        public void onLoopShutdown() {
+            try {
+                mServer.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    public interface OnConnectionListener {
+        /**
+         * 连接已注册到事件循环，可以在这里添加消息监听
+         *
+         * @param connection 新的连接
+         */
+        void onConnected(NioConnection connection);
+
+        /**
+         * 连接已关闭
+         *
+         * @param connection 关闭的连接
+         * @param e          关闭原因，主动关闭或者对端正常关闭时为null
+         */
+        void onClosed(NioConnection connection, Exception e);
+    }
+}
@@ -0,0 +1,20 @@
+package larson.groupcontrol.app.engine;
+
+import java.nio.channels.SelectionKey;
+
+/**
+ * 注册到{@link EventLoop}的channel的事件处理，作为SelectionKey的attachment
+ */
+interface SelectHandler {
+    /**
+     * channel就绪，在事件循环线程中调用
+     *
+     * @param key 就绪的key
+     */
+    void onSelected(SelectionKey key);
+
+    /**
+     * 事件循环退出时调用，释放channel
+     */
+    void onLoopShutdown();
+}
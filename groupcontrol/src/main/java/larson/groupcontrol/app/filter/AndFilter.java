@@ -4,6 +4,7 @@ import larson.groupcontrol.app.message.Message;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -57,6 +58,9 @@ public class AndFilter implements MessageFilter {
     /**
      * Adds a filter to the filter list for the AND operation. A message will pass the filter if all
      * of the filters in the list accept it.
+     * <p>
+     * 注册监听器或发送请求时过滤器已经被{@link FilterCompiler}编译，之后再添加的子过滤器不会生效，
+     * 需要在注册之前添加完
      *
      * @param filter a filter to add to the filter list
      */
@@ -67,6 +71,13 @@ public class AndFilter implements MessageFilter {
         mFilters.add(filter);
     }
 
+    /**
+     * @return 所有子过滤器，只读
+     */
+    public List<MessageFilter> getFilters() {
+        return Collections.unmodifiableList(mFilters);
+    }
+
     @Override
     public boolean accept(Message msg) {
         for (MessageFilter filter : mFilters) {
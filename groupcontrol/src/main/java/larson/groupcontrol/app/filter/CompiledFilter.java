@@ -0,0 +1,107 @@
+package larson.groupcontrol.app.filter;
+
+import larson.groupcontrol.app.message.Message;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * {@link FilterCompiler}编译后的过滤器，按位判断msgId、包类型和回复标志
+ * <p>
+ * The compiled form of a filter tree: an OR of clauses held in flat arrays. Checking a clause is a
+ * bitset lookup for the msgId and two mask tests, with no calls through {@link MessageFilter};
+ * only the custom filters left in a clause are called, and only once the bits have matched.
+ * Immutable and thread safe as long as the custom filters are.
+ */
+public final class CompiledFilter implements MessageFilter {
+    private static final MessageFilter[] NO_FILTERS = new MessageFilter[0];
+
+    /**
+     * 每个子句接受的msgId位图，null表示接受所有msgId
+     */
+    private final long[][] mIds;
+    private final int[] mTypes;
+    private final int[] mResponses;
+    /**
+     * 每个子句剩下的自定义过滤器，没有时为空数组
+     */
+    private final MessageFilter[][] mOpaque;
+
+    CompiledFilter(List<FilterCompiler.Clause> clauses) {
+        int count = clauses.size();
+        mIds = new long[count][];
+        mTypes = new int[count];
+        mResponses = new int[count];
+        mOpaque = new MessageFilter[count][];
+        for (int i = 0; i < count; i++) {
+            FilterCompiler.Clause clause = clauses.get(i);
+            mIds[i] = clause.ids;
+            mTypes[i] = clause.types;
+            mResponses[i] = clause.responses;
+            mOpaque[i] = clause.opaque.length == 0 ? NO_FILTERS : clause.opaque;
+        }
+    }
+
+    @Override
+    public boolean accept(Message msg) {
+        int id = msg.getMsgId();
+        int type = msg.getType() >= 0 && msg.getType() < FilterCompiler.TYPE_COUNT ? 1 << msg.getType() : 0;
+        int response = msg.isResponse() ? FilterCompiler.RESPONSE : FilterCompiler.NOT_RESPONSE;
+        for (int i = 0; i < mIds.length; i++) {
+            long[] ids = mIds[i];
+            if (ids != null && (id < 0 || id >= FilterCompiler.MSG_ID_COUNT || (ids[id >>> 6] & 1L << id) == 0)) {
+                continue;
+            }
+            if ((mTypes[i] != FilterCompiler.ALL_TYPES && (mTypes[i] & type) == 0)
+                    || (mResponses[i] & response) == 0) {
+                continue;
+            }
+            if (acceptOpaque(mOpaque[i], msg)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean acceptOpaque(MessageFilter[] filters, Message msg) {
+        for (MessageFilter filter : filters) {
+            if (!filter.accept(msg)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 过滤器可能接受的所有msgId，null表示可能接受任意msgId
+     */
+    public BitSet getMsgIds() {
+        BitSet result = new BitSet(FilterCompiler.MSG_ID_COUNT);
+        for (long[] ids : mIds) {
+            if (ids == null) {
+                return null;
+            }
+            for (int i = 0; i < ids.length; i++) {
+                long word = ids[i];
+                while (word != 0) {
+                    int bit = Long.numberOfTrailingZeros(word);
+                    result.set(i * 64 + bit);
+                    word &= word - 1;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return 子句数
+     */
+    public int getClauseCount() {
+        return mIds.length;
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledFilter: " + mIds.length + " clauses";
+    }
+}
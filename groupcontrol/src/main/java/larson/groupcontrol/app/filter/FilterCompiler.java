@@ -0,0 +1,213 @@
+package larson.groupcontrol.app.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 把由{@link AndFilter}、{@link OrFilter}和简单过滤器组成的过滤器树编译成{@link CompiledFilter}
+ * <p>
+ * Flattens a filter tree into disjunctive normal form: an OR of clauses, where each clause is a
+ * msgId bitset, a packet type mask, a response mask and the few custom filters that cannot be
+ * expressed that way. {@link MessageIdFilter}, {@link MessageTypeFilter} and
+ * {@link ResponseFilter} become bits, an {@link OrFilter} concatenates its children's clauses and
+ * an {@link AndFilter} intersects them pairwise. Clauses that can never match are dropped and
+ * clauses that differ only in their msgIds are merged, so an OR of ID filters is one bitset.
+ * <p>
+ * Custom filters, including ones already compiled, stay as they are and are called from the clause
+ * that contains them. An AND whose expansion would exceed {@link #MAX_CLAUSES} keeps its
+ * offending child as such an opaque filter instead. The tree is read once; changing it afterwards
+ * does not affect the compiled filter.
+ */
+public final class FilterCompiler {
+    /**
+     * 展开后最多的子句数，超出时把子过滤器当作自定义过滤器
+     */
+    static final int MAX_CLAUSES = 64;
+    /**
+     * msgId的个数，和消息头中msgId的13位一致
+     */
+    static final int MSG_ID_COUNT = 0x2000;
+    /**
+     * 包类型的个数
+     */
+    static final int TYPE_COUNT = 16;
+    static final int ALL_TYPES = 0xFFFF;
+    static final int NOT_RESPONSE = 1;
+    static final int RESPONSE = 2;
+    static final int ALL_RESPONSES = NOT_RESPONSE | RESPONSE;
+
+    private FilterCompiler() {
+    }
+
+    /**
+     * 编译过滤器
+     *
+     * @param filter 过滤器，null表示接受所有消息
+     * @return 和filter接受同样消息的编译后的过滤器
+     */
+    public static CompiledFilter compile(MessageFilter filter) {
+        if (filter instanceof CompiledFilter) {
+            return (CompiledFilter) filter;
+        }
+        List<Clause> clauses = filter == null ? any() : compileClauses(filter);
+        return new CompiledFilter(merge(clauses));
+    }
+
+    /**
+     * 只按确切的类识别内置过滤器，子类可能重写了accept()，只能当作自定义过滤器调用
+     */
+    private static List<Clause> compileClauses(MessageFilter filter) {
+        List<Clause> clauses = new ArrayList<>();
+        if (filter.getClass() == MessageIdFilter.class) {
+            int id = ((MessageIdFilter) filter).getId();
+            if (id < 0 || id >= MSG_ID_COUNT) {
+                return opaque(filter);
+            }
+            Clause clause = new Clause();
+            clause.ids = new long[MSG_ID_COUNT / 64];
+            clause.ids[id >>> 6] |= 1L << id;
+            clauses.add(clause);
+        } else if (filter.getClass() == MessageTypeFilter.class) {
+            int type = ((MessageTypeFilter) filter).getType();
+            if (type < 0 || type >= TYPE_COUNT) {
+                return opaque(filter);
+            }
+            Clause clause = new Clause();
+            clause.types = 1 << type;
+            clauses.add(clause);
+        } else if (filter.getClass() == ResponseFilter.class) {
+            Clause clause = new Clause();
+            clause.responses = ((ResponseFilter) filter).isResponse() ? RESPONSE : NOT_RESPONSE;
+            clauses.add(clause);
+        } else if (filter.getClass() == OrFilter.class) {
+            for (MessageFilter child : ((OrFilter) filter).getFilters()) {
+                clauses.addAll(compileClauses(child));
+            }
+            clauses = merge(clauses);
+            if (clauses.size() > MAX_CLAUSES) {
+                return opaque(filter);
+            }
+        } else if (filter.getClass() == AndFilter.class) {
+            clauses = any();
+            for (MessageFilter child : ((AndFilter) filter).getFilters()) {
+                List<Clause> childClauses = merge(compileClauses(child));
+                if (clauses.size() * childClauses.size() > MAX_CLAUSES) {
+                    childClauses = opaque(child);
+                }
+                List<Clause> product = new ArrayList<>(clauses.size() * childClauses.size());
+                for (Clause left : clauses) {
+                    for (Clause right : childClauses) {
+                        Clause clause = left.and(right);
+                        if (clause != null) {
+                            product.add(clause);
+                        }
+                    }
+                }
+                clauses = product;
+            }
+        } else {
+            return opaque(filter);
+        }
+        return clauses;
+    }
+
+    /**
+     * 合并只有msgId不同、没有自定义过滤器的子句
+     */
+    private static List<Clause> merge(List<Clause> clauses) {
+        List<Clause> merged = new ArrayList<>(clauses.size());
+        for (Clause clause : clauses) {
+            Clause target = null;
+            if (clause.opaque.length == 0) {
+                for (Clause candidate : merged) {
+                    if (candidate.opaque.length == 0 && candidate.types == clause.types
+                            && candidate.responses == clause.responses) {
+                        target = candidate;
+                        break;
+                    }
+                }
+            }
+            if (target == null) {
+                merged.add(clause.copy());
+            } else if (target.ids != null) {
+                if (clause.ids == null) {
+                    target.ids = null;
+                } else {
+                    for (int i = 0; i < target.ids.length; i++) {
+                        target.ids[i] |= clause.ids[i];
+                    }
+                }
+            }
+        }
+        return merged;
+    }
+
+    private static List<Clause> any() {
+        List<Clause> clauses = new ArrayList<>(1);
+        clauses.add(new Clause());
+        return clauses;
+    }
+
+    private static List<Clause> opaque(MessageFilter filter) {
+        Clause clause = new Clause();
+        clause.opaque = new MessageFilter[]{filter};
+        List<Clause> clauses = new ArrayList<>(1);
+        clauses.add(clause);
+        return clauses;
+    }
+
+    /**
+     * 一个子句：msgId、包类型、回复标志都满足并且所有自定义过滤器都接受
+     */
+    static class Clause {
+        /**
+         * 接受的msgId位图，null表示接受所有msgId
+         */
+        long[] ids;
+        int types = ALL_TYPES;
+        int responses = ALL_RESPONSES;
+        MessageFilter[] opaque = new MessageFilter[0];
+
+        /**
+         * @return 两个子句的交集，不可能满足时返回null
+         */
+        Clause and(Clause other) {
+            Clause clause = new Clause();
+            clause.types = types & other.types;
+            clause.responses = responses & other.responses;
+            if (clause.types == 0 || clause.responses == 0) {
+                return null;
+            }
+            if (ids == null || other.ids == null) {
+                clause.ids = ids == null ? copyOf(other.ids) : copyOf(ids);
+            } else {
+                clause.ids = new long[ids.length];
+                boolean isEmpty = true;
+                for (int i = 0; i < ids.length; i++) {
+                    clause.ids[i] = ids[i] & other.ids[i];
+                    isEmpty &= clause.ids[i] == 0;
+                }
+                if (isEmpty) {
+                    return null;
+                }
+            }
+            clause.opaque = Arrays.copyOf(opaque, opaque.length + other.opaque.length);
+            System.arraycopy(other.opaque, 0, clause.opaque, opaque.length, other.opaque.length);
+            return clause;
+        }
+
+        Clause copy() {
+            Clause clause = new Clause();
+            clause.ids = copyOf(ids);
+            clause.types = types;
+            clause.responses = responses;
+            clause.opaque = opaque;
+            return clause;
+        }
+
+        private static long[] copyOf(long[] ids) {
+            return ids == null ? null : ids.clone();
+        }
+    }
+}
@@ -23,6 +23,13 @@ public class MessageIdFilter implements MessageFilter{
         mId = id;
     }
 
+    /**
+     * @return 要过滤的消息ID
+     */
+    public short getId() {
+        return mId;
+    }
+
     @Override
     public boolean accept(Message msg) {
         return mId == msg.getMsgId();
@@ -0,0 +1,36 @@
+package larson.groupcontrol.app.filter;
+
+import larson.groupcontrol.app.message.Message;
+
+/**
+ * 通过包类型过滤消息，如{@link Message#MSG_TYPE_DATA}
+ * <p>
+ * Filters for messages of a particular packet type.
+ */
+public class MessageTypeFilter implements MessageFilter {
+    private final byte mType;
+
+    /**
+     * @param type 包类型，见{@link Message}中的MSG_TYPE常量
+     */
+    public MessageTypeFilter(byte type) {
+        mType = type;
+    }
+
+    /**
+     * @return 要过滤的包类型
+     */
+    public byte getType() {
+        return mType;
+    }
+
+    @Override
+    public boolean accept(Message msg) {
+        return mType == msg.getType();
+    }
+
+    @Override
+    public String toString() {
+        return "MessageTypeFilter by type: " + mType;
+    }
+}
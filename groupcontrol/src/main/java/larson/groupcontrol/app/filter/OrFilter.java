@@ -4,6 +4,7 @@ import larson.groupcontrol.app.message.Message;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -56,6 +57,9 @@ public class OrFilter implements MessageFilter {
     /**
      * Adds a filter to the filter list for the OR operation. A message will pass the filter if any
      * filter in the list accepts it.
+     * <p>
+     * 注册监听器或发送请求时过滤器已经被{@link FilterCompiler}编译，之后再添加的子过滤器不会生效，
+     * 需要在注册之前添加完
      *
      * @param filter a filter to add to the filter list
      */
@@ -67,6 +71,13 @@ public class OrFilter implements MessageFilter {
         mFilters.add(filter);
     }
 
+    /**
+     * @return 所有子过滤器，只读
+     */
+    public List<MessageFilter> getFilters() {
+        return Collections.unmodifiableList(mFilters);
+    }
+
     @Override
     public boolean accept(Message msg) {
         for (MessageFilter filter : mFilters) {
@@ -0,0 +1,33 @@
+package larson.groupcontrol.app.filter;
+
+import larson.groupcontrol.app.message.Message;
+
+/**
+ * 按是否是回复消息过滤
+ * <p>
+ * Filters for response messages, or for messages that are not responses.
+ */
+public class ResponseFilter implements MessageFilter {
+    private final boolean isResponse;
+
+    /**
+     * @param response true只接受回复消息，false只接受不是回复的消息
+     */
+    public ResponseFilter(boolean response) {
+        isResponse = response;
+    }
+
+    public boolean isResponse() {
+        return isResponse;
+    }
+
+    @Override
+    public boolean accept(Message msg) {
+        return isResponse == msg.isResponse();
+    }
+
+    @Override
+    public String toString() {
+        return "ResponseFilter: " + isResponse;
+    }
+}
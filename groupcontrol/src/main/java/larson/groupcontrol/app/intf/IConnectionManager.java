@@ -1,6 +1,7 @@
 package larson.groupcontrol.app.intf;
 
 import larson.groupcontrol.app.SocketConfiguration;
+import larson.groupcontrol.app.connection.MessageFuture;
 import larson.groupcontrol.app.filter.MessageFilter;
 import larson.groupcontrol.app.listener.IMessageListener;
 import larson.groupcontrol.app.message.Message;
@@ -142,5 +143,24 @@ public interface IConnectionManager {
      */
     Message sendSyncMessage(Message msgDataBean, MessageFilter filter, long timeout);
 
+    /**
+     * 发送消息，不阻塞调用线程，收到这个请求的回复(sn、messageID相同并且是回复消息)时future完成
+     *
+     * @param msgDataBean 发送的消息
+     * @param timeout     等待超时时间，超时后future以{@link java.util.concurrent.TimeoutException}完成
+     * @return 等待中的回复
+     */
+    MessageFuture sendAsync(Message msgDataBean, long timeout);
+
+    /**
+     * 发送消息，不阻塞调用线程，收到符合指定选择器的消息时future完成
+     *
+     * @param msgDataBean 发送的消息
+     * @param filter      消息选择器，只有符合该选择器的消息才会被返回
+     * @param timeout     等待超时时间，超时后future以{@link java.util.concurrent.TimeoutException}完成
+     * @return 等待中的回复
+     */
+    MessageFuture sendAsync(Message msgDataBean, MessageFilter filter, long timeout);
+
 
 }
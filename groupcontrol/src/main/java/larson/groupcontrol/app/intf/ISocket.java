@@ -1,5 +1,6 @@
 package larson.groupcontrol.app.intf;
 
+import larson.groupcontrol.app.connection.MessageFuture;
 import larson.groupcontrol.app.filter.MessageFilter;
 import larson.groupcontrol.app.listener.IMessageListener;
 import larson.groupcontrol.app.message.Message;
@@ -75,6 +76,28 @@ public interface ISocket {
      */
     Message sendSyncMessage(Message msgDataBean, MessageFilter filter, long timeout);
 
+    /**
+     * Send a message without blocking the calling thread. The returned future completes with the
+     * reply carrying the same sn and message id, or fails when the timeout elapses.
+     * 发送消息但不阻塞调用线程，收到这个请求的回复时future完成，超时则以异常完成；
+     * 可以用{@link MessageFuture#addCallback(MessageFuture.Callback)}处理回复，不需要为每个请求占用一个线程
+     *
+     * @param msgDataBean 需要发送的消息
+     * @param timeout     超时接收时间
+     * @return 等待中的回复
+     */
+    MessageFuture sendAsync(Message msgDataBean, long timeout);
+
+    /**
+     * 发送消息但不阻塞调用线程，收到符合filter的消息时future完成
+     *
+     * @param msgDataBean 需要发送的消息
+     * @param filter      符合接收的消息规则
+     * @param timeout     超时接收时间
+     * @return 等待中的回复
+     */
+    MessageFuture sendAsync(Message msgDataBean, MessageFilter filter, long timeout);
+
     /**
      * Adds a message listener of the specified type, and when it receives a
      * message of the specified type, it will call back the interface.
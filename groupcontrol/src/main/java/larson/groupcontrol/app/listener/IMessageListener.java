@@ -21,8 +21,12 @@ public interface IMessageListener {
     /**
      * Process the next message sent to this message listener.
      * <p>
-     * A single thread is responsible for invoking all listeners, so it's very important that
-     * implementation of this method not block for any extended period of time.
+     * By default a single thread is responsible for invoking all listeners, so it's very important
+     * that implementation of this method not block for any extended period of time.
+     * <p>
+     * 通过{@link larson.groupcontrol.app.connection.ConnectOption.Builder#setListenerThreads(int, int)}
+     * 开启多线程后，同一个设备的消息仍按顺序处理，但不同设备的消息会在不同线程中同时调用同一个监听器，
+     * 实现需要是线程安全的
      *
      * @param msg the message to process
      */
@@ -51,6 +51,10 @@ public abstract class BaseMessageBuilder {
      * 消息体
      */
     protected byte[] body = EMPTY_BODY;
+    /**
+     * 发送优先级，只影响本地写出顺序，不会写到包里
+     */
+    int priority = Message.PRIORITY_AUTO;
 
     BaseMessageBuilder(short messageID) throws Exception {
         this.messageID = messageID;
@@ -91,6 +95,19 @@ public abstract class BaseMessageBuilder {
         return this;
     }
 
+    /**
+     * 设置发送优先级，默认{@link Message#PRIORITY_AUTO}
+     *
+     * @param priority {@link Message#PRIORITY_HIGH}、{@link Message#PRIORITY_NORMAL}或{@link Message#PRIORITY_BULK}
+     */
+    public BaseMessageBuilder setPriority(int priority) {
+        if (priority < Message.PRIORITY_AUTO || priority > Message.PRIORITY_BULK) {
+            throw new IllegalArgumentException("unknown priority: " + priority);
+        }
+        this.priority = priority;
+        return this;
+    }
+
     /**
      * 所有messageBuilder需要复写这个方法以构造对应的message
      *
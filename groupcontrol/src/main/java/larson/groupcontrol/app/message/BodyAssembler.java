@@ -0,0 +1,78 @@
+package larson.groupcontrol.app.message;
+
+import larson.groupcontrol.app.util.Crc16;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 按顺序把长消息各分包的包体直接拷贝进消息体，同时计算crc
+ * <p>
+ * Reassembles the payload of a fragmented message straight into the final body array. Each
+ * fragment's bytes are copied once, from the received buffer into the body, and fed to an
+ * incremental {@link Crc16} from the same slice; the two trailing checksum bytes, which may
+ * straddle the last two fragments, are picked off on the way and never copied into the body.
+ * <p>
+ * Fragments must be appended in order. Not thread safe.
+ */
+class BodyAssembler {
+    private static final int CRC_SIZE = 2;
+
+    private final Crc16 mCrc;
+    private final byte[] mBody;
+    private final int mDataLength;
+    private int mPosition;
+    private int mReceivedCrc;
+
+    /**
+     * @param payloadLength 所有分包包体的总长度，包含末尾的crc
+     * @param crcType       crc校验类型
+     */
+    BodyAssembler(int payloadLength, int crcType) {
+        mCrc = new Crc16(crcType);
+        mDataLength = Math.max(payloadLength - CRC_SIZE, 0);
+        mBody = new byte[mDataLength];
+    }
+
+    /**
+     * 追加下一个分包的包体
+     *
+     * @param src    缓冲区
+     * @param offset 包体在缓冲区中的绝对位置
+     * @param length 包体长度
+     */
+    void append(ByteBuffer src, int offset, int length) {
+        int dataLength = Math.min(length, Math.max(mDataLength - mPosition, 0));
+        if (dataLength > 0) {
+            if (src.hasArray()) {
+                System.arraycopy(src.array(), src.arrayOffset() + offset, mBody, mPosition, dataLength);
+            } else {
+                for (int i = 0; i < dataLength; i++) {
+                    mBody[mPosition + i] = src.get(offset + i);
+                }
+            }
+            mCrc.update(src, offset, dataLength);
+        }
+        for (int i = dataLength; i < length; i++) {
+            int crcIndex = mPosition + i - mDataLength;
+            if (crcIndex >= CRC_SIZE) {
+                throw new IndexOutOfBoundsException("payload longer than declared");
+            }
+            mReceivedCrc |= (src.get(offset + i) & 0xff) << (crcIndex * 8);
+        }
+        mPosition += length;
+    }
+
+    void append(byte[] src, int offset, int length) {
+        append(ByteBuffer.wrap(src), offset, length);
+    }
+
+    /**
+     * @return 消息体，null表示crc验证失败；总长度不足以带crc时是空数组
+     */
+    byte[] getBody() {
+        if (mDataLength == 0) {
+            return mBody;
+        }
+        return mCrc.getValue() == mReceivedCrc ? mBody : null;
+    }
+}
@@ -0,0 +1,88 @@
+package larson.groupcontrol.app.message;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * 按顺序即时编码一个消息的所有包
+ * <p>
+ * Walks the fragments of an outgoing {@link Message} and encodes each one straight into the
+ * caller's buffer only when it is pulled, so sending a large body never holds more than the
+ * fragment being written: the body is neither copied with its CRC appended nor split into
+ * {@link larson.groupcontrol.app.packet.Packet}s up front. The output is byte-for-byte the same as
+ * {@link Message#getPackets()}.
+ * <p>
+ * Not thread safe; each sender keeps its own iterator.
+ */
+public class FragmentIterator {
+    private final Message mMessage;
+    private final int mCount;
+    private int mNext;
+
+    FragmentIterator(Message message) {
+        mMessage = message;
+        mCount = message.getFragmentCount();
+    }
+
+    public Message getMessage() {
+        return mMessage;
+    }
+
+    /**
+     * @return 是否还有没编码的包
+     */
+    public boolean hasNext() {
+        return mNext < mCount;
+    }
+
+    /**
+     * @return 下一个包编码后的字节数，包含包头
+     */
+    public int nextSize() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return mMessage.getFragmentSize(mNext);
+    }
+
+    /**
+     * 把下一个包编码进buffer
+     *
+     * @param buffer 目标缓冲区，从position开始写
+     * @throws BufferOverflowException 剩余空间不足，此时迭代器和buffer都不变
+     */
+    public void encodeNext(ByteBuffer buffer) {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        mMessage.encodeFragment(mNext, buffer);
+        mNext++;
+    }
+
+    /**
+     * 把放得下的完整包依次编码进buffer
+     *
+     * @param buffer 目标缓冲区，从position开始写
+     * @return 这次编码的包数
+     */
+    public int encodeAvailable(ByteBuffer buffer) {
+        int from = mNext;
+        mNext = mMessage.encodeTo(buffer, from);
+        return mNext - from;
+    }
+
+    /**
+     * @return 已经编码的包数
+     */
+    public int getEncodedCount() {
+        return mNext;
+    }
+
+    /**
+     * @return 总包数
+     */
+    public int getCount() {
+        return mCount;
+    }
+}
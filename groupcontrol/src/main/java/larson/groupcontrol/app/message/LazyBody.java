@@ -0,0 +1,170 @@
+package larson.groupcontrol.app.message;
+
+import larson.groupcontrol.app.buffer.CompositeBuffer;
+import larson.groupcontrol.app.buffer.PooledBuffer;
+import larson.groupcontrol.app.exception.UnFormatMessageException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 收到的消息的消息体，交给使用者之前才拷贝和校验crc
+ * <p>
+ * The body of a received message, decoded only when somebody takes the message. Until then it
+ * only refers to the payload slices in the receive buffers: one slice for a short message, one per
+ * fragment, in order, for a long one. Routing only looks at header fields, so a message nobody
+ * wants is never copied or checked.
+ * <p>
+ * The slices are only valid while the router is handling the packet. Before the message reaches
+ * anything that may read or keep it, the router calls {@link #detach()}, which settles the body
+ * once: a short message copies its data bytes into the final body array and checks the CRC in the
+ * same pass, and the result is kept. A long message whose CRC was already checked as the fragments
+ * arrived keeps its fragment buffers instead: they are taken out of the
+ * {@link larson.groupcontrol.app.buffer.BufferPool} and left to the garbage collector, so
+ * {@link #getBuffer()} can expose them as a {@link CompositeBuffer} without copying, and they are
+ * only flattened into one array if {@link #get()} is called.
+ * <p>
+ * A body whose CRC does not match makes {@link #detach()} return false and throws
+ * {@link UnFormatMessageException} from every {@link #get()}. Thread safe.
+ */
+class LazyBody {
+    private static final int CRC_SIZE = 2;
+
+    private final int mCrcType;
+    private final int mPayloadLength;
+    /**
+     * 长消息的分包缓冲区，短消息为null
+     */
+    private PooledBuffer[] mFrames;
+    private final boolean isCrcChecked;
+    private ByteBuffer[] mBuffers;
+    private int[] mOffsets;
+    private int[] mLengths;
+    private CompositeBuffer mComposite;
+    private byte[] mBody;
+    private boolean isDetached;
+    private boolean isCorrupt;
+
+    /**
+     * @param frames       长消息的分包缓冲区，短消息为null
+     * @param buffers      每段包体所在的缓冲区，按分包顺序
+     * @param offsets      每段包体在缓冲区中的绝对位置
+     * @param lengths      每段包体的长度，最后一段末尾是crc
+     * @param crcType      crc校验类型
+     * @param isCrcChecked crc是否已经在分包到达时校验通过
+     */
+    LazyBody(PooledBuffer[] frames, ByteBuffer[] buffers, int[] offsets, int[] lengths, int crcType,
+             boolean isCrcChecked) {
+        mFrames = frames;
+        mBuffers = buffers;
+        mOffsets = offsets;
+        mLengths = lengths;
+        mCrcType = crcType;
+        this.isCrcChecked = isCrcChecked;
+        int payloadLength = 0;
+        for (int length : lengths) {
+            payloadLength += length;
+        }
+        mPayloadLength = payloadLength;
+    }
+
+    /**
+     * @return 消息体的长度，不包含crc
+     */
+    int getLength() {
+        return Math.max(mPayloadLength - CRC_SIZE, 0);
+    }
+
+    /**
+     * 让消息体不再依赖收包线程，同时确定crc是否正确，只做一次：短消息拷贝数据并校验crc，
+     * 组包时已经校验过的长消息把分包缓冲区交给GC管理
+     *
+     * @return false表示crc校验失败
+     */
+    synchronized boolean detach() {
+        if (mBody == null && !isCorrupt && !isDetached) {
+            if (isCrcChecked) {
+                isDetached = true;
+                for (PooledBuffer frame : mFrames) {
+                    frame.unpool();
+                }
+            } else {
+                decode();
+            }
+        }
+        return !isCorrupt;
+    }
+
+    /**
+     * @return 消息体
+     * @throws UnFormatMessageException crc校验失败
+     */
+    synchronized byte[] get() {
+        if (mBody == null && !isCorrupt) {
+            if (isCrcChecked) {
+                mBody = (mComposite != null ? mComposite : newComposite()).toByteArray();
+                clearSlices();
+            } else {
+                decode();
+            }
+        }
+        if (isCorrupt) {
+            throw new UnFormatMessageException("data bytes crc16 check failure!");
+        }
+        return mBody;
+    }
+
+    /**
+     * @return 消息体的只读视图；crc已经校验过的长消息直接引用各分包，其他情况包装{@link #get()}的结果
+     * @throws UnFormatMessageException crc校验失败
+     */
+    synchronized CompositeBuffer getBuffer() {
+        if (mComposite == null) {
+            if (mBody != null || !isCrcChecked) {
+                return CompositeBuffer.wrap(get());
+            }
+            //视图可能比收包线程对分包的引用活得更久
+            detach();
+            mComposite = newComposite();
+        }
+        return mComposite;
+    }
+
+    /**
+     * @return 是否已经校验并取出了消息体
+     */
+    synchronized boolean isDecoded() {
+        return mBody != null;
+    }
+
+    private CompositeBuffer newComposite() {
+        int count = mBuffers.length;
+        byte[][] arrays = new byte[count][];
+        int[] offsets = new int[count];
+        int[] lengths = new int[count];
+        int remaining = getLength();
+        for (int i = 0; i < count; i++) {
+            arrays[i] = mBuffers[i].array();
+            offsets[i] = mBuffers[i].arrayOffset() + mOffsets[i];
+            lengths[i] = Math.min(mLengths[i], remaining);
+            remaining -= lengths[i];
+        }
+        return new CompositeBuffer(arrays, offsets, lengths);
+    }
+
+    private void decode() {
+        BodyAssembler assembler = new BodyAssembler(mPayloadLength, mCrcType);
+        for (int i = 0; i < mBuffers.length; i++) {
+            assembler.append(mBuffers[i], mOffsets[i], mLengths[i]);
+        }
+        clearSlices();
+        mBody = assembler.getBody();
+        isCorrupt = mBody == null;
+    }
+
+    private void clearSlices() {
+        mFrames = null;
+        mBuffers = null;
+        mOffsets = null;
+        mLengths = null;
+    }
+}
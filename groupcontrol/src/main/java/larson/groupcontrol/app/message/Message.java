@@ -1,14 +1,19 @@
 package larson.groupcontrol.app.message;
 
+import larson.groupcontrol.app.buffer.CompositeBuffer;
+import larson.groupcontrol.app.buffer.PooledBuffer;
 import larson.groupcontrol.app.exception.UnFormatMessageException;
 import larson.groupcontrol.app.message.intf.IMessage;
 import larson.groupcontrol.app.packet.Packet;
 import larson.groupcontrol.app.packet.PacketHeader;
-import larson.groupcontrol.app.util.ArrayUtils;
+import larson.groupcontrol.app.packet.PacketHeaderView;
+import larson.groupcontrol.app.packet.PacketView;
 import larson.groupcontrol.app.util.CrcUtils;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
-import java.util.List;
 
 /**
  * * Base class for GroupControl messages.
@@ -23,17 +28,42 @@ public class Message implements IMessage {
     public static final byte MSG_TYPE_ACK = PacketHeader.TYPE_ACK;
     public static final byte MSG_TYPE_HEART = PacketHeader.TYPE_HEART;
     public static final byte MSG_TYPE_DATA = PacketHeader.TYPE_DATA;
+    /**
+     * 发送优先级：由写线程按消息大小和类型决定，分包的大消息走批量，控制、心跳和触控输入消息走高优先级
+     */
+    public static final int PRIORITY_AUTO = -1;
+    /**
+     * 发送优先级：控制和输入消息，尽快发送
+     */
+    public static final int PRIORITY_HIGH = 0;
+    /**
+     * 发送优先级：普通消息
+     */
+    public static final int PRIORITY_NORMAL = 1;
+    /**
+     * 发送优先级：大块数据，和其他优先级的消息按包交错发送
+     */
+    public static final int PRIORITY_BULK = 2;
 
-    private static final int MSG_CRC_TYPE = CrcUtils.CRC16_CCITT;
+    static final int MSG_CRC_TYPE = CrcUtils.CRC16_CCITT;
     private static final int MSG_SHORT_HEADER_SIZE = 4;
     private static final int MSG_LONG_HEADER_SIZE = 8;
     private static final short MSG_SHORT_MAX_SIZE = Packet.MAX_SIZE - MSG_SHORT_HEADER_SIZE;
     private static final short MSG_LONG_MAX_SIZE = Packet.MAX_SIZE - MSG_LONG_HEADER_SIZE;
+    private static final int CRC_SIZE = 2;
+    private static final short LARGE_MASK = (short) 0x8000;
+    private static final short ACK_MASK = (short) 0x4000;
+    private static final short RESPONSE_MASK = (short) 0x2000;
+    private static final short MSG_ID_MASK = (short) 0x1FFF;
 
 
     private final short msgId;
     private final boolean isLongMsg;
     private final byte[] body;
+    /**
+     * 收到的消息的消息体，第一次读取时才拷贝和校验，null表示body就是消息体
+     */
+    private final LazyBody lazyBody;
     private final boolean isAckRequire;
     private final byte type;
     private final boolean isResponse;
@@ -46,48 +76,203 @@ public class Message implements IMessage {
      * SocketID
      */
     private final short vid;
+    /**
+     * 发送优先级，见{@link #PRIORITY_AUTO}
+     */
+    private final int priority;
+    /**
+     * 编码用的值，构造时计算：带crc的payload长度、包数和crc，和{@link #getPackets()}中的分包规则一致，
+     * 空消息体不带crc，带crc的payload超过一个短包时按{@link #MSG_LONG_MAX_SIZE}分包。
+     * 收到的消息构造时还没有拷贝消息体，crc为0，编码时才计算
+     */
+    private final int mPayloadLength;
+    private final int mFragmentCount;
+    private final int mCrc;
 
     protected Message(Builder builder) {
         this.msgId = builder.messageID;
-        this.isLongMsg = builder.body.length > MSG_SHORT_MAX_SIZE;
-        this.body = builder.body;
+        this.lazyBody = builder.lazyBody;
+        this.body = lazyBody == null ? builder.body : null;
+        int bodyLength = lazyBody == null ? body.length : lazyBody.getLength();
+        this.isLongMsg = bodyLength > MSG_SHORT_MAX_SIZE;
         this.isAckRequire = builder.isAck;
         this.type = builder.type;
         this.isResponse = builder.isResponse;
         this.sn = builder.sn;
         this.pid = builder.pid;
         this.vid = builder.vid;
+        this.priority = builder.priority;
+        this.mPayloadLength = bodyLength == 0 ? 0 : bodyLength + CRC_SIZE;
+        this.mFragmentCount = mPayloadLength > MSG_SHORT_MAX_SIZE
+                ? (mPayloadLength + MSG_LONG_MAX_SIZE - 1) / MSG_LONG_MAX_SIZE : 1;
+        this.mCrc = body == null || body.length == 0 ? 0 : CrcUtils.crc16Ccitt(MSG_CRC_TYPE, body);
     }
 
+    /**
+     * 一次生成所有包，每个包的payload直接从body中拷贝，不再先拼出整个带crc的payload。
+     * 发送大消息时应该用{@link #fragments()}按需编码，内存中只有一个包
+     */
     @Override
     public Packet[] getPackets() {
-        byte[] payload = CrcUtils.getCrc16Bytes(body, MSG_CRC_TYPE);
-        if (payload.length > MSG_SHORT_MAX_SIZE) {
-            List<byte[]> payloads = ArrayUtils.divide(payload, MSG_LONG_MAX_SIZE);
-            Packet[] packets = new Packet[payloads.size()];
-            for (short i = 0; i < payloads.size(); i++) {
-                packets[i] = new Packet.Builder(type, pid, vid, (short) (payloads.get(i).length + MSG_LONG_HEADER_SIZE))
-                        .setLongMsg(isLongMsg)
-                        .setAckMsg(isAckRequire)
-                        .setResponseMsg(isResponse)
-                        .setSn(sn)
-                        .setMsgId(msgId)
-                        .setSubCount((short) payloads.size())
-                        .setSubIndex((short) (i + 1))
-                        .setBody(payloads.get(i))
-                        .build();
+        int count = getFragmentCount();
+        boolean isFragmented = getHeaderSize() == MSG_LONG_HEADER_SIZE;
+        Packet[] packets = new Packet[count];
+        for (int i = 0; i < count; i++) {
+            byte[] payload = new byte[getFragmentPayloadLength(i)];
+            putFragmentPayload(i, ByteBuffer.wrap(payload));
+            Packet.Builder builder = new Packet.Builder(type, pid, vid, (short) (payload.length + getHeaderSize()))
+                    .setLongMsg(isFragmented)
+                    .setAckMsg(isAckRequire)
+                    .setResponseMsg(isResponse)
+                    .setMsgId(msgId)
+                    .setSn(sn)
+                    .setBody(payload);
+            if (isFragmented) {
+                builder.setSubCount((short) count).setSubIndex((short) (i + 1));
             }
-            return packets;
+            packets[i] = builder.build();
+        }
+        return packets;
+    }
+
+    /**
+     * @return 按包顺序即时编码的迭代器，每次只编码一个包
+     */
+    public FragmentIterator fragments() {
+        return new FragmentIterator(this);
+    }
+
+    /**
+     * @return 编码后的包数，和{@link #getPackets()}的长度相同
+     */
+    public int getFragmentCount() {
+        return mFragmentCount;
+    }
+
+    /**
+     * @param index 包序号，从0开始
+     * @return 第index个包编码后的字节数，包含包头
+     */
+    public int getFragmentSize(int index) {
+        return PacketHeader.SIZE + getHeaderSize() + getFragmentPayloadLength(index);
+    }
+
+    /**
+     * @return 所有包编码后的总字节数
+     */
+    public int getEncodedSize() {
+        int count = getFragmentCount();
+        return count * (PacketHeader.SIZE + getHeaderSize()) + mPayloadLength;
+    }
+
+    /**
+     * 把整个消息编码进buffer，结果和{@link #getPackets()}逐个{@link Packet#getBytes()}拼起来逐字节相同，
+     * 不创建任何中间对象
+     *
+     * @param buffer 目标缓冲区，从position开始写，剩余空间至少要有{@link #getEncodedSize()}
+     * @throws BufferOverflowException 剩余空间不足，此时buffer不变
+     */
+    public void encodeTo(ByteBuffer buffer) {
+        if (buffer.remaining() < getEncodedSize()) {
+            throw new BufferOverflowException();
+        }
+        encodeTo(buffer, 0);
+    }
+
+    /**
+     * 从第from个包开始，把剩余空间放得下的完整包依次编码进buffer，用于分批写出大消息
+     *
+     * @param buffer 目标缓冲区，从position开始写
+     * @param from   第一个要编码的包序号
+     * @return 下一个还没有编码的包序号，等于{@link #getFragmentCount()}表示全部编码完成
+     */
+    public int encodeTo(ByteBuffer buffer, int from) {
+        int count = getFragmentCount();
+        int index = from;
+        while (index < count && buffer.remaining() >= getFragmentSize(index)) {
+            encodeFragment(index, buffer);
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * 把第index个包编码进buffer
+     *
+     * @param index  包序号，从0开始
+     * @param buffer 目标缓冲区，从position开始写
+     * @throws BufferOverflowException 剩余空间不足
+     */
+    public void encodeFragment(int index, ByteBuffer buffer) {
+        int payloadLength = getFragmentPayloadLength(index);
+        int headerSize = getHeaderSize();
+        if (buffer.remaining() < PacketHeader.SIZE + headerSize + payloadLength) {
+            throw new BufferOverflowException();
+        }
+        boolean isFragmented = headerSize == MSG_LONG_HEADER_SIZE;
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putShort((short) (((type & PacketHeader.TYPE_MASK) << 12) | PacketHeader.DEFAULT_MAGIC));
+        buffer.putShort(pid);
+        buffer.putShort(vid);
+        buffer.putShort((short) (payloadLength + headerSize));
+        buffer.putShort(getFullMsgId(isFragmented));
+        buffer.putShort(sn);
+        if (isFragmented) {
+            buffer.putShort((short) mFragmentCount);
+            buffer.putShort((short) (index + 1));
+        }
+        putFragmentPayload(index, buffer);
+        buffer.order(order);
+    }
+
+    /**
+     * 写入第index个包的payload：body中对应的一段，最后一个包末尾是crc，低字节在前
+     */
+    private void putFragmentPayload(int index, ByteBuffer buffer) {
+        byte[] body = getBody();
+        int start = index * MSG_LONG_MAX_SIZE;
+        int end = start + getFragmentPayloadLength(index);
+        int bodyEnd = Math.min(end, body.length);
+        if (bodyEnd > start) {
+            buffer.put(body, start, bodyEnd - start);
+        }
+        if (end <= body.length) {
+            return;
+        }
+        int crc = lazyBody == null ? mCrc : CrcUtils.crc16Ccitt(MSG_CRC_TYPE, body);
+        for (int i = Math.max(start, body.length); i < end; i++) {
+            buffer.put((byte) (i == body.length ? crc & 0xff : (crc >> 8) & 0xff));
+        }
+    }
+
+    private int getHeaderSize() {
+        return mPayloadLength > MSG_SHORT_MAX_SIZE ? MSG_LONG_HEADER_SIZE : MSG_SHORT_HEADER_SIZE;
+    }
+
+    private int getFragmentPayloadLength(int index) {
+        int count = getFragmentCount();
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("fragment " + index + " of " + count);
+        }
+        if (count == 1) {
+            return mPayloadLength;
+        }
+        return Math.min(MSG_LONG_MAX_SIZE, mPayloadLength - index * MSG_LONG_MAX_SIZE);
+    }
+
+    private short getFullMsgId(boolean isFragmented) {
+        short id = (short) (msgId & MSG_ID_MASK);
+        if (isFragmented) {
+            id |= LARGE_MASK;
+        }
+        if (isAckRequire) {
+            id |= ACK_MASK;
+        }
+        if (isResponse) {
+            id |= RESPONSE_MASK;
         }
-        Packet packet = new Packet.Builder(type, pid, vid, (short) (payload.length + MSG_SHORT_HEADER_SIZE))
-                .setLongMsg(isLongMsg)
-                .setAckMsg(isAckRequire)
-                .setResponseMsg(isResponse)
-                .setMsgId(msgId)
-                .setSn(sn)
-                .setBody(payload)
-                .build();
-        return new Packet[]{packet};
+        return id;
     }
 
 
@@ -101,9 +286,35 @@ public class Message implements IMessage {
         return isLongMsg;
     }
 
+    /**
+     * 收到的消息在{@link #detach()}或者第一次调用时才拷贝消息体并校验crc
+     *
+     * @throws UnFormatMessageException 收到的消息crc校验失败
+     */
     @Override
     public byte[] getBody() {
-        return body;
+        return lazyBody == null ? body : lazyBody.get();
+    }
+
+    /**
+     * 消息体的只读视图。收到的长消息如果组包时已经校验过crc，直接引用各分包的缓冲区，不拷贝；
+     * 需要byte[]时才调用{@link #getBody()}，那时才拼成一个数组
+     *
+     * @throws UnFormatMessageException 收到的消息crc校验失败
+     */
+    public CompositeBuffer getBodyBuffer() {
+        return lazyBody == null ? CompositeBuffer.wrap(body) : lazyBody.getBuffer();
+    }
+
+    /**
+     * 让收到的消息不再引用收包缓冲区，同时校验crc：把还没有读取的消息体拷贝出来并校验，结果只计算一次。
+     * 消息交给任何可能读取消息体或者在收包之后还要保留它的地方之前，必须在缓冲区复用之前调用，
+     * 返回false的消息不能交出去；发送的消息和已经拷贝过的消息什么都不做
+     *
+     * @return false表示收到的消息crc校验失败
+     */
+    public boolean detach() {
+        return lazyBody == null || lazyBody.detach();
     }
 
     @Override
@@ -131,12 +342,27 @@ public class Message implements IMessage {
         return vid;
     }
 
+    /**
+     * @return 消息流水号，回复消息和被回复的消息流水号相同
+     */
+    public short getSn() {
+        return sn;
+    }
+
+    /**
+     * @return 发送优先级，{@link #PRIORITY_AUTO}表示由写线程决定
+     */
+    public int getPriority() {
+        return priority;
+    }
+
     @Override
     public String toString() {
         return "Message{" +
                 "msgId=" + getMsgId() +
                 ", isLongMsg=" + isLongMsg() +
-                ", body=" + Arrays.toString(body) +
+                ", body=" + (lazyBody == null || lazyBody.isDecoded()
+                ? Arrays.toString(getBody()) : lazyBody.getLength() + " bytes") +
                 ", isAckRequire=" + isAckRequire() +
                 ", type=" + getType() +
                 ", isResponse=" + isResponse() +
@@ -147,6 +373,8 @@ public class Message implements IMessage {
     }
 
     public static class Builder extends BaseMessageBuilder {
+        private LazyBody lazyBody;
+
         /**
          * 用于发送时的消息构造
          *
@@ -178,31 +406,117 @@ public class Message implements IMessage {
                 }
                 parsePacket(packet);
             } else {
-                byte[] bytes = new byte[packets.length * MSG_LONG_MAX_SIZE];
-                int msgSize = 0;
                 if (packets.length != packet.getSubCount()) {
                     throw new UnFormatMessageException("Not full packets!");
                 }
-
+                Packet[] ordered = new Packet[packets.length];
+                int msgSize = 0;
                 for (Packet pkt : packets) {
-                    int start = (pkt.getSubIndex() - 1) * MSG_LONG_MAX_SIZE;
-                    int size = pkt.getBody().length;
-                    //获取第一个包
-                    if (pkt.getSubIndex() == 1) {
-                        parsePacket(packet);
-                    }
-                    System.arraycopy(pkt.getBody(), 0, bytes, start, size);
-                    msgSize += size;
+                    putInOrder(ordered, pkt, pkt.getSubIndex());
+                    msgSize += pkt.getBody().length;
                 }
+                parsePacket(ordered[0]);
+                BodyAssembler assembler = new BodyAssembler(msgSize, MSG_CRC_TYPE);
+                for (Packet pkt : ordered) {
+                    assembler.append(pkt.getBody(), 0, pkt.getBody().length);
+                }
+                setAssembledBody(assembler);
+            }
+        }
 
-                byte[] data = new byte[msgSize];
-                System.arraycopy(bytes, 0, data, 0, msgSize);
-                byte[] dataBytes = CrcUtils.getDataBytes(data, MSG_CRC_TYPE);
-                if (dataBytes == null) {
-                    throw new UnFormatMessageException("data bytes crc16 check failure!");
+        /**
+         * 用于解析收到的长消息，每一个缓冲区保存一个完整的分包（包含包头）。
+         * 消息体直接引用这些缓冲区，第一次{@link Message#getBody()}时才拷贝和校验crc，
+         * 缓冲区释放之前要调用{@link Message#detach()}
+         *
+         * @param frames 收到的所有分包
+         */
+        public Builder(PooledBuffer[] frames) {
+            this(frames, false);
+        }
+
+        /**
+         * 用于解析组包器交来的长消息，见{@link #Builder(PooledBuffer[])}
+         *
+         * @param frames       收到的所有分包
+         * @param isCrcChecked crc是否已经由{@link PayloadChecker}在分包到达时校验通过，
+         *                     是时不再计算，消息体可以不拷贝地通过{@link Message#getBodyBuffer()}读取
+         */
+        public Builder(PooledBuffer[] frames, boolean isCrcChecked) {
+            super();
+            PacketView view = new PacketView();
+            view.wrap(frames[0].buffer(), 0, frames[0].length());
+            if (frames.length != view.getSubCount()) {
+                throw new UnFormatMessageException("Not full packets!");
+            }
+            PooledBuffer[] ordered = new PooledBuffer[frames.length];
+            for (PooledBuffer frame : frames) {
+                view.wrap(frame.buffer(), 0, frame.length());
+                putInOrder(ordered, frame, view.getSubIndex());
+            }
+            ByteBuffer[] buffers = new ByteBuffer[ordered.length];
+            int[] offsets = new int[ordered.length];
+            int[] lengths = new int[ordered.length];
+            for (int i = 0; i < ordered.length; i++) {
+                view.wrap(ordered[i].buffer(), 0, ordered[i].length());
+                if (i == 0) {
+                    parseHeader(view);
                 }
-                this.body = dataBytes;
+                buffers[i] = view.getBuffer();
+                offsets[i] = view.getBodyOffset();
+                lengths[i] = view.getBodyLength();
+            }
+            this.lazyBody = new LazyBody(ordered, buffers, offsets, lengths, MSG_CRC_TYPE, isCrcChecked);
+        }
+
+        /**
+         * 按分包序号放到对应位置，序号越界或重复时抛出异常
+         */
+        private static <T> void putInOrder(T[] ordered, T fragment, int subIndex) {
+            if (subIndex < 1 || subIndex > ordered.length || ordered[subIndex - 1] != null) {
+                throw new UnFormatMessageException("bad sub index: " + subIndex);
             }
+            ordered[subIndex - 1] = fragment;
+        }
+
+        /**
+         * 校验组好的长消息并取出消息体
+         *
+         * @param assembler 已经追加了所有分包的组包器
+         */
+        private void setAssembledBody(BodyAssembler assembler) {
+            byte[] dataBytes = assembler.getBody();
+            if (dataBytes == null) {
+                throw new UnFormatMessageException("data bytes crc16 check failure!");
+            }
+            this.body = dataBytes;
+        }
+
+        /**
+         * 用于解析收到的短消息，直接从包视图中读取字段。消息体直接引用包所在的缓冲区，
+         * 第一次{@link Message#getBody()}时才拷贝和校验crc，缓冲区复用之前要调用{@link Message#detach()}
+         *
+         * @param view 收到的包，不能是长消息的分包
+         */
+        public Builder(PacketView view) {
+            super();
+            if (view.isLargeMsg()) {
+                throw new UnFormatMessageException("Only one packet, but packet is large msg!");
+            }
+            parseHeader(view);
+            this.lazyBody = new LazyBody(null, new ByteBuffer[]{view.getBuffer()}, new int[]{view.getBodyOffset()},
+                    new int[]{view.getBodyLength()}, MSG_CRC_TYPE, false);
+        }
+
+        private void parseHeader(PacketView view) {
+            PacketHeaderView header = view.getPacketHeader();
+            this.messageID = view.getMsgId();
+            this.isAck = view.isAckMsg();
+            this.isResponse = view.isResponseMsg();
+            this.type = header.getType();
+            this.pid = header.getPid();
+            this.vid = header.getVid();
+            this.sn = view.getSn();
         }
 
         /**
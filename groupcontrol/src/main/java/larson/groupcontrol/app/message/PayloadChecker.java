@@ -0,0 +1,110 @@
+package larson.groupcontrol.app.message;
+
+import larson.groupcontrol.app.util.Crc16;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 长消息的crc随分包到达逐段计算，收齐时就知道校验结果
+ * <p>
+ * Checks the CRC of a fragmented message while it is being reassembled. Fragments may arrive in
+ * any order; each one is fed to an incremental {@link Crc16} as soon as every fragment before it
+ * has been fed, so with in-order arrival the checksum is done when the last fragment lands and
+ * nothing has to be read again. The last two bytes of the payload are the received checksum and
+ * may straddle the last two fragments, so the two most recent bytes are always held back until
+ * more data arrives.
+ * <p>
+ * The slices passed to {@link #add(int, ByteBuffer, int, int)} are read later when they arrive
+ * ahead of a gap, so they must stay unchanged until the message is complete. Not thread safe.
+ */
+public final class PayloadChecker {
+    private static final int CRC_SIZE = 2;
+
+    private final Crc16 mCrc = new Crc16(Message.MSG_CRC_TYPE);
+    private final ByteBuffer[] mBuffers;
+    private final int[] mOffsets;
+    private final int[] mLengths;
+    /**
+     * 下一个要计入crc的分包序号，从0开始
+     */
+    private int mNext;
+    private int mPayloadLength;
+    /**
+     * 最近的两个字节，在确定不是末尾的crc之前不计入
+     */
+    private final byte[] mTail = new byte[CRC_SIZE];
+    private int mTailCount;
+
+    /**
+     * @param fragmentCount 分包数
+     */
+    public PayloadChecker(int fragmentCount) {
+        mBuffers = new ByteBuffer[fragmentCount];
+        mOffsets = new int[fragmentCount];
+        mLengths = new int[fragmentCount];
+    }
+
+    /**
+     * 放入一个分包的包体，序号连续的分包立即计入crc
+     *
+     * @param subIndex 分包序号，从1开始
+     * @param buffer   包体所在的缓冲区
+     * @param offset   包体在缓冲区中的绝对位置
+     * @param length   包体长度
+     */
+    public void add(int subIndex, ByteBuffer buffer, int offset, int length) {
+        if (subIndex < 1 || subIndex > mBuffers.length || mBuffers[subIndex - 1] != null) {
+            throw new IllegalArgumentException("bad sub index: " + subIndex);
+        }
+        mBuffers[subIndex - 1] = buffer;
+        mOffsets[subIndex - 1] = offset;
+        mLengths[subIndex - 1] = length;
+        while (mNext < mBuffers.length && mBuffers[mNext] != null) {
+            update(mBuffers[mNext], mOffsets[mNext], mLengths[mNext]);
+            mBuffers[mNext] = null;
+            mNext++;
+        }
+    }
+
+    /**
+     * @return 是否所有分包都已经计入
+     */
+    public boolean isComplete() {
+        return mNext == mBuffers.length;
+    }
+
+    /**
+     * @return crc是否正确；总长度不足以带crc时总是true
+     * @throws IllegalStateException 还没有收齐
+     */
+    public boolean isValid() {
+        if (!isComplete()) {
+            throw new IllegalStateException("received " + mNext + " of " + mBuffers.length);
+        }
+        if (mPayloadLength <= CRC_SIZE) {
+            return true;
+        }
+        int received = (mTail[0] & 0xff) | (mTail[1] & 0xff) << 8;
+        return mCrc.getValue() == received;
+    }
+
+    private void update(ByteBuffer buffer, int offset, int length) {
+        mPayloadLength += length;
+        if (length >= CRC_SIZE) {
+            mCrc.update(mTail, 0, mTailCount);
+            mCrc.update(buffer, offset, length - CRC_SIZE);
+            mTail[0] = buffer.get(offset + length - 2);
+            mTail[1] = buffer.get(offset + length - 1);
+            mTailCount = CRC_SIZE;
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            if (mTailCount == CRC_SIZE) {
+                mCrc.update(mTail, 0, 1);
+                mTail[0] = mTail[1];
+                mTailCount--;
+            }
+            mTail[mTailCount++] = buffer.get(offset + i);
+        }
+    }
+}
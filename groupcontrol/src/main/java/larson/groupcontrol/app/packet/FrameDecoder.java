@@ -0,0 +1,201 @@
+package larson.groupcontrol.app.packet;
+
+import larson.groupcontrol.app.util.LogUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * 帧解码器，socket数据直接读入一块复用的缓冲区，完整的包以偏移量+长度的形式交给上层，不做任何拷贝
+ * <p>
+ * Decodes packets in place. Bytes are read straight from the stream into one reusable buffer and
+ * every complete frame is handed out as an offset/length view of that buffer, so decoding in the
+ * steady state neither allocates nor copies. The only copy left is the compaction of a trailing
+ * partial frame (at most {@link #MAX_FRAME_SIZE} bytes) when the free space at the end of the
+ * buffer runs out.
+ * <p>
+ * A header with a wrong magic or an impossible size starts a resync: {@link MagicScanner} skips to
+ * the next plausible header in one pass, and the event is counted in {@link #getResyncCount()}
+ * instead of being logged byte by byte.
+ * <p>
+ * The view passed to {@link OnFrameListener#onFrame(ByteBuffer, int, int)} is only valid during
+ * the callback, it is overwritten by the next read.
+ * <p>
+ * Not thread-safe, the decoder is meant to be owned by the reading thread.
+ */
+public class FrameDecoder {
+    /**
+     * 一个完整包（包头+包体）的最大长度
+     */
+    public static final int MAX_FRAME_SIZE = Packet.MAX_SIZE + PacketHeader.SIZE;
+    /**
+     * 默认缓冲区大小
+     */
+    public static final int DEFAULT_CAPACITY = 4 * MAX_FRAME_SIZE;
+
+    private final byte[] mArray;
+    private final ByteBuffer mBuffer;
+    /**
+     * 从channel读取时使用的视图，和mBuffer共享同一个数组
+     */
+    private final ByteBuffer mChannelBuffer;
+    /**
+     * 未解码数据的起始位置
+     */
+    private int mReadIndex;
+    /**
+     * 有效数据的结束位置，下一次读取从这里开始
+     */
+    private int mWriteIndex;
+    /**
+     * 是否正在跳过错误数据
+     */
+    private boolean isResyncing;
+    /**
+     * 本次重新查找包头跳过的字节数
+     */
+    private int mResyncSkipped;
+    private volatile long mResyncCount;
+    private volatile long mSkippedBytes;
+
+    public FrameDecoder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity 缓冲区大小，至少要能放下两个最大包
+     */
+    public FrameDecoder(int capacity) {
+        if (capacity < 2 * MAX_FRAME_SIZE) {
+            throw new IllegalArgumentException("capacity must hold at least two frames: " + capacity);
+        }
+        mArray = new byte[capacity];
+        mBuffer = ByteBuffer.wrap(mArray).order(ByteOrder.LITTLE_ENDIAN);
+        mChannelBuffer = ByteBuffer.wrap(mArray);
+    }
+
+    /**
+     * 从输入流读取数据到缓冲区尾部，剩余空间不足一个最大包时先把未解码的数据移到缓冲区头部
+     *
+     * @param in 输入流
+     * @return 读取的字节数，-1表示流已结束
+     * @throws IOException 读取异常
+     */
+    public int readFrom(InputStream in) throws IOException {
+        ensureWritable();
+        int num = in.read(mArray, mWriteIndex, mArray.length - mWriteIndex);
+        if (num > 0) {
+            mWriteIndex += num;
+        }
+        return num;
+    }
+
+    /**
+     * 从channel读取数据到缓冲区尾部，非阻塞channel没有数据时返回0
+     *
+     * @param channel 输入channel
+     * @return 读取的字节数，-1表示流已结束
+     * @throws IOException 读取异常
+     */
+    public int readFrom(ReadableByteChannel channel) throws IOException {
+        ensureWritable();
+        mChannelBuffer.limit(mArray.length).position(mWriteIndex);
+        int num = channel.read(mChannelBuffer);
+        if (num > 0) {
+            mWriteIndex += num;
+        }
+        return num;
+    }
+
+    /**
+     * 解析缓冲区中所有完整的包，每一个包回调一次，不完整的包留在缓冲区等待下一次读取
+     *
+     * @param listener 包回调
+     */
+    public void decode(OnFrameListener listener) {
+        while (mWriteIndex - mReadIndex >= PacketHeader.SIZE) {
+            int index = mReadIndex;
+            if (!MagicScanner.isHeader(mBuffer, index, mWriteIndex)) {
+                //包头错误，一次跳过所有不可能是包头的数据
+                int next = MagicScanner.scan(mBuffer, index + 1, mWriteIndex);
+                if (!isResyncing) {
+                    isResyncing = true;
+                    mResyncSkipped = 0;
+                    mResyncCount++;
+                }
+                mResyncSkipped += next - index;
+                mSkippedBytes += next - index;
+                mReadIndex = next;
+                continue;
+            }
+            if (isResyncing) {
+                isResyncing = false;
+                LogUtils.w("Error package, resync at index:" + index + ", skipped bytes:" + mResyncSkipped);
+            }
+            int frameSize = mBuffer.getShort(index + 6) + PacketHeader.SIZE;
+            if (mWriteIndex - index < frameSize) {
+                //保存非完整数据,已经有包头
+                break;
+            }
+            mReadIndex += frameSize;
+            listener.onFrame(mBuffer, index, frameSize);
+        }
+        if (mReadIndex == mWriteIndex) {
+            mReadIndex = 0;
+            mWriteIndex = 0;
+        }
+    }
+
+    /**
+     * @return 因包头错误而重新查找包头的次数，一段连续的错误数据只算一次
+     */
+    public long getResyncCount() {
+        return mResyncCount;
+    }
+
+    /**
+     * @return 因包头错误而丢弃的字节总数
+     */
+    public long getSkippedBytes() {
+        return mSkippedBytes;
+    }
+
+    /**
+     * @return 缓冲区中还未解码的字节数
+     */
+    public int available() {
+        return mWriteIndex - mReadIndex;
+    }
+
+    /**
+     * 丢弃缓冲区中所有数据
+     */
+    public void clear() {
+        mReadIndex = 0;
+        mWriteIndex = 0;
+    }
+
+    private void ensureWritable() {
+        if (mArray.length - mWriteIndex >= MAX_FRAME_SIZE) {
+            return;
+        }
+        int remaining = mWriteIndex - mReadIndex;
+        System.arraycopy(mArray, mReadIndex, mArray, 0, remaining);
+        mReadIndex = 0;
+        mWriteIndex = remaining;
+    }
+
+    public interface OnFrameListener {
+        /**
+         * 收到一个完整的包
+         *
+         * @param buffer 解码器的缓冲区，只在回调期间有效
+         * @param offset 包在缓冲区中的起始位置
+         * @param length 包长度，包含包头
+         */
+        void onFrame(ByteBuffer buffer, int offset, int length);
+    }
+}
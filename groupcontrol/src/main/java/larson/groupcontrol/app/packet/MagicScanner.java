@@ -0,0 +1,93 @@
+package larson.groupcontrol.app.packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 数据错乱时用来重新找到包头的扫描器，一次比较8个字节，不创建任何对象
+ * <p>
+ * Finds the next plausible packet header in a corrupted stream. The low byte of the 12-bit magic
+ * is searched a word (8 bytes) at a time with the classic "has zero byte" trick, and only the
+ * positions it flags are checked as headers. Header checks read straight from the buffer.
+ * <p>
+ * A plausible header has the magic and a size that holds at least the message header: 4 bytes,
+ * or 8 when the msgId, which follows the packet header, has the large-message bit. Anything
+ * smaller would make the body length negative further up.
+ * <p>
+ * The buffer must be little-endian, as written by {@link FrameDecoder}.
+ */
+public final class MagicScanner {
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+    /**
+     * magic低8位重复8次，用于一次比较8个字节
+     */
+    private static final long MAGIC_LOW_PATTERN = (PacketHeader.DEFAULT_MAGIC & 0xFF) * ONES;
+    private static final int MSG_SHORT_HEADER_SIZE = 4;
+    private static final int MSG_LONG_HEADER_SIZE = 8;
+    private static final int LARGE_MASK = 0x8000;
+
+    private MagicScanner() {
+    }
+
+    /**
+     * 检查index处是否是一个合法的包头：magic正确，包长度不超过上限并且至少能放下短消息头
+     *
+     * @param buffer 小字节序的缓冲区
+     * @param index  包头起始位置，后面至少要有{@link PacketHeader#SIZE}个字节
+     * @return 是否是合法包头
+     */
+    public static boolean isHeader(ByteBuffer buffer, int index) {
+        if ((buffer.getShort(index) & PacketHeader.MAGIC_MASK) != PacketHeader.DEFAULT_MAGIC) {
+            return false;
+        }
+        int paddingSize = buffer.getShort(index + 6);
+        return paddingSize >= MSG_SHORT_HEADER_SIZE && paddingSize <= Packet.MAX_SIZE;
+    }
+
+    /**
+     * 在{@link #isHeader(ByteBuffer, int)}的基础上，msgId已经收到时检查长消息的包长度能放下长消息头
+     *
+     * @param buffer 小字节序的缓冲区
+     * @param index  包头起始位置，后面至少要有{@link PacketHeader#SIZE}个字节
+     * @param to     有效数据的结束位置
+     * @return 是否是合法包头；msgId还没收到时只按包头判断
+     */
+    public static boolean isHeader(ByteBuffer buffer, int index, int to) {
+        if (!isHeader(buffer, index)) {
+            return false;
+        }
+        if (buffer.getShort(index + 6) >= MSG_LONG_HEADER_SIZE || to - index < PacketHeader.SIZE + 2) {
+            return true;
+        }
+        return (buffer.getShort(index + PacketHeader.SIZE) & LARGE_MASK) == 0;
+    }
+
+    /**
+     * 从from开始查找下一个合法包头
+     *
+     * @param buffer 小字节序的缓冲区
+     * @param from   开始查找的位置
+     * @param to     有效数据的结束位置
+     * @return 下一个合法包头的位置；找不到时返回第一个剩余数据不足一个包头、无法判断的位置
+     */
+    public static int scan(ByteBuffer buffer, int from, int to) {
+        int last = to - PacketHeader.SIZE;
+        int index = from;
+        while (index <= last) {
+            long word = buffer.getLong(index) ^ MAGIC_LOW_PATTERN;
+            long hits = (word - ONES) & ~word & HIGHS;
+            while (hits != 0) {
+                int candidate = index + (Long.numberOfTrailingZeros(hits) >>> 3);
+                if (candidate > last) {
+                    return candidate;
+                }
+                if (isHeader(buffer, candidate, to)) {
+                    return candidate;
+                }
+                hits &= hits - 1;
+            }
+            index += 8;
+        }
+        return Math.max(from, last + 1);
+    }
+}
@@ -49,7 +49,10 @@ import java.util.Arrays;
  * Created by dell on 2017/12/5.
  */
 public class Packet {
-    private static final short MAX_SOCKET_SIZE = 4096;
+    /**
+     * 一个完整包（包头+包体）的最大长度
+     */
+    public static final short MAX_SOCKET_SIZE = 4096;
     public static final short MAX_SIZE = MAX_SOCKET_SIZE - PacketHeader.SIZE;
     private static final short LARGE_MASK = (short) 0x8000;
     private static final short ACK_MASK = (short) 0x4000;
@@ -79,7 +82,18 @@ public class Packet {
     }
 
     public Packet(byte[] raw) {
-        int index = 0;
+        this(raw, 0, raw.length);
+    }
+
+    /**
+     * 从raw的offset开始解析一个长度为length的包
+     *
+     * @param raw    原始数据
+     * @param offset 包的起始位置
+     * @param length 包长度，包含包头
+     */
+    public Packet(byte[] raw, int offset, int length) {
+        int index = offset;
         packetHeader = PacketHeader.parse(raw, index);
         index += PacketHeader.SIZE;
         short id = BytesUtils.bytesToShort(raw, index);
@@ -99,7 +113,7 @@ public class Packet {
             subCount = 0;
             subIndex = 0;
         }
-        int size = raw.length - index;
+        int size = offset + length - index;
         body = new byte[size];
         System.arraycopy(raw, index, body, 0, size);
     }
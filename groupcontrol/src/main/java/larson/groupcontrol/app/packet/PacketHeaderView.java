@@ -0,0 +1,84 @@
+package larson.groupcontrol.app.packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 包头的只读视图，直接从缓冲区中读取各个字段，可以在多个包之间复用
+ * <p>
+ * A read-only flyweight over the {@link PacketHeader#SIZE} header bytes of a frame. Every accessor
+ * reads straight from the underlying buffer, so one instance can be re-pointed at each frame with
+ * {@link #wrap(ByteBuffer, int)} instead of parsing a new {@link PacketHeader}. Fields are read as
+ * little-endian whatever the order of the buffer is.
+ * <p>
+ * Not thread-safe.
+ */
+public class PacketHeaderView {
+    private ByteBuffer mBuffer;
+    private int mOffset;
+
+    /**
+     * 指向新的包头
+     *
+     * @param buffer 包所在的缓冲区
+     * @param offset 包头的起始位置
+     * @return this
+     */
+    public PacketHeaderView wrap(ByteBuffer buffer, int offset) {
+        mBuffer = buffer;
+        mOffset = offset;
+        return this;
+    }
+
+    public byte getType() {
+        return (byte) ((mBuffer.get(mOffset + 1) & 0xF0) >> 4);
+    }
+
+    public short getMagic() {
+        return (short) (getShort(mBuffer, mOffset) & PacketHeader.MAGIC_MASK);
+    }
+
+    public short getPid() {
+        return getShort(mBuffer, mOffset + 2);
+    }
+
+    public short getVid() {
+        return getShort(mBuffer, mOffset + 4);
+    }
+
+    public short getPaddingSize() {
+        return getShort(mBuffer, mOffset + 6);
+    }
+
+    /**
+     * 转换成{@link PacketHeader}，给需要保存包头的调用者使用
+     *
+     * @return 新的包头对象
+     */
+    public PacketHeader toHeader() {
+        return new PacketHeader.Builder()
+                .setType(getType())
+                .setMagic(getMagic())
+                .setPid(getPid())
+                .setVid(getVid())
+                .setPaddingSize(getPaddingSize())
+                .build();
+    }
+
+    /**
+     * 小字节序读取short
+     */
+    static short getShort(ByteBuffer buffer, int index) {
+        return (short) ((buffer.get(index) & 0xFF) | ((buffer.get(index + 1) & 0xFF) << 8));
+    }
+
+    @Override
+    public String toString() {
+        return "PacketHeaderView{" +
+                "type=" + getType() +
+                ", magic=" + getMagic() +
+                ", pid=" + getPid() +
+                ", vid=" + getVid() +
+                ", paddingSize=" + getPaddingSize() +
+                '}';
+    }
+}
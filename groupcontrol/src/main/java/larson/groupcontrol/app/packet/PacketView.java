@@ -0,0 +1,173 @@
+package larson.groupcontrol.app.packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 数据包的只读视图，直接从缓冲区中读取各个字段，不拷贝包体，可以在多个包之间复用
+ * <p>
+ * A read-only flyweight over one complete frame. Message header fields and the body bounds are
+ * read straight from the underlying buffer, so the receive path can inspect a frame without
+ * creating a {@link Packet} or copying its body. Callers that need to keep the packet after the
+ * frame buffer is reused convert it with {@link #toPacket()}.
+ * <p>
+ * Not thread-safe.
+ */
+public class PacketView {
+    private static final int LARGE_MASK = 0x8000;
+    private static final int ACK_MASK = 0x4000;
+    private static final int RESPONSE_MASK = 0x2000;
+    private static final int MSG_ID_MASK = 0x1FFF;
+
+    private final PacketHeaderView mHeader = new PacketHeaderView();
+    private ByteBuffer mBuffer;
+    private int mOffset;
+    private int mLength;
+
+    /**
+     * 指向新的包
+     *
+     * @param buffer 包所在的缓冲区
+     * @param offset 包的起始位置
+     * @param length 包长度，包含包头
+     * @return this
+     */
+    public PacketView wrap(ByteBuffer buffer, int offset, int length) {
+        mBuffer = buffer;
+        mOffset = offset;
+        mLength = length;
+        mHeader.wrap(buffer, offset);
+        return this;
+    }
+
+    public PacketHeaderView getPacketHeader() {
+        return mHeader;
+    }
+
+    public ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    public boolean isLargeMsg() {
+        return (getFullMsgId() & LARGE_MASK) != 0;
+    }
+
+    public boolean isAckMsg() {
+        return (getFullMsgId() & ACK_MASK) != 0;
+    }
+
+    public boolean isResponseMsg() {
+        return (getFullMsgId() & RESPONSE_MASK) != 0;
+    }
+
+    public short getMsgId() {
+        return (short) (getFullMsgId() & MSG_ID_MASK);
+    }
+
+    public short getSn() {
+        return PacketHeaderView.getShort(mBuffer, mOffset + PacketHeader.SIZE + 2);
+    }
+
+    public short getSubCount() {
+        return isLargeMsg() ? PacketHeaderView.getShort(mBuffer, mOffset + PacketHeader.SIZE + 4) : 0;
+    }
+
+    public short getSubIndex() {
+        return isLargeMsg() ? PacketHeaderView.getShort(mBuffer, mOffset + PacketHeader.SIZE + 6) : 0;
+    }
+
+    /**
+     * @return 包体在缓冲区中的起始位置
+     */
+    public int getBodyOffset() {
+        return mOffset + PacketHeader.SIZE + (isLargeMsg() ? 8 : 4);
+    }
+
+    /**
+     * @return 包体长度
+     */
+    public int getBodyLength() {
+        return mOffset + mLength - getBodyOffset();
+    }
+
+    /**
+     * 把包体的一部分拷贝到dst中
+     *
+     * @param from      相对包体起始位置的偏移
+     * @param dst       目标数组
+     * @param dstOffset 目标数组的起始位置
+     * @param length    拷贝长度
+     */
+    public void copyBody(int from, byte[] dst, int dstOffset, int length) {
+        int index = getBodyOffset() + from;
+        if (mBuffer.hasArray()) {
+            System.arraycopy(mBuffer.array(), mBuffer.arrayOffset() + index, dst, dstOffset, length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                dst[dstOffset + i] = mBuffer.get(index + i);
+            }
+        }
+    }
+
+    /**
+     * 把整个包（包含包头）拷贝到dst中
+     *
+     * @param dst       目标数组
+     * @param dstOffset 目标数组的起始位置
+     */
+    public void copyTo(byte[] dst, int dstOffset) {
+        if (mBuffer.hasArray()) {
+            System.arraycopy(mBuffer.array(), mBuffer.arrayOffset() + mOffset, dst, dstOffset, mLength);
+        } else {
+            for (int i = 0; i < mLength; i++) {
+                dst[dstOffset + i] = mBuffer.get(mOffset + i);
+            }
+        }
+    }
+
+    /**
+     * @return 包长度，包含包头
+     */
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * 转换成{@link Packet}，会拷贝包体，给需要保存数据包的调用者使用
+     *
+     * @return 新的数据包对象
+     */
+    public Packet toPacket() {
+        byte[] body = new byte[getBodyLength()];
+        copyBody(0, body, 0, body.length);
+        PacketHeaderView header = getPacketHeader();
+        return new Packet.Builder(header.getType(), header.getPid(), header.getVid(), header.getPaddingSize())
+                .setLongMsg(isLargeMsg())
+                .setAckMsg(isAckMsg())
+                .setResponseMsg(isResponseMsg())
+                .setMsgId(getMsgId())
+                .setSn(getSn())
+                .setSubCount(getSubCount())
+                .setSubIndex(getSubIndex())
+                .setBody(body)
+                .build();
+    }
+
+    private int getFullMsgId() {
+        return PacketHeaderView.getShort(mBuffer, mOffset + PacketHeader.SIZE) & 0xFFFF;
+    }
+
+    @Override
+    public String toString() {
+        return "PacketView{" +
+                "packetHeader=" + mHeader +
+                ", isLargeMsg=" + isLargeMsg() +
+                ", isAckMsg=" + isAckMsg() +
+                ", isResponseMsg=" + isResponseMsg() +
+                ", msgId=" + getMsgId() +
+                ", sn=" + getSn() +
+                ", subCount=" + getSubCount() +
+                ", subIndex=" + getSubIndex() +
+                ", bodyLength=" + getBodyLength() +
+                '}';
+    }
+}
@@ -0,0 +1,71 @@
+package larson.groupcontrol.app.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 阻塞模式channel到流的适配
+ * <p>
+ * Stream adapters over blocking channels. {@link java.nio.channels.Channels#newInputStream} is not
+ * used on purpose: for a selectable channel it holds the channel's blocking lock for the whole
+ * read, which stalls a writer on the same socket until the read returns.
+ */
+final class ChannelStreams {
+
+    private ChannelStreams() {
+    }
+
+    static InputStream newInputStream(final ReadableByteChannel channel) {
+        return new InputStream() {
+            private final byte[] mOne = new byte[1];
+
+            @Override
+            public int read() throws IOException {
+                int num = read(mOne, 0, 1);
+                return num <= 0 ? -1 : mOne[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                return channel.read(ByteBuffer.wrap(b, off, len));
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    static OutputStream newOutputStream(final WritableByteChannel channel) {
+        return new OutputStream() {
+            private final byte[] mOne = new byte[1];
+
+            @Override
+            public void write(int b) throws IOException {
+                mOne[0] = (byte) b;
+                write(mOne, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,89 @@
+package larson.groupcontrol.app.transport;
+
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 基于{@link LocalSocket}的传输层，设备上控制端和被控端之间的默认连接方式
+ * <p>
+ * The default transport on the device. Reads time out every {@link #READ_TIMEOUT} milliseconds so
+ * that the read thread gets a chance to notice a shutdown.
+ */
+public class LocalSocketTransport implements Transport {
+    /**
+     * 读取超时时间，单位是毫秒
+     */
+    public static final int READ_TIMEOUT = 3000;
+
+    private final String mName;
+    private final LocalSocketAddress.Namespace mNamespace;
+    private LocalSocket mSocket;
+    private InputStream mInputStream;
+    private OutputStream mOutputStream;
+    private volatile boolean isConnected;
+
+    /**
+     * @param name      socket名字
+     * @param namespace socket命名空间
+     */
+    public LocalSocketTransport(String name, LocalSocketAddress.Namespace namespace) {
+        mName = name;
+        mNamespace = namespace == null ? LocalSocketAddress.Namespace.ABSTRACT : namespace;
+    }
+
+    @Override
+    public synchronized void connect() throws IOException {
+        if (mSocket != null) {
+            throw new IOException("Transport already connected: " + mName);
+        }
+        mSocket = new LocalSocket();
+        try {
+            mSocket.connect(new LocalSocketAddress(mName, mNamespace));
+            mSocket.setSoTimeout(READ_TIMEOUT);
+            mInputStream = mSocket.getInputStream();
+            mOutputStream = mSocket.getOutputStream();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        isConnected = true;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (mInputStream == null) {
+            throw new IOException("Transport not connected: " + mName);
+        }
+        return mInputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (mOutputStream == null) {
+            throw new IOException("Transport not connected: " + mName);
+        }
+        return mOutputStream;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return isConnected;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        isConnected = false;
+        if (mSocket != null) {
+            mSocket.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LocalSocketTransport[" + mName + "]";
+    }
+}
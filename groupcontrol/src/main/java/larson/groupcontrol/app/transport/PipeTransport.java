@@ -0,0 +1,76 @@
+package larson.groupcontrol.app.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Pipe;
+
+/**
+ * 进程内管道传输层，两端由{@link #newPair()}成对创建，一端写入的数据从另一端读出
+ * <p>
+ * An in-process transport made of two {@link Pipe}s, one per direction. Endpoints come in pairs
+ * from {@link #newPair()} and are already connected, {@link #connect()} only checks that the
+ * endpoint has not been closed. Useful for running two protocol stacks against each other in
+ * one JVM without any socket.
+ */
+public class PipeTransport implements Transport {
+    private final Pipe.SourceChannel mSource;
+    private final Pipe.SinkChannel mSink;
+    private final InputStream mInputStream;
+    private final OutputStream mOutputStream;
+    private volatile boolean isClosed;
+
+    private PipeTransport(Pipe.SourceChannel source, Pipe.SinkChannel sink) {
+        mSource = source;
+        mSink = sink;
+        mInputStream = ChannelStreams.newInputStream(source);
+        mOutputStream = ChannelStreams.newOutputStream(sink);
+    }
+
+    /**
+     * 创建一对互相连通的管道
+     *
+     * @return 长度为2的数组，两个元素分别是管道的两端
+     * @throws IOException 创建管道失败
+     */
+    public static PipeTransport[] newPair() throws IOException {
+        Pipe forward = Pipe.open();
+        Pipe backward = Pipe.open();
+        return new PipeTransport[]{
+                new PipeTransport(backward.source(), forward.sink()),
+                new PipeTransport(forward.source(), backward.sink())
+        };
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (isClosed) {
+            throw new IOException("Pipe closed");
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return mInputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return mOutputStream;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return !isClosed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        isClosed = true;
+        try {
+            mSource.close();
+        } finally {
+            mSink.close();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package larson.groupcontrol.app.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+
+/**
+ * 基于NIO {@link SocketChannel}的TCP传输层，用于在控制主机上或者普通JVM中运行协议栈
+ * <p>
+ * A TCP transport on a blocking {@link SocketChannel}. Reads do not time out; closing the
+ * transport interrupts a pending read instead.
+ */
+public class SocketChannelTransport implements Transport {
+    private final SocketAddress mAddress;
+    private final int mConnectTimeout;
+    private SocketChannel mChannel;
+    private InputStream mInputStream;
+    private OutputStream mOutputStream;
+
+    /**
+     * @param host           主机名或IP
+     * @param port           端口
+     * @param connectTimeout 连接超时时间，单位是毫秒，0表示不超时
+     */
+    public SocketChannelTransport(String host, int port, int connectTimeout) {
+        this(new InetSocketAddress(host, port), connectTimeout);
+    }
+
+    public SocketChannelTransport(SocketAddress address, int connectTimeout) {
+        mAddress = address;
+        mConnectTimeout = connectTimeout;
+    }
+
+    @Override
+    public synchronized void connect() throws IOException {
+        if (mChannel != null) {
+            throw new IOException("Transport already connected: " + mAddress);
+        }
+        mChannel = SocketChannel.open();
+        try {
+            mChannel.socket().setTcpNoDelay(true);
+            //SocketChannel.connect没有超时，通过socket适配器连接
+            mChannel.socket().connect(mAddress, mConnectTimeout);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        mInputStream = ChannelStreams.newInputStream(mChannel);
+        mOutputStream = ChannelStreams.newOutputStream(mChannel);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (mInputStream == null) {
+            throw new IOException("Transport not connected: " + mAddress);
+        }
+        return mInputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (mOutputStream == null) {
+            throw new IOException("Transport not connected: " + mAddress);
+        }
+        return mOutputStream;
+    }
+
+    @Override
+    public boolean isConnected() {
+        SocketChannel channel = mChannel;
+        return channel != null && channel.isOpen() && channel.isConnected();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (mChannel != null) {
+            mChannel.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SocketChannelTransport[" + mAddress + "]";
+    }
+}
@@ -0,0 +1,66 @@
+package larson.groupcontrol.app.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 传输层抽象，{@link larson.groupcontrol.app.connection.Connection}通过它收发字节，
+ * 不关心底层是本地socket、TCP还是进程内管道
+ * <p>
+ * The byte transport underneath a connection. The packet reader, writer and router only see the
+ * two streams, so the same protocol stack runs over {@link android.net.LocalSocket} on the device,
+ * over TCP on a controller host ({@link SocketChannelTransport}) and over in-process pipes in
+ * tests and benchmarks ({@link PipeTransport}).
+ * <p>
+ * The input stream is read by one thread and the output stream is written by another, so an
+ * implementation must allow a read and a write to block at the same time. Closing the transport
+ * must unblock a pending read.
+ */
+public interface Transport extends Closeable {
+
+    /**
+     * 建立连接，一个实例只连接一次，重连时会创建新的实例
+     *
+     * @throws IOException 连接失败
+     */
+    void connect() throws IOException;
+
+    /**
+     * @return 读取数据的输入流，只在连接成功后可用
+     * @throws IOException 连接未建立或者已关闭
+     */
+    InputStream getInputStream() throws IOException;
+
+    /**
+     * @return 写出数据的输出流，只在连接成功后可用
+     * @throws IOException 连接未建立或者已关闭
+     */
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * @return 是否已连接并且没有关闭
+     */
+    boolean isConnected();
+
+    /**
+     * 关闭连接，正在阻塞的读写会抛出异常返回，可以重复调用
+     *
+     * @throws IOException 关闭失败
+     */
+    @Override
+    void close() throws IOException;
+
+    /**
+     * 创建传输层，每次连接(包括重连)调用一次，见{@link Transports#create}
+     */
+    interface Factory {
+
+        /**
+         * @return 新的、还未连接的传输层
+         * @throws IOException 创建失败
+         */
+        Transport create() throws IOException;
+    }
+}
@@ -0,0 +1,34 @@
+package larson.groupcontrol.app.transport;
+
+import larson.groupcontrol.app.SocketConfiguration;
+
+import java.io.IOException;
+
+/**
+ * 根据{@link SocketConfiguration}创建传输层
+ */
+public final class Transports {
+
+    private Transports() {
+    }
+
+    /**
+     * 每次连接(包括重连)调用一次
+     *
+     * @param config 连接配置
+     * @return 还未连接的传输层
+     * @throws IOException 自定义的传输层创建失败
+     */
+    public static Transport create(SocketConfiguration config) throws IOException {
+        switch (config.getTransportType()) {
+            case SocketConfiguration.TRANSPORT_TCP:
+                return new SocketChannelTransport(config.getHost(), config.getPort(),
+                        config.getSkSocketOption().getSocketTimeout());
+            case SocketConfiguration.TRANSPORT_CUSTOM:
+                return config.getTransportFactory().create();
+            case SocketConfiguration.TRANSPORT_LOCAL_SOCKET:
+            default:
+                return new LocalSocketTransport(config.getSocketName(), config.getNameSpace());
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package larson.groupcontrol.app.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 查表法的CRC16，可以分段计算
+ * <p>
+ * Table-driven CRC16 for the three {@link CrcUtils} types, processing four bytes per step
+ * (slice-by-4) instead of one bit at a time. {@link CrcUtils#CRC16_CCITT} is computed in its
+ * reflected form (polynomial 0x8408), which is what the bitwise implementation's byte and result
+ * reversals amount to, so no bit reversal happens per byte. {@link CrcUtils#CRC16_XMODEM} and
+ * {@link CrcUtils#CRC16_CCITT_FALSE} use the MSB-first form of polynomial 0x1021.
+ * <p>
+ * Data can be fed in any number of {@code update} calls, the result is the same as one call over
+ * the concatenated bytes, in the same style as {@link java.util.zip.CRC32}. Not thread safe.
+ */
+public class Crc16 {
+    private static final int[] REFLECTED = reflectedTable(0x8408);
+    private static final int[] NORMAL = normalTable(0x1021);
+
+    private final int mCrcType;
+    private final boolean isReflected;
+    private final int[] mTable;
+    private int mCrc;
+
+    /**
+     * @param crcType {@link CrcUtils#CRC16_XMODEM}、{@link CrcUtils#CRC16_CCITT}
+     *                或者{@link CrcUtils#CRC16_CCITT_FALSE}
+     */
+    public Crc16(int crcType) {
+        if (crcType != CrcUtils.CRC16_XMODEM && crcType != CrcUtils.CRC16_CCITT
+                && crcType != CrcUtils.CRC16_CCITT_FALSE) {
+            throw new IllegalArgumentException("unknown crc type: " + crcType);
+        }
+        mCrcType = crcType;
+        isReflected = crcType == CrcUtils.CRC16_CCITT;
+        mTable = isReflected ? REFLECTED : NORMAL;
+        reset();
+    }
+
+    /**
+     * 回到初始值，可以开始计算下一段数据
+     */
+    public void reset() {
+        mCrc = mCrcType == CrcUtils.CRC16_CCITT_FALSE ? 0xFFFF : 0;
+    }
+
+    /**
+     * @return 目前为止所有数据的crc16
+     */
+    public int getValue() {
+        return mCrc;
+    }
+
+    public void update(byte[] bytes) {
+        update(bytes, 0, bytes.length);
+    }
+
+    /**
+     * 把一段数据计入crc
+     *
+     * @param bytes  数据
+     * @param offset 起始位置
+     * @param length 长度
+     */
+    public void update(byte[] bytes, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > bytes.length - length) {
+            throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length
+                    + ", size: " + bytes.length);
+        }
+        mCrc = isReflected ? updateReflected(mCrc, bytes, offset, length)
+                : updateNormal(mCrc, bytes, offset, length);
+    }
+
+    /**
+     * 把缓冲区中的一段数据计入crc，不改变缓冲区的position和limit
+     *
+     * @param buffer 缓冲区
+     * @param offset 数据的绝对位置
+     * @param length 长度
+     */
+    public void update(ByteBuffer buffer, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > buffer.limit() - length) {
+            throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length
+                    + ", limit: " + buffer.limit());
+        }
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + offset, length);
+            return;
+        }
+        int crc = mCrc;
+        int[] table = mTable;
+        int end = offset + length;
+        if (isReflected) {
+            for (int i = offset; i < end; i++) {
+                crc = (crc >>> 8) ^ table[(crc ^ buffer.get(i)) & 0xFF];
+            }
+        } else {
+            for (int i = offset; i < end; i++) {
+                crc = ((crc << 8) & 0xFFFF) ^ table[((crc >>> 8) ^ buffer.get(i)) & 0xFF];
+            }
+        }
+        mCrc = crc;
+    }
+
+    /**
+     * 按低位在前的方式逐字节处理，每次处理4个字节
+     */
+    private static int updateReflected(int crc, byte[] bytes, int offset, int length) {
+        int[] table = REFLECTED;
+        int i = offset;
+        int end = offset + length;
+        for (int last = end - 3; i < last; i += 4) {
+            crc ^= (bytes[i] & 0xFF) | ((bytes[i + 1] & 0xFF) << 8);
+            crc = table[768 + (crc & 0xFF)] ^ table[512 + (crc >>> 8)]
+                    ^ table[256 + (bytes[i + 2] & 0xFF)] ^ table[bytes[i + 3] & 0xFF];
+        }
+        for (; i < end; i++) {
+            crc = (crc >>> 8) ^ table[(crc ^ bytes[i]) & 0xFF];
+        }
+        return crc;
+    }
+
+    /**
+     * 按高位在前的方式逐字节处理，每次处理4个字节
+     */
+    private static int updateNormal(int crc, byte[] bytes, int offset, int length) {
+        int[] table = NORMAL;
+        int i = offset;
+        int end = offset + length;
+        for (int last = end - 3; i < last; i += 4) {
+            crc = table[768 + (((crc >>> 8) ^ bytes[i]) & 0xFF)] ^ table[512 + ((crc ^ bytes[i + 1]) & 0xFF)]
+                    ^ table[256 + (bytes[i + 2] & 0xFF)] ^ table[bytes[i + 3] & 0xFF];
+        }
+        for (; i < end; i++) {
+            crc = ((crc << 8) & 0xFFFF) ^ table[((crc >>> 8) ^ bytes[i]) & 0xFF];
+        }
+        return crc;
+    }
+
+    /**
+     * 4张表连续存放，第k张表是一个字节后面再跟k个0字节时的crc
+     */
+    private static int[] reflectedTable(int polynomial) {
+        int[] table = new int[4 * 256];
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int bit = 0; bit < Byte.SIZE; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ polynomial : crc >>> 1;
+            }
+            table[i] = crc;
+        }
+        for (int k = 1; k < 4; k++) {
+            for (int i = 0; i < 256; i++) {
+                int prev = table[(k - 1) * 256 + i];
+                table[k * 256 + i] = (prev >>> 8) ^ table[prev & 0xFF];
+            }
+        }
+        return table;
+    }
+
+    /**
+     * 4张表连续存放，第k张表是一个字节后面再跟k个0字节时的crc
+     */
+    private static int[] normalTable(int polynomial) {
+        int[] table = new int[4 * 256];
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int bit = 0; bit < Byte.SIZE; bit++) {
+                crc = (crc & 0x8000) != 0 ? ((crc << 1) ^ polynomial) & 0xFFFF : (crc << 1) & 0xFFFF;
+            }
+            table[i] = crc;
+        }
+        for (int k = 1; k < 4; k++) {
+            for (int i = 0; i < 256; i++) {
+                int prev = table[(k - 1) * 256 + i];
+                table[k * 256 + i] = ((prev << 8) & 0xFFFF) ^ table[prev >>> 8];
+            }
+        }
+        return table;
+    }
+}
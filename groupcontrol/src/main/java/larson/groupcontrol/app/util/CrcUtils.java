@@ -1,5 +1,6 @@
 package larson.groupcontrol.app.util;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -28,12 +29,42 @@ public class CrcUtils {
         if (buf.length == 0) {
             return buf;
         }
-        byte[] crcBytes = new byte[2];
-        int crc16 = crc16Ccitt(crcType, buf);
-        crcBytes[0] = (byte) (crc16 & 0xff);
-        crcBytes[1] = (byte) ((crc16 >> 8) & 0xff);
-        // 将新生成的byte数组添加到原数据结尾并返回
-        return ArrayUtils.concatBytes(buf, crcBytes);
+        byte[] result = Arrays.copyOf(buf, buf.length + 2);
+        putCrc16(ByteBuffer.wrap(result), 0, buf.length, crcType);
+        return result;
+    }
+
+    /**
+     * 计算缓冲区中一段数据的crc，并把校验核（低字节在前）直接写在这段数据之后，不改变position和limit
+     *
+     * @param buffer  缓冲区，数据后面要留出2个字节
+     * @param offset  数据的绝对位置
+     * @param length  数据长度，不包含crc校验核
+     * @param crcType crc校验类型
+     */
+    public static void putCrc16(ByteBuffer buffer, int offset, int length, int crcType) {
+        int crc16 = crc16(crcType, buffer, offset, length);
+        buffer.put(offset + length, (byte) (crc16 & 0xff));
+        buffer.put(offset + length + 1, (byte) ((crc16 >> 8) & 0xff));
+    }
+
+    /**
+     * 直接在缓冲区上校验一段末尾带crc校验核的数据，不拷贝数据，不改变position和limit
+     *
+     * @param buffer  缓冲区
+     * @param offset  数据的绝对位置
+     * @param length  数据长度，包含末尾的crc校验核
+     * @param crcType crc校验类型
+     * @return crc是否正确，长度不足以带crc时返回false
+     */
+    public static boolean checkCrc16(ByteBuffer buffer, int offset, int length, int crcType) {
+        if (length < CRC16_BUF_MIN_SIZE) {
+            return false;
+        }
+        int crc16 = crc16(crcType, buffer, offset, length - 2);
+        int crc16Source = (buffer.get(offset + length - 2) & 0xff)
+                | ((buffer.get(offset + length - 1) & 0xff) << 8);
+        return crc16 == crc16Source;
     }
 
     /**
@@ -47,13 +78,36 @@ public class CrcUtils {
         if (srcBuf == null || srcBuf.length < CRC16_BUF_MIN_SIZE) {
             return new byte[0];
         }
-        byte[] data = Arrays.copyOf(srcBuf, srcBuf.length - 2);
-        int crc16 = crc16Ccitt(crcType, data);
-        int crc16Source = ((srcBuf[srcBuf.length - 2] & 0xff)
-                        | ((srcBuf[srcBuf.length - 1] & 0xff) << 8)) & 0xffff;
-        if (crc16 != crc16Source) {
+        if (!checkCrc16(ByteBuffer.wrap(srcBuf), 0, srcBuf.length, crcType)) {
             return null;
         }
+        return Arrays.copyOf(srcBuf, srcBuf.length - 2);
+    }
+
+    /**
+     * 从缓冲区的一段带crc校验核的数据中获取数据，先在缓冲区上校验，通过后只拷贝一次数据
+     *
+     * @param buffer  缓冲区
+     * @param offset  数据在缓冲区中的起始位置
+     * @param length  数据长度，包含末尾的crc校验核
+     * @param crcType crc校验类型
+     * @return 数据， null表示crc验证失败
+     */
+    public static byte[] getDataBytes(ByteBuffer buffer, int offset, int length, int crcType) {
+        if (buffer == null || length < CRC16_BUF_MIN_SIZE) {
+            return new byte[0];
+        }
+        if (!checkCrc16(buffer, offset, length, crcType)) {
+            return null;
+        }
+        byte[] data = new byte[length - 2];
+        if (buffer.hasArray()) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + offset, data, 0, data.length);
+        } else {
+            for (int i = 0; i < data.length; i++) {
+                data[i] = buffer.get(offset + i);
+            }
+        }
         return data;
     }
 
@@ -61,39 +115,44 @@ public class CrcUtils {
      * CRC-CCITT(XModem)
      * CRC-CCITT
      * CRC-CCITT_FALSE
-     * 校验模式
+     * 校验模式，查表计算，见{@link Crc16}
      *
      * @param crcType CRC16_XMODEM:1, CRC16_CCITT:2, CRC16_CCITT_FALSE:3
      * @param bytes 数据
      * @return crc16
      */
     public static int crc16Ccitt(int crcType, byte[] bytes) {
-        int crc = 0;
-        int polynomial = 0x1021;
-
-        if (crcType == CRC16_CCITT_FALSE) {
-            crc = 0xFFFF;
-        }
+        return crc16(crcType, bytes, 0, bytes.length);
+    }
 
-        for (byte b : bytes) {
-            if (crcType == CRC16_CCITT) {
-                b = reversalByte(b);
-            }
-            for (int i = 0; i < Byte.SIZE; i++) {
-                boolean bit = ((b >> (7 - i) & 1) == 1);
-                boolean c15 = ((crc >> 15 & 1) == 1);
-                crc <<= 1;
-                if (c15 ^ bit) {
-                    crc ^= polynomial;
-                }
-            }
-        }
-        if (crcType == CRC16_CCITT) {
-            crc = reversalShort((short) crc);
-        }
-        crc &= 0xffff;
+    /**
+     * 计算数组中一段数据的crc16
+     *
+     * @param crcType crc校验类型
+     * @param bytes   数据
+     * @param offset  起始位置
+     * @param length  长度
+     * @return crc16
+     */
+    public static int crc16(int crcType, byte[] bytes, int offset, int length) {
+        Crc16 crc16 = new Crc16(crcType);
+        crc16.update(bytes, offset, length);
+        return crc16.getValue();
+    }
 
-        return crc;
+    /**
+     * 计算缓冲区中一段数据的crc16，不改变缓冲区的position和limit
+     *
+     * @param crcType crc校验类型
+     * @param buffer  缓冲区
+     * @param offset  数据的绝对位置
+     * @param length  长度
+     * @return crc16
+     */
+    public static int crc16(int crcType, ByteBuffer buffer, int offset, int length) {
+        Crc16 crc16 = new Crc16(crcType);
+        crc16.update(buffer, offset, length);
+        return crc16.getValue();
     }
 
     /**
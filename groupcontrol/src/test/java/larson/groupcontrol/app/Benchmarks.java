@@ -0,0 +1,31 @@
+package larson.groupcontrol.app;
+
+import org.junit.Assume;
+
+/**
+ * 性能测试的开关，默认跳过，用-Dgroupcontrol.benchmark=true运行
+ * <p>
+ * The {@code *Benchmark} classes take tens of seconds and print their results instead of checking
+ * them, so they are skipped unless the {@value #PROPERTY} system property is true. What they check
+ * is covered by small unit tests next to them.
+ */
+public final class Benchmarks {
+    public static final String PROPERTY = "groupcontrol.benchmark";
+
+    private Benchmarks() {
+    }
+
+    /**
+     * @return 是否运行性能测试
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(PROPERTY);
+    }
+
+    /**
+     * 在@BeforeClass中调用，没有打开开关时跳过整个类
+     */
+    public static void assumeEnabled() {
+        Assume.assumeTrue("run with -D" + PROPERTY + "=true", isEnabled());
+    }
+}
@@ -0,0 +1,102 @@
+package larson.groupcontrol.app.buffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link BufferPool}按大小分级复用，{@link PooledBuffer}的引用计数和泄漏检测
+ */
+public class BufferPoolTest {
+
+    @Test
+    public void recyclesBySizeClass() {
+        BufferPool pool = new BufferPool();
+        PooledBuffer buffer = pool.acquire(100);
+        assertEquals(256, buffer.array().length);
+        assertEquals(100, buffer.length());
+        assertEquals(1, buffer.refCnt());
+        assertTrue(buffer.release());
+        assertEquals(1, pool.getCachedCount());
+
+        //同一级别的请求复用同一个缓冲区，长度按新的请求重置
+        PooledBuffer reused = pool.acquire(200);
+        assertSame(buffer, reused);
+        assertEquals(200, reused.length());
+        assertEquals(1, reused.refCnt());
+        assertEquals(0, pool.getCachedCount());
+        reused.release();
+
+        //超过最大级别的不缓存
+        PooledBuffer huge = pool.acquire(BufferPool.MAX_POOLED_SIZE + 1);
+        assertEquals(BufferPool.MAX_POOLED_SIZE + 1, huge.array().length);
+        assertTrue(huge.release());
+        assertEquals(1, pool.getCachedCount());
+    }
+
+    @Test
+    public void countsReferences() {
+        BufferPool pool = new BufferPool();
+        PooledBuffer buffer = pool.acquire(10);
+        assertSame(buffer, buffer.retain());
+        assertEquals(2, buffer.refCnt());
+        assertFalse(buffer.release());
+        assertEquals(0, pool.getCachedCount());
+        assertTrue(buffer.release());
+        assertEquals(1, pool.getCachedCount());
+        try {
+            buffer.release();
+            fail("released twice");
+        } catch (IllegalStateException expected) {
+            //多释放一次
+        }
+        try {
+            buffer.retain();
+            fail("retained after release");
+        } catch (IllegalStateException expected) {
+            //已经回到缓冲池
+        }
+    }
+
+    @Test
+    public void unpooledBuffersAreNotRecycled() {
+        BufferPool pool = new BufferPool();
+        PooledBuffer buffer = pool.acquire(10).unpool();
+        assertTrue(buffer.release());
+        assertEquals(0, pool.getCachedCount());
+
+        PooledBuffer wrapped = PooledBuffer.wrap(new byte[16]);
+        assertEquals(16, wrapped.length());
+        assertTrue(wrapped.release());
+        assertEquals(0, pool.getCachedCount());
+    }
+
+    @Test
+    public void detectsLeaks() throws Exception {
+        BufferPool pool = new BufferPool();
+        pool.setLeakDetection(true);
+        //释放了的和交给GC管理的都不算泄漏
+        pool.acquire(10).release();
+        pool.acquire(10).unpool();
+        leak(pool);
+
+        long deadline = System.currentTimeMillis() + 10 * 1000;
+        while (pool.getLeakCount() == 0 && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(1, pool.getLeakCount());
+    }
+
+    private static void leak(BufferPool pool) {
+        pool.acquire(10);
+    }
+}
@@ -0,0 +1,77 @@
+package larson.groupcontrol.app.buffer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link CompositeBuffer}跨段读取，包括长度为0的段
+ */
+public class CompositeBufferTest {
+
+    @Test
+    public void readsAcrossEmptySegments() {
+        byte[] array = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+        //开头、中间和末尾都有长度为0的段，中间的和下一段起始位置相同
+        CompositeBuffer buffer = new CompositeBuffer(
+                new byte[][]{array, array, array, array, array, array, array},
+                new int[]{0, 1, 4, 4, 9, 2, 10},
+                new int[]{0, 3, 0, 0, 1, 2, 0});
+        byte[] expected = {1, 2, 3, 9, 2, 3};
+        assertEquals(expected.length, buffer.length());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("index " + i, expected[i], buffer.get(i));
+        }
+        assertArrayEquals(expected, buffer.toByteArray());
+        assertEquals(0, buffer.getSegment(2).remaining());
+        assertEquals(3, buffer.getSegment(5).get(1));
+        try {
+            buffer.get(expected.length);
+            fail("read past the end");
+        } catch (IndexOutOfBoundsException expectedException) {
+            //越界
+        }
+
+        CompositeBuffer empty = new CompositeBuffer(new byte[][]{array, array}, new int[]{0, 10}, new int[]{0, 0});
+        assertEquals(0, empty.length());
+        assertEquals(0, empty.toByteArray().length);
+        empty.get(0, new byte[0], 0, 0);
+    }
+
+    @Test
+    public void matchesFlattenedBytes() {
+        Random random = new Random(25);
+        for (int round = 0; round < 200; round++) {
+            int count = 1 + random.nextInt(6);
+            byte[][] arrays = new byte[count][];
+            int[] offsets = new int[count];
+            int[] lengths = new int[count];
+            ByteArrayOutputStream flat = new ByteArrayOutputStream();
+            for (int i = 0; i < count; i++) {
+                arrays[i] = new byte[random.nextInt(8)];
+                random.nextBytes(arrays[i]);
+                offsets[i] = random.nextInt(arrays[i].length + 1);
+                lengths[i] = random.nextInt(arrays[i].length - offsets[i] + 1);
+                flat.write(arrays[i], offsets[i], lengths[i]);
+            }
+            byte[] expected = flat.toByteArray();
+            CompositeBuffer buffer = new CompositeBuffer(arrays, offsets, lengths);
+            assertEquals(count, buffer.getSegmentCount());
+            assertArrayEquals(expected, buffer.toByteArray());
+            for (int from = 0; from < expected.length; from++) {
+                assertEquals(expected[from], buffer.get(from));
+                for (int to = from; to <= expected.length; to++) {
+                    byte[] dst = new byte[to - from + 2];
+                    buffer.get(from, dst, 1, to - from);
+                    assertArrayEquals(Arrays.copyOfRange(expected, from, to), Arrays.copyOfRange(dst, 1, 1 + to - from));
+                }
+            }
+        }
+    }
+}
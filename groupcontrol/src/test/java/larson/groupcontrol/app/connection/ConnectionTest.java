@@ -0,0 +1,98 @@
+package larson.groupcontrol.app.connection;
+
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import larson.groupcontrol.app.SocketConfiguration;
+import larson.groupcontrol.app.filter.MessageIdFilter;
+import larson.groupcontrol.app.listener.IMessageListener;
+import larson.groupcontrol.app.message.Message;
+import larson.groupcontrol.app.transport.PipeTransport;
+import larson.groupcontrol.app.transport.Transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link Connection}通过自定义传输层收发消息，每次连接都从工厂拿一个新的传输层，断开后可以重新连接
+ */
+public class ConnectionTest {
+    private static final short MSG_ID = 0x42;
+
+    @Test
+    public void reconnectsWithNewTransport() throws Exception {
+        final List<PipeTransport> peers = new ArrayList<>();
+        SocketConfiguration config = new SocketConfiguration.Builder(false, "ConnectionTest")
+                .setSkSocketOption(new ConnectOption.Builder("ConnectionTest")
+                        .setPulseFrequency(60 * 1000).build())
+                .setTransport(new Transport.Factory() {
+                    @Override
+                    public Transport create() throws IOException {
+                        PipeTransport[] pair = PipeTransport.newPair();
+                        peers.add(pair[1]);
+                        return pair[0];
+                    }
+                })
+                .build();
+
+        Connection first = new Connection(config);
+        first.connect();
+        roundTrip(first, peers.get(0));
+        first.deInit();
+        //第一个传输层已经关闭，对端读到流结束
+        assertEquals(-1, peers.get(0).getInputStream().read());
+
+        //断开后用同一个配置重连，和ConnectionManager重连时一样新建Connection
+        Connection second = new Connection(config);
+        second.connect();
+        assertEquals(2, peers.size());
+        roundTrip(second, peers.get(1));
+        second.deInit();
+    }
+
+    /**
+     * 连接发出的消息原样到达对端，对端发来的消息交给监听器
+     */
+    private static void roundTrip(Connection connection, PipeTransport peer) throws Exception {
+        assertTrue(connection.isConnected());
+        Message outgoing = new Message.Builder(MSG_ID).setBody(new byte[]{1, 2, 3}).build();
+        connection.sendMessage(outgoing);
+        byte[] expected = encode(outgoing);
+        byte[] received = new byte[expected.length];
+        new DataInputStream(peer.getInputStream()).readFully(received);
+        assertArrayEquals(expected, received);
+
+        final BlockingQueue<Message> messages = new LinkedBlockingQueue<>();
+        connection.addMsgListener(new IMessageListener() {
+            @Override
+            public void processMessage(Message msg) {
+                messages.add(msg);
+            }
+        }, new MessageIdFilter(MSG_ID));
+        Message incoming = new Message.Builder(MSG_ID).setBody(new byte[]{4, 5, 6, 7}).build();
+        OutputStream out = peer.getOutputStream();
+        out.write(encode(incoming));
+        out.flush();
+        Message delivered = messages.poll(5, TimeUnit.SECONDS);
+        assertNotNull("message not delivered", delivered);
+        assertEquals(incoming.getSn(), delivered.getSn());
+        assertArrayEquals(incoming.getBody(), delivered.getBody());
+    }
+
+    private static byte[] encode(Message msg) {
+        ByteBuffer encoded = ByteBuffer.allocate(msg.getEncodedSize());
+        msg.encodeTo(encoded);
+        return encoded.array();
+    }
+}
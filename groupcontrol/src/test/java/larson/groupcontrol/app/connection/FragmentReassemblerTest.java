@@ -0,0 +1,179 @@
+package larson.groupcontrol.app.connection;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import larson.groupcontrol.app.buffer.CompositeBuffer;
+import larson.groupcontrol.app.buffer.PooledBuffer;
+import larson.groupcontrol.app.message.FragmentIterator;
+import larson.groupcontrol.app.message.Message;
+import larson.groupcontrol.app.message.MessageSnBuilder;
+import larson.groupcontrol.app.packet.PacketView;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * {@link FragmentReassembler}的乱序、重复、超时、内存上限和crc校验
+ */
+public class FragmentReassemblerTest {
+    private static final long MS = 1000000;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        MessageSnBuilder.getInstance().setClientKey("FragmentReassemblerTest");
+    }
+
+    @Test
+    public void placesBySubIndexAndDropsDuplicates() throws Exception {
+        byte[] body = new byte[20000];
+        new Random(20).nextBytes(body);
+        ByteBuffer[] frames = encode(new Message.Builder((short) 0x20).setBody(body).build(), 1);
+        FragmentReassembler reassembler = new FragmentReassembler();
+        PooledBuffer[] complete = null;
+        for (int i = frames.length - 1; i >= 0; i--) {
+            assertNull(reassembler.add(view(frames[frames.length - 1]), 0));
+            complete = reassembler.add(view(frames[i]), 0);
+        }
+        assertNotNull(complete);
+        assertEquals(frames.length, reassembler.getDuplicateCount());
+        assertEquals(1, reassembler.getCompletedCount());
+        assertEquals(0, reassembler.getPendingCount());
+        assertEquals(0, reassembler.getPendingBytes());
+        assertArrayEquals(body, new Message.Builder(complete).build().getBody());
+        release(complete);
+    }
+
+    @Test
+    public void checksCrcAsFragmentsArrive() throws Exception {
+        Random random = new Random(25);
+        FragmentReassembler reassembler = new FragmentReassembler();
+        //8159字节时最后一个分包只有crc的高字节，8160字节时只有crc
+        int[] sizes = {8158, 8159, 8160, 20000};
+        for (int size : sizes) {
+            byte[] body = new byte[size];
+            random.nextBytes(body);
+            ByteBuffer[] frames = encode(new Message.Builder((short) 0x23).setBody(body).build(), 1);
+            List<ByteBuffer> shuffled = new ArrayList<>(Arrays.asList(frames));
+            Collections.shuffle(shuffled, random);
+            PooledBuffer[] complete = null;
+            for (ByteBuffer frame : shuffled) {
+                complete = reassembler.add(view(frame), 0);
+            }
+            assertNotNull("size " + size, complete);
+            Message msg = new Message.Builder(complete, true).build();
+            CompositeBuffer buffer = msg.getBodyBuffer();
+            assertEquals(frames.length, buffer.getSegmentCount());
+            assertEquals(body[size - 1], buffer.get(size - 1));
+            assertArrayEquals(body, buffer.toByteArray());
+            assertArrayEquals(body, msg.getBody());
+            release(complete);
+
+            ByteBuffer last = frames[frames.length - 1];
+            last.put(last.limit() - 1, (byte) (last.get(last.limit() - 1) ^ 1));
+            for (ByteBuffer frame : frames) {
+                assertNull(reassembler.add(view(frame), 0));
+            }
+        }
+        assertEquals(sizes.length, reassembler.getCompletedCount());
+        assertEquals(sizes.length, reassembler.getCorruptCount());
+        assertEquals(0, reassembler.getPendingBytes());
+    }
+
+    @Test
+    public void evictsAfterTimeout() throws Exception {
+        ByteBuffer[] frames = encode(new Message.Builder((short) 0x21).setBody(new byte[10000]).build(), 1);
+        FragmentReassembler reassembler = new FragmentReassembler(100, 1 << 20, 1 << 20);
+        reassembler.add(view(frames[0]), 0);
+        reassembler.evictExpired(99 * MS);
+        assertEquals(1, reassembler.getPendingCount());
+        reassembler.add(view(frames[1]), 50 * MS);
+        reassembler.evictExpired(149 * MS);
+        assertEquals(1, reassembler.getPendingCount());
+        reassembler.evictExpired(150 * MS);
+        assertEquals(0, reassembler.getPendingCount());
+        assertEquals(0, reassembler.getPendingBytes());
+        assertEquals(1, reassembler.getEvictedCount());
+    }
+
+    @Test
+    public void duplicateDoesNotDelayExpiry() throws Exception {
+        ByteBuffer[] stale = encode(new Message.Builder((short) 0x24).setBody(new byte[10000]).build(), 1);
+        ByteBuffer[] fresh = encode(new Message.Builder((short) 0x24).setBody(new byte[10000]).build(), 1);
+        FragmentReassembler reassembler = new FragmentReassembler(100, 1 << 20, 1 << 20);
+        reassembler.add(view(stale[0]), 0);
+        reassembler.add(view(fresh[0]), 10 * MS);
+        //重复的分包不算进展，stale仍然排在最前面
+        assertNull(reassembler.add(view(stale[0]), 20 * MS));
+        assertEquals(1, reassembler.getDuplicateCount());
+
+        reassembler.evictExpired(105 * MS);
+        assertEquals(1, reassembler.getPendingCount());
+        assertEquals(1, reassembler.getEvictedCount());
+        assertEquals(fresh[0].limit(), reassembler.getPendingBytes());
+    }
+
+    @Test
+    public void enforcesMemoryLimits() throws Exception {
+        Message first = new Message.Builder((short) 0x22).setBody(new byte[10000]).build();
+        Message second = new Message.Builder((short) 0x22).setBody(new byte[10000]).build();
+        Message other = new Message.Builder((short) 0x22).setBody(new byte[10000]).build();
+        int frameSize = encode(first, 1)[0].limit();
+        FragmentReassembler reassembler = new FragmentReassembler(1000, 3 * frameSize, 2 * frameSize);
+
+        //同一个pid最多放2个分包，第3个分包挤掉最久没有进展的消息
+        reassembler.add(view(encode(first, 1)[0]), 0);
+        reassembler.add(view(encode(second, 1)[0]), 1);
+        reassembler.add(view(encode(second, 1)[1]), 2);
+        assertEquals(1, reassembler.getPendingCount());
+        assertEquals(1, reassembler.getEvictedCount());
+
+        //另一个pid只受总上限限制
+        reassembler.add(view(encode(other, 2)[0]), 3);
+        assertEquals(2, reassembler.getPendingCount());
+        assertEquals(3 * frameSize, reassembler.getPendingBytes());
+        reassembler.add(view(encode(other, 2)[1]), 4);
+        assertEquals(1, reassembler.getPendingCount());
+        assertEquals(2, reassembler.getEvictedCount());
+        assertEquals(2 * frameSize, reassembler.getPendingBytes());
+
+        reassembler.clear();
+        assertEquals(0, reassembler.getPendingBytes());
+    }
+
+    /**
+     * 把消息编码成一个个分包，并改写包头中的pid
+     */
+    private static ByteBuffer[] encode(Message msg, int pid) {
+        ByteBuffer[] frames = new ByteBuffer[msg.getFragmentCount()];
+        FragmentIterator fragments = msg.fragments();
+        for (int i = 0; i < frames.length; i++) {
+            ByteBuffer frame = ByteBuffer.allocate(fragments.nextSize());
+            fragments.encodeNext(frame);
+            frame.put(2, (byte) pid);
+            frame.put(3, (byte) (pid >> 8));
+            frame.flip();
+            frames[i] = frame;
+        }
+        return frames;
+    }
+
+    private static PacketView view(ByteBuffer frame) {
+        return new PacketView().wrap(frame, 0, frame.limit());
+    }
+
+    private static void release(PooledBuffer[] frames) {
+        for (PooledBuffer frame : frames) {
+            frame.release();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package larson.groupcontrol.app.connection;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import larson.groupcontrol.app.SocketConfiguration;
+import larson.groupcontrol.app.message.Message;
+import larson.groupcontrol.app.packet.PacketView;
+import larson.groupcontrol.app.transport.PipeTransport;
+import larson.groupcontrol.app.transport.Transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link Heartbeat}只在写空闲时发心跳，读空闲超过maxMissed个间隔时断开，从回复中采样往返时间，
+ * 并回复对端的心跳请求
+ * <p>
+ * Each test runs a {@link Connection} over a {@link PipeTransport} pair and plays the peer on the
+ * other end with raw frames.
+ */
+public class HeartbeatTest {
+    private static final long INTERVAL = 100;
+
+    private Connection mConnection;
+    private PipeTransport mPeer;
+    private PacketReader mPeerReader;
+    private final BlockingQueue<byte[]> mFrames = new LinkedBlockingQueue<>();
+    private final CountDownLatch mClosed = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        if (mPeerReader != null) {
+            mPeerReader.shutdown();
+        }
+        if (mConnection != null) {
+            mConnection.deInit();
+        }
+    }
+
+    @Test
+    public void noPingWhileTrafficFlows() throws Exception {
+        connect(0);
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(INTERVAL * 5);
+        while (System.nanoTime() < end) {
+            mConnection.sendMessage(new Message.Builder((short) 0x30).setBody(new byte[]{1}).build());
+            Thread.sleep(INTERVAL / 5);
+        }
+        byte[] frame;
+        while ((frame = mFrames.poll()) != null) {
+            assertFalse("heartbeat on a busy link", view(frame).getPacketHeader().getType() == Message.MSG_TYPE_HEART);
+        }
+    }
+
+    @Test
+    public void pingsAfterOneIdleInterval() throws Exception {
+        long start = System.nanoTime();
+        connect(0);
+        PacketView ping = view(nextFrame());
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(Message.MSG_TYPE_HEART, ping.getPacketHeader().getType());
+        assertFalse(ping.isResponseMsg());
+        assertTrue("pinged after " + elapsed + "ms", elapsed >= INTERVAL - 10);
+    }
+
+    @Test
+    public void closesAfterSilentIntervals() throws Exception {
+        long start = System.nanoTime();
+        connect(3);
+        //对端一直不发数据，自己发出的心跳不算读活动
+        assertTrue("peer not declared dead", mClosed.await(5, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("closed after " + elapsed + "ms", elapsed >= INTERVAL * 3 - 10);
+    }
+
+    @Test
+    public void samplesRttFromReply() throws Exception {
+        connect(0);
+        PacketView ping = view(nextFrame());
+        assertEquals(0, mConnection.getHeartbeatRttSamples());
+        writeToConnection(new Message.Builder((short) 0, ping.getSn())
+                .setType(Message.MSG_TYPE_HEART).setAck(false).build());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mConnection.getHeartbeatRttSamples() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, mConnection.getHeartbeatRttSamples());
+        assertTrue(mConnection.getLastHeartbeatRtt() > 0);
+        assertEquals(mConnection.getLastHeartbeatRtt(), mConnection.getSmoothedHeartbeatRtt());
+    }
+
+    @Test
+    public void answersPeerPing() throws Exception {
+        connect(0);
+        Message ping = new Message.Builder((short) 0).setType(Message.MSG_TYPE_HEART).setAck(false).build();
+        writeToConnection(ping);
+        PacketView reply = view(nextFrame());
+        assertEquals(Message.MSG_TYPE_HEART, reply.getPacketHeader().getType());
+        assertTrue(reply.isResponseMsg());
+        assertEquals(ping.getSn(), reply.getSn());
+    }
+
+    /**
+     * @param maxMissed 见{@link ConnectOption#getMaxMissedPulses()}
+     */
+    private void connect(int maxMissed) throws Exception {
+        SocketConfiguration config = new SocketConfiguration.Builder(false, "HeartbeatTest")
+                .setSkSocketOption(new ConnectOption.Builder("HeartbeatTest")
+                        .setPulseFrequency(INTERVAL).setMaxMissedPulses(maxMissed).build())
+                .setTransport(new Transport.Factory() {
+                    @Override
+                    public Transport create() throws IOException {
+                        PipeTransport[] pair = PipeTransport.newPair();
+                        mPeer = pair[1];
+                        return pair[0];
+                    }
+                })
+                .build();
+        mConnection = new Connection(config);
+        mConnection.setConnectListener(new Connection.IConnectionListener() {
+            @Override
+            public void onConnectSuccessful() {
+            }
+
+            @Override
+            public void onSocketClosed(Exception e) {
+                mClosed.countDown();
+            }
+        });
+        mConnection.connect();
+        mPeerReader = new PacketReader(mPeer.getInputStream(), true, new PacketReader.OnCallbackListener() {
+            @Override
+            public void onDataReceive(ByteBuffer buffer, int offset, int len) {
+                mFrames.add(Arrays.copyOfRange(buffer.array(), buffer.arrayOffset() + offset,
+                        buffer.arrayOffset() + offset + len));
+            }
+        });
+        mPeerReader.startup();
+    }
+
+    private byte[] nextFrame() throws InterruptedException {
+        byte[] frame = mFrames.poll(5, TimeUnit.SECONDS);
+        assertNotNull("no frame from connection", frame);
+        return frame;
+    }
+
+    private void writeToConnection(Message msg) throws IOException {
+        ByteBuffer encoded = ByteBuffer.allocate(msg.getEncodedSize());
+        msg.encodeTo(encoded);
+        OutputStream out = mPeer.getOutputStream();
+        out.write(encoded.array());
+        out.flush();
+    }
+
+    private static PacketView view(byte[] frame) {
+        return new PacketView().wrap(ByteBuffer.wrap(frame), 0, frame.length);
+    }
+}
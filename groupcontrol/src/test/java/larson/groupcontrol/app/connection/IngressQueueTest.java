@@ -0,0 +1,136 @@
+package larson.groupcontrol.app.connection;
+
+import org.junit.Test;
+
+import larson.groupcontrol.app.buffer.PooledBuffer;
+import larson.groupcontrol.app.packet.PacketHeader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link IngressQueue}队列满时的三种策略：阻塞、丢最旧的DATA包、按类型丢包
+ */
+public class IngressQueueTest {
+    private static final byte CTRL = PacketHeader.TYPE_CTRL;
+    private static final byte HEART = PacketHeader.TYPE_HEART;
+    private static final byte DATA = PacketHeader.TYPE_DATA;
+
+    @Test
+    public void blockPolicyWaitsForSpace() throws Exception {
+        IngressQueue queue = new IngressQueue(2, ConnectOption.DROP_POLICY_BLOCK, null);
+        PooledBuffer first = frame();
+        queue.put(first, DATA);
+        queue.put(frame(), DATA);
+        Thread producer = putLater(queue, frame(), DATA);
+        assertEquals(2, queue.size());
+
+        assertSame(first, queue.take());
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        assertEquals(2, queue.size());
+        assertEquals(0, queue.getDroppedCount());
+    }
+
+    @Test
+    public void oldestDataPolicyDropsOldestDataFrame() throws Exception {
+        IngressQueue queue = new IngressQueue(3, ConnectOption.DROP_POLICY_OLDEST_DATA, null);
+        PooledBuffer ctrl = frame();
+        PooledBuffer oldData = frame();
+        PooledBuffer newData = frame();
+        queue.put(ctrl, CTRL);
+        queue.put(oldData, DATA);
+        queue.put(newData, DATA);
+        PooledBuffer incoming = frame();
+        assertTrue(queue.put(incoming, CTRL));
+        assertEquals(0, oldData.refCnt());
+        assertEquals(1, queue.getDroppedCount(DATA));
+
+        //其余的包保持顺序
+        assertSame(ctrl, queue.take());
+        assertSame(newData, queue.take());
+        assertSame(incoming, queue.take());
+
+        //没有DATA包可丢时阻塞
+        IngressQueue controlOnly = new IngressQueue(1, ConnectOption.DROP_POLICY_OLDEST_DATA, null);
+        controlOnly.put(frame(), CTRL);
+        PooledBuffer blocked = frame();
+        Thread producer = putLater(controlOnly, blocked, DATA);
+        controlOnly.close();
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        assertEquals(0, blocked.refCnt());
+        assertEquals(0, controlOnly.getDroppedCount());
+    }
+
+    @Test
+    public void byTypePolicyDropsDroppableFrames() throws Exception {
+        IngressQueue queue = new IngressQueue(2, ConnectOption.DROP_POLICY_BY_TYPE, new byte[]{HEART});
+        PooledBuffer data = frame();
+        PooledBuffer queuedHeart = frame();
+        queue.put(data, DATA);
+        queue.put(queuedHeart, HEART);
+
+        //新来的可丢弃包直接丢弃
+        PooledBuffer incomingHeart = frame();
+        assertFalse(queue.put(incomingHeart, HEART));
+        assertEquals(0, incomingHeart.refCnt());
+        assertEquals(2, queue.size());
+
+        //不可丢弃的包挤掉队列中最旧的可丢弃包
+        PooledBuffer moreData = frame();
+        assertTrue(queue.put(moreData, DATA));
+        assertEquals(0, queuedHeart.refCnt());
+        assertEquals(2, queue.getDroppedCount(HEART));
+        assertEquals(0, queue.getDroppedCount(DATA));
+        assertEquals(2, queue.getDroppedCount());
+        assertEquals(2, queue.getMaxDepth());
+
+        assertSame(data, queue.take());
+        assertSame(moreData, queue.take());
+    }
+
+    @Test
+    public void closeReleasesQueuedFrames() throws Exception {
+        IngressQueue queue = new IngressQueue(4, ConnectOption.DROP_POLICY_BLOCK, null);
+        PooledBuffer queued = frame();
+        queue.put(queued, DATA);
+        queue.close();
+        assertEquals(0, queued.refCnt());
+        assertNull(queue.take());
+        PooledBuffer late = frame();
+        assertFalse(queue.put(late, DATA));
+        assertEquals(0, late.refCnt());
+    }
+
+    /**
+     * 在另一个线程中放入，确认它阻塞之后才返回
+     */
+    private static Thread putLater(final IngressQueue queue, final PooledBuffer frame, final byte type)
+            throws Exception {
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    queue.put(frame, type);
+                } catch (InterruptedException e) {
+                    //测试结束
+                }
+            }
+        };
+        producer.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (producer.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(Thread.State.WAITING, producer.getState());
+        return producer;
+    }
+
+    private static PooledBuffer frame() {
+        return PooledBuffer.wrap(new byte[1]);
+    }
+}
@@ -0,0 +1,85 @@
+package larson.groupcontrol.app.connection;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+
+import larson.groupcontrol.app.Benchmarks;
+import larson.groupcontrol.app.filter.AndFilter;
+import larson.groupcontrol.app.filter.MessageIdFilter;
+import larson.groupcontrol.app.listener.IMessageListener;
+import larson.groupcontrol.app.message.Message;
+import larson.groupcontrol.app.message.MessageSnBuilder;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 比较200个监听器时逐个匹配过滤器和按msgId查表分发的速度
+ * <p>
+ * Dispatch cost with 200 registered listeners: 150 {@link MessageIdFilter}s, 40 {@link AndFilter}s
+ * containing one and 10 opaque filters. The old path evaluates every filter for every message;
+ * the new path is {@link PacketRouter#notifyListeners(Message)} through the msgId index. Both must
+ * deliver the same number of messages. Results are printed to stdout.
+ */
+public class ListenerDispatchBenchmark {
+    private static final int ID_FILTERS = 150;
+    private static final int AND_FILTERS = 40;
+    private static final int OPAQUE_FILTERS = 10;
+    private static final int MESSAGES = 2000000;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Benchmarks.assumeEnabled();
+        MessageSnBuilder.getInstance().setClientKey("ListenerDispatchBenchmark");
+    }
+
+    @Test
+    public void compareDispatch() throws Exception {
+        final long[] delivered = new long[1];
+        IMessageListener counter = new IMessageListener() {
+            @Override
+            public void processMessage(Message msg) {
+                delivered[0]++;
+            }
+        };
+        PacketRouter router = new PacketRouter();
+        List<PacketRouter.ListenerWrapper> linear = ListenerTableTest.register(router, counter,
+                ID_FILTERS, AND_FILTERS, OPAQUE_FILTERS);
+        Message[] messages = ListenerTableTest.newMessages(256);
+
+        //预热
+        runLinear(linear, messages, MESSAGES / 4);
+        runIndexed(router, messages, MESSAGES / 4);
+
+        delivered[0] = 0;
+        long start = System.nanoTime();
+        runLinear(linear, messages, MESSAGES);
+        double linearRate = MESSAGES * 1e3 / (System.nanoTime() - start);
+        long linearDelivered = delivered[0];
+
+        delivered[0] = 0;
+        start = System.nanoTime();
+        runIndexed(router, messages, MESSAGES);
+        double indexedRate = MESSAGES * 1e3 / (System.nanoTime() - start);
+
+        assertEquals(linearDelivered, delivered[0]);
+        System.out.println(String.format("%d listeners: linear %6.2f M msg/s | indexed %6.2f M msg/s | %.1fx",
+                linear.size(), linearRate, indexedRate, indexedRate / linearRate));
+    }
+
+    private static void runLinear(List<PacketRouter.ListenerWrapper> wrappers, Message[] messages, int count) {
+        for (int i = 0; i < count; i++) {
+            Message msg = messages[i & 0xFF];
+            for (PacketRouter.ListenerWrapper wrapper : wrappers) {
+                wrapper.notifyListener(msg);
+            }
+        }
+    }
+
+    private static void runIndexed(PacketRouter router, Message[] messages, int count) {
+        for (int i = 0; i < count; i++) {
+            router.notifyListeners(messages[i & 0xFF]);
+        }
+    }
+}
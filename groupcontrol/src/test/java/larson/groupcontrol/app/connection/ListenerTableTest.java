@@ -0,0 +1,106 @@
+package larson.groupcontrol.app.connection;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import larson.groupcontrol.app.filter.AndFilter;
+import larson.groupcontrol.app.filter.MessageFilter;
+import larson.groupcontrol.app.filter.MessageIdFilter;
+import larson.groupcontrol.app.listener.IMessageListener;
+import larson.groupcontrol.app.message.Message;
+import larson.groupcontrol.app.message.MessageSnBuilder;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 按msgId查表分发和逐个匹配过滤器通知到的监听器相同
+ */
+public class ListenerTableTest {
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        MessageSnBuilder.getInstance().setClientKey("ListenerTableTest");
+    }
+
+    @Test
+    public void matchesLinearDispatch() throws Exception {
+        final int[] delivered = new int[1];
+        IMessageListener counter = new IMessageListener() {
+            @Override
+            public void processMessage(Message msg) {
+                delivered[0]++;
+            }
+        };
+        PacketRouter router = new PacketRouter();
+        List<PacketRouter.ListenerWrapper> linear = register(router, counter, 150, 40, 10);
+        for (Message msg : newMessages(256)) {
+            delivered[0] = 0;
+            for (PacketRouter.ListenerWrapper wrapper : linear) {
+                wrapper.notifyListener(msg);
+            }
+            int expected = delivered[0];
+
+            delivered[0] = 0;
+            router.notifyListeners(msg);
+            assertEquals(msg.toString(), expected, delivered[0]);
+        }
+    }
+
+    /**
+     * 给router注册监听器：idFilters个{@link MessageIdFilter}，andFilters个包含它的{@link AndFilter}，
+     * opaqueFilters个无法按msgId索引的过滤器
+     *
+     * @return 同样的过滤器逐个包装后的列表，用于逐个匹配
+     */
+    static List<PacketRouter.ListenerWrapper> register(PacketRouter router, IMessageListener listener,
+                                                       int idFilters, int andFilters, int opaqueFilters) {
+        List<PacketRouter.ListenerWrapper> linear = new ArrayList<>();
+        for (int i = 0; i < idFilters + andFilters + opaqueFilters; i++) {
+            MessageFilter filter;
+            if (i < idFilters) {
+                filter = new MessageIdFilter((short) i);
+            } else if (i < idFilters + andFilters) {
+                filter = new AndFilter(new MessageIdFilter((short) i), new NotResponseFilter());
+            } else {
+                filter = new SnParityFilter(i % 2);
+            }
+            router.addRcvListener(filter, listener);
+            linear.add(new PacketRouter.ListenerWrapper(filter, listener));
+        }
+        return linear;
+    }
+
+    /**
+     * @return msgId从0开始依次递增的消息
+     */
+    static Message[] newMessages(int count) throws Exception {
+        Message[] messages = new Message[count];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = new Message.Builder((short) i).build();
+        }
+        return messages;
+    }
+
+    private static class NotResponseFilter implements MessageFilter {
+        @Override
+        public boolean accept(Message msg) {
+            return !msg.isResponse();
+        }
+    }
+
+    private static class SnParityFilter implements MessageFilter {
+        private final int mParity;
+
+        SnParityFilter(int parity) {
+            mParity = parity;
+        }
+
+        @Override
+        public boolean accept(Message msg) {
+            return (msg.getSn() & 1) == mParity;
+        }
+    }
+}
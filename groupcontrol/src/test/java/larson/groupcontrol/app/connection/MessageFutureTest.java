@@ -0,0 +1,130 @@
+package larson.groupcontrol.app.connection;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import larson.groupcontrol.app.exception.UnconnectedException;
+import larson.groupcontrol.app.filter.MessageIdFilter;
+import larson.groupcontrol.app.message.Message;
+import larson.groupcontrol.app.message.MessageSnBuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link MessageFuture}超时、取消和断开连接时以异常完成，完成后添加的回调立即执行
+ */
+public class MessageFutureTest {
+
+    @Before
+    public void setUp() throws Exception {
+        MessageSnBuilder.getInstance().setClientKey("MessageFutureTest");
+    }
+
+    @Test
+    public void failsWithTimeoutOnSharedTimer() throws Exception {
+        PacketRouter router = new PacketRouter();
+        MessageFuture future = router.createResponseFuture(new Message.Builder((short) 0x28).build());
+        RecordingCallback callback = new RecordingCallback();
+        future.addCallback(callback);
+        future.setTimeout(50);
+
+        assertTrue("timeout not fired", callback.done.await(5, TimeUnit.SECONDS));
+        assertTrue(callback.error instanceof TimeoutException);
+        assertEquals("GroupControl timer", callback.thread.getName());
+        assertTrue(future.isDone());
+        assertFalse(future.isCancelled());
+        assertCause(future, TimeoutException.class);
+    }
+
+    @Test
+    public void failsWithUnconnectedOnClear() throws Exception {
+        PacketRouter router = new PacketRouter();
+        //按关联键等待的请求和按过滤器等待的请求都要结束
+        MessageFuture keyed = router.createResponseFuture(new Message.Builder((short) 0x28).build());
+        MessageFuture filtered = router.createResponseFuture(new MessageIdFilter((short) 0x29));
+        keyed.setTimeout(60 * 1000);
+        RecordingCallback callback = new RecordingCallback();
+        filtered.addCallback(callback);
+
+        router.clear();
+
+        assertCause(keyed, UnconnectedException.class);
+        assertCause(filtered, UnconnectedException.class);
+        assertTrue(callback.error instanceof UnconnectedException);
+    }
+
+    @Test
+    public void cancelFailsWithCancellation() throws Exception {
+        MessageFuture future = new PacketRouter().createResponseFuture(new Message.Builder((short) 0x28).build());
+        RecordingCallback callback = new RecordingCallback();
+        future.addCallback(callback);
+
+        assertTrue(future.cancel(false));
+        assertFalse(future.cancel(false));
+        assertTrue(future.isCancelled());
+        assertTrue(callback.error instanceof CancellationException);
+        try {
+            future.get();
+            fail("cancelled future returned a result");
+        } catch (CancellationException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void callbackAfterCompletionFiresImmediately() throws Exception {
+        Message request = new Message.Builder((short) 0x28).build();
+        MessageFuture future = new PacketRouter().createResponseFuture(request);
+        Message reply = new Message.Builder((short) 0x28, request.getSn()).build();
+        assertTrue(future.complete(reply));
+        assertFalse(future.fail(new UnconnectedException("late")));
+
+        RecordingCallback callback = new RecordingCallback();
+        future.addCallback(callback);
+        //已经完成时在调用线程中同步回调
+        assertEquals(0, callback.done.getCount());
+        assertSame(Thread.currentThread(), callback.thread);
+        assertSame(reply, callback.result);
+        assertSame(reply, future.get(0, TimeUnit.MILLISECONDS));
+    }
+
+    private static void assertCause(MessageFuture future, Class<? extends Exception> type) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("future returned a result");
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), type.isInstance(e.getCause()));
+        }
+    }
+
+    private static class RecordingCallback implements MessageFuture.Callback {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Thread thread;
+        volatile Message result;
+        volatile Exception error;
+
+        @Override
+        public void onResponse(Message msg) {
+            result = msg;
+            thread = Thread.currentThread();
+            done.countDown();
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            error = e;
+            thread = Thread.currentThread();
+            done.countDown();
+        }
+    }
+}
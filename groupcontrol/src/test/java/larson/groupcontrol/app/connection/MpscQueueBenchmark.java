@@ -0,0 +1,163 @@
+package larson.groupcontrol.app.connection;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import larson.groupcontrol.app.Benchmarks;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 比较1到32个发送线程同时发送时，旧的加锁队列和无锁队列的吞吐量
+ * <p>
+ * Contention benchmark for the writer hand-off with 1 to 32 producer threads. The old path is a
+ * {@link LinkedBlockingQueue} plus {@code synchronized(queue){notifyAll()}} per message with the
+ * consumer waiting on the same monitor; the new path is {@link MpscQueue} with the consumer parked
+ * and only unparked when it announced it was going to sleep, as in {@link PacketWriter}. Results
+ * are printed to stdout.
+ */
+public class MpscQueueBenchmark {
+    private static final int MESSAGES = 2000000;
+    private static final int[] PRODUCERS = {1, 2, 4, 8, 16, 32};
+    private static final Object ITEM = new Object();
+
+    @BeforeClass
+    public static void setUp() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void compareContention() throws Exception {
+        //预热
+        runLocked(4);
+        runLockFree(4);
+
+        for (int producers : PRODUCERS) {
+            System.out.println(String.format("%2d producers: locked %6.2f M msg/s | lock-free %6.2f M msg/s",
+                    producers, runLocked(producers), runLockFree(producers)));
+        }
+    }
+
+    private double runLocked(int producers) throws Exception {
+        final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+        final int perProducer = MESSAGES / producers;
+        final int total = perProducer * producers;
+        final int[] consumed = new int[1];
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                while (consumed[0] < total) {
+                    synchronized (queue) {
+                        while (queue.poll() == null) {
+                            try {
+                                queue.wait();
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+                    }
+                    consumed[0]++;
+                }
+            }
+        };
+        Runnable producer = new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < perProducer; i++) {
+                    try {
+                        queue.put(ITEM);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    synchronized (queue) {
+                        queue.notifyAll();
+                    }
+                }
+            }
+        };
+        double rate = measure(consumer, producer, producers, total);
+        assertEquals(total, consumed[0]);
+        return rate;
+    }
+
+    private double runLockFree(int producers) throws Exception {
+        final MpscQueue<Object> queue = new MpscQueue<>();
+        final int perProducer = MESSAGES / producers;
+        final int total = perProducer * producers;
+        final int[] consumed = new int[1];
+        final ParkFlag flag = new ParkFlag();
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                while (consumed[0] < total) {
+                    if (queue.poll() != null) {
+                        consumed[0]++;
+                        continue;
+                    }
+                    flag.isParked = true;
+                    if (queue.isEmpty()) {
+                        LockSupport.park(this);
+                    }
+                    flag.isParked = false;
+                }
+            }
+        };
+        flag.consumer = consumer;
+        Runnable producer = new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < perProducer; i++) {
+                    queue.offer(ITEM);
+                    if (flag.isParked) {
+                        LockSupport.unpark(flag.consumer);
+                    }
+                }
+            }
+        };
+        double rate = measure(consumer, producer, producers, total);
+        assertEquals(total, consumed[0]);
+        return rate;
+    }
+
+    /**
+     * @return 每秒处理的消息数，单位是百万
+     */
+    private static double measure(Thread consumer, final Runnable producer, int producers, int total)
+            throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    producer.run();
+                }
+            };
+            threads[i].start();
+        }
+        consumer.start();
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        consumer.join();
+        long nanos = System.nanoTime() - begin;
+        return total * 1e3 / nanos;
+    }
+
+    private static class ParkFlag {
+        volatile boolean isParked;
+        Thread consumer;
+    }
+}
@@ -0,0 +1,62 @@
+package larson.groupcontrol.app.connection;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link MpscQueue}多个生产者同时放入时不丢不重，每个生产者的元素保持顺序
+ */
+public class MpscQueueTest {
+    private static final int PRODUCERS = 8;
+    private static final int PER_PRODUCER = 20000;
+
+    @Test
+    public void keepsOrderPerProducer() throws Exception {
+        final MpscQueue<int[]> queue = new MpscQueue<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            threads[p] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < PER_PRODUCER; i++) {
+                        queue.offer(new int[]{producer, i});
+                    }
+                }
+            };
+            threads[p].start();
+        }
+        start.countDown();
+
+        int[] next = new int[PRODUCERS];
+        int consumed = 0;
+        long deadline = System.nanoTime() + 30 * 1000000000L;
+        while (consumed < PRODUCERS * PER_PRODUCER && System.nanoTime() < deadline) {
+            int[] item = queue.poll();
+            if (item == null) {
+                Thread.yield();
+                continue;
+            }
+            assertEquals("producer " + item[0], next[item[0]], item[1]);
+            next[item[0]]++;
+            consumed++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(PRODUCERS * PER_PRODUCER, consumed);
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+    }
+}
@@ -0,0 +1,150 @@
+package larson.groupcontrol.app.connection;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import larson.groupcontrol.app.Benchmarks;
+import larson.groupcontrol.app.message.Message;
+import larson.groupcontrol.app.packet.Packet;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 比较单线程读取模式和读线程+解析线程两种模式的吞吐量和延迟
+ * <p>
+ * Compares throughput and latency of the single-thread read mode with the default two-thread
+ * pipeline of {@link PacketReader}. Results are printed to stdout.
+ */
+public class PacketReaderBenchmark {
+    private static final int THROUGHPUT_FRAMES = 200000;
+    private static final int LATENCY_FRAMES = 20000;
+    private static final int BODY_SIZE = 256;
+    private static final int SOCKET_READ_SIZE = 4096;
+
+    @BeforeClass
+    public static void setUp() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void compareThreadModes() throws Exception {
+        byte[] stream = buildStream(THROUGHPUT_FRAMES);
+        //预热
+        throughput(stream, THROUGHPUT_FRAMES, false);
+        throughput(stream, THROUGHPUT_FRAMES, true);
+
+        double twoThread = throughput(stream, THROUGHPUT_FRAMES, false);
+        double singleThread = throughput(stream, THROUGHPUT_FRAMES, true);
+        System.out.println(String.format("throughput two-thread: %.0f frames/s, single-thread: %.0f frames/s",
+                twoThread, singleThread));
+
+        long[] twoThreadLatency = latency(false);
+        long[] singleThreadLatency = latency(true);
+        System.out.println(String.format("latency two-thread: p50=%dus p99=%dus, single-thread: p50=%dus p99=%dus",
+                percentile(twoThreadLatency, 50), percentile(twoThreadLatency, 99),
+                percentile(singleThreadLatency, 50), percentile(singleThreadLatency, 99)));
+    }
+
+    private double throughput(final byte[] stream, int frames, boolean singleThread) throws Exception {
+        final CountDownLatch latch = new CountDownLatch(frames);
+        InputStream in = new InputStream() {
+            private int pos;
+
+            @Override
+            public int read() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (pos >= stream.length) {
+                    return -1;
+                }
+                int num = Math.min(Math.min(len, SOCKET_READ_SIZE), stream.length - pos);
+                System.arraycopy(stream, pos, b, off, num);
+                pos += num;
+                return num;
+            }
+        };
+        PacketReader reader = new PacketReader(in, singleThread, new PacketReader.OnCallbackListener() {
+            @Override
+            public void onDataReceive(ByteBuffer buffer, int offset, int len) {
+                latch.countDown();
+            }
+        });
+        long start = System.nanoTime();
+        reader.startup();
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        long elapsed = System.nanoTime() - start;
+        reader.shutdown();
+        return frames * 1e9 / elapsed;
+    }
+
+    /**
+     * 每个包的包体里带上发送时间，收到时计算延迟
+     */
+    private long[] latency(boolean singleThread) throws Exception {
+        final long[] latency = new long[LATENCY_FRAMES];
+        final CountDownLatch latch = new CountDownLatch(LATENCY_FRAMES);
+        PipedOutputStream out = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(out, 64 * 1024);
+        PacketReader reader = new PacketReader(in, singleThread, new PacketReader.OnCallbackListener() {
+            private int index;
+
+            @Override
+            public void onDataReceive(ByteBuffer buffer, int offset, int len) {
+                long sent = buffer.getLong(offset + len - 8);
+                if (index < latency.length) {
+                    latency[index++] = System.nanoTime() - sent;
+                }
+                latch.countDown();
+            }
+        });
+        reader.startup();
+        byte[] frame = newFrame();
+        ByteBuffer wrapper = ByteBuffer.wrap(frame).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < LATENCY_FRAMES; i++) {
+            wrapper.putLong(frame.length - 8, System.nanoTime());
+            out.write(frame);
+            out.flush();
+        }
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        reader.shutdown();
+        out.close();
+        return latency;
+    }
+
+    private static byte[] buildStream(int frames) throws IOException {
+        byte[] frame = newFrame();
+        byte[] stream = new byte[frame.length * frames];
+        for (int i = 0; i < frames; i++) {
+            System.arraycopy(frame, 0, stream, i * frame.length, frame.length);
+        }
+        return stream;
+    }
+
+    private static byte[] newFrame() {
+        byte[] body = new byte[BODY_SIZE];
+        return new Packet.Builder(Message.MSG_TYPE_DATA, (short) 1, (short) 1, (short) (body.length + 4))
+                .setMsgId((short) 0x10)
+                .setBody(body)
+                .build()
+                .getBytes();
+    }
+
+    private static long percentile(long[] values, int percent) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[(sorted.length - 1) * percent / 100] / 1000;
+    }
+}
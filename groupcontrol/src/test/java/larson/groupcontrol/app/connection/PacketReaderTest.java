@@ -0,0 +1,97 @@
+package larson.groupcontrol.app.connection;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import larson.groupcontrol.app.message.Message;
+import larson.groupcontrol.app.packet.Packet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link PacketReader}两种线程模式都按顺序交出完整的包，不受每次读取长度的影响
+ */
+public class PacketReaderTest {
+    private static final int FRAMES = 2000;
+    /**
+     * 每次读取的字节数，故意不和包长对齐
+     */
+    private static final int READ_SIZE = 1000;
+
+    @Test
+    public void deliversEveryFrame() throws Exception {
+        Random random = new Random(2);
+        final List<byte[]> frames = new ArrayList<>();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < FRAMES; i++) {
+            byte[] body = new byte[1 + random.nextInt(300)];
+            random.nextBytes(body);
+            byte[] frame = new Packet.Builder(Message.MSG_TYPE_DATA, (short) 1, (short) 1, (short) (body.length + 4))
+                    .setMsgId((short) (i & 0x1FFF))
+                    .setSn((short) i)
+                    .setBody(body)
+                    .build()
+                    .getBytes();
+            frames.add(frame);
+            stream.write(frame);
+        }
+        assertEquals(FRAMES, read(stream.toByteArray(), frames, false));
+        assertEquals(FRAMES, read(stream.toByteArray(), frames, true));
+    }
+
+    /**
+     * @return 和frames逐字节相同、按顺序收到的包数
+     */
+    private static int read(final byte[] stream, final List<byte[]> frames, boolean singleThread)
+            throws Exception {
+        final CountDownLatch latch = new CountDownLatch(frames.size());
+        final int[] matched = new int[1];
+        InputStream in = new InputStream() {
+            private int pos;
+
+            @Override
+            public int read() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (pos >= stream.length) {
+                    return -1;
+                }
+                int num = Math.min(Math.min(len, READ_SIZE), stream.length - pos);
+                System.arraycopy(stream, pos, b, off, num);
+                pos += num;
+                return num;
+            }
+        };
+        PacketReader reader = new PacketReader(in, singleThread, new PacketReader.OnCallbackListener() {
+            private int index;
+
+            @Override
+            public void onDataReceive(ByteBuffer buffer, int offset, int len) {
+                byte[] frame = Arrays.copyOfRange(buffer.array(), buffer.arrayOffset() + offset,
+                        buffer.arrayOffset() + offset + len);
+                if (index < frames.size() && Arrays.equals(frames.get(index), frame)) {
+                    matched[0]++;
+                }
+                index++;
+                latch.countDown();
+            }
+        });
+        reader.startup();
+        assertTrue("frames lost", latch.await(30, TimeUnit.SECONDS));
+        reader.shutdown();
+        return matched[0];
+    }
+}
@@ -0,0 +1,108 @@
+package larson.groupcontrol.app.connection;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import larson.groupcontrol.app.filter.MessageFilter;
+import larson.groupcontrol.app.listener.IMessageListener;
+import larson.groupcontrol.app.message.Message;
+import larson.groupcontrol.app.message.MessageSnBuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link PacketRouter}按关联键匹配回复，丢弃crc错误的消息
+ */
+public class PacketRouterTest {
+
+    @Before
+    public void setUp() throws Exception {
+        MessageSnBuilder.getInstance().setClientKey("PacketRouterTest-requester");
+    }
+
+    @Test
+    public void matchesReplyFromOtherClientKey() throws Exception {
+        PacketRouter router = new PacketRouter();
+        Message request = new Message.Builder((short) 0x28).setVid((short) 7).build();
+        MessageFuture future = router.createResponseFuture(request);
+
+        //回复方是另一台设备，pid是它自己的clientKey
+        MessageSnBuilder.getInstance().setClientKey("PacketRouterTest-responder");
+        Message reply = new Message.Builder((short) 0x28, request.getSn())
+                .setBody(new byte[]{1, 2, 3}).build();
+        assertNotEquals(request.getPid(), reply.getPid());
+        receive(router, reply);
+
+        assertTrue(future.isDone());
+        assertEquals(request.getSn(), future.get(0, TimeUnit.MILLISECONDS).getSn());
+    }
+
+    @Test
+    public void dropsMessageWithBadCrc() throws Exception {
+        PacketRouter router = new PacketRouter();
+        Message request = new Message.Builder((short) 0x28).build();
+        MessageFuture future = router.createResponseFuture(request);
+        MessageCollector collector = router.createMessageCollector(null);
+        final List<Message> received = new ArrayList<>();
+        //和断线过滤器一样在过滤器里读取消息体
+        router.addRcvListener(new MessageFilter() {
+            @Override
+            public boolean accept(Message msg) {
+                return msg.getBody()[0] == 1;
+            }
+        }, new IMessageListener() {
+            @Override
+            public void processMessage(Message msg) {
+                received.add(msg);
+            }
+        });
+
+        Message reply = new Message.Builder((short) 0x28, request.getSn()).setBody(new byte[]{1}).build();
+        Message report = new Message.Builder((short) 0x29).setBody(new byte[]{1, 2}).build();
+        receive(router, reply, true);
+        receive(router, report, true);
+        assertFalse(future.isDone());
+        assertNull(collector.nextResult(0));
+        assertTrue(received.isEmpty());
+        assertEquals(2, router.getCorruptCount());
+
+        receive(router, reply);
+        receive(router, report);
+        assertTrue(future.isDone());
+        assertEquals(0x28, collector.nextResult(0).getMsgId());
+        assertEquals(0x29, collector.nextResult(0).getMsgId());
+        assertEquals(1, received.size());
+        assertEquals(2, router.getCorruptCount());
+    }
+
+    @Test
+    public void correlationKeyKeepsPidForHighSn() {
+        assertNotEquals(PacketRouter.getCorrelationKey(1, (short) 0x8001, (short) 5, true),
+                PacketRouter.getCorrelationKey(2, (short) 0x8001, (short) 5, true));
+    }
+
+    static void receive(PacketRouter router, Message msg) {
+        receive(router, msg, false);
+    }
+
+    /**
+     * @param isCorrupt 是否翻转crc的最后一位
+     */
+    static void receive(PacketRouter router, Message msg, boolean isCorrupt) {
+        ByteBuffer buffer = ByteBuffer.allocate(msg.getEncodedSize());
+        msg.encodeTo(buffer);
+        if (isCorrupt) {
+            buffer.array()[buffer.position() - 1] ^= 1;
+        }
+        router.onDataReceive(buffer, 0, buffer.position());
+    }
+}
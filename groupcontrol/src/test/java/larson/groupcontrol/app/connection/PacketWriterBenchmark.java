@@ -0,0 +1,123 @@
+package larson.groupcontrol.app.connection;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import larson.groupcontrol.app.Benchmarks;
+import larson.groupcontrol.app.message.Message;
+import larson.groupcontrol.app.message.MessageSnBuilder;
+import larson.groupcontrol.app.packet.Packet;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 比较逐包写出和合并写出的吞吐量，数据经过本地回环TCP连接
+ * <p>
+ * Compares per-packet write+flush (batch size 0, the old behaviour) with coalesced batches in
+ * {@link PacketWriter}, over a loopback TCP socket. Results are printed to stdout.
+ */
+public class PacketWriterBenchmark {
+    private static final int LARGE_MESSAGES = 2000;
+    private static final int LARGE_BODY_SIZE = 64 * 1024;
+    private static final int SMALL_MESSAGES = 200000;
+    private static final int SMALL_BODY_SIZE = 128;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Benchmarks.assumeEnabled();
+        MessageSnBuilder.getInstance().setClientKey("PacketWriterBenchmark");
+    }
+
+    @Test
+    public void compareBatching() throws Exception {
+        //预热
+        run(LARGE_MESSAGES, LARGE_BODY_SIZE, 0, 0);
+        run(LARGE_MESSAGES, LARGE_BODY_SIZE, ConnectOption.DEFAULT_WRITE_BATCH_SIZE, 0);
+
+        System.out.println("64KB messages: " + run(LARGE_MESSAGES, LARGE_BODY_SIZE, 0, 0)
+                + " | " + run(LARGE_MESSAGES, LARGE_BODY_SIZE, ConnectOption.DEFAULT_WRITE_BATCH_SIZE, 0));
+        System.out.println("128B messages: " + run(SMALL_MESSAGES, SMALL_BODY_SIZE, 0, 0)
+                + " | " + run(SMALL_MESSAGES, SMALL_BODY_SIZE, ConnectOption.DEFAULT_WRITE_BATCH_SIZE, 0)
+                + " | " + run(SMALL_MESSAGES, SMALL_BODY_SIZE, ConnectOption.DEFAULT_WRITE_BATCH_SIZE, 50));
+    }
+
+    private String run(int messages, int bodySize, int batchSize, long delayMicros) throws Exception {
+        Message msg = new Message.Builder((short) 0x22).setBody(new byte[bodySize]).build();
+        long messageBytes = 0;
+        for (Packet packet : msg.getPackets()) {
+            messageBytes += packet.getBytes().length;
+        }
+        final long total = messageBytes * messages;
+
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Socket client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        final Socket peer = server.accept();
+        final CountDownLatch received = new CountDownLatch(1);
+        Thread drain = new Thread() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[256 * 1024];
+                long count = 0;
+                try {
+                    InputStream in = peer.getInputStream();
+                    int num;
+                    while (count < total && (num = in.read(buffer)) > 0) {
+                        count += num;
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                received.countDown();
+            }
+        };
+        drain.start();
+
+        CountingOutputStream out = new CountingOutputStream(client.getOutputStream());
+        PacketWriter writer = new PacketWriter(null, out, batchSize, delayMicros, ConnectOption.DEFAULT_LANE_WEIGHTS);
+        writer.startup();
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            writer.sendMessage(msg);
+        }
+        assertTrue("writer timed out", received.await(120, TimeUnit.SECONDS));
+        long nanos = System.nanoTime() - start;
+        writer.shutdown();
+        client.close();
+        peer.close();
+        server.close();
+
+        return String.format("batch=%d delay=%dus: %.0f MB/s, %d writes, %d flushes",
+                batchSize, delayMicros, total * 1e3 / nanos, out.writes, out.flushes);
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long writes;
+        private long flushes;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            writes++;
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushes++;
+            out.flush();
+        }
+    }
+}
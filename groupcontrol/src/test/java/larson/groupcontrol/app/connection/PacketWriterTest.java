@@ -0,0 +1,165 @@
+package larson.groupcontrol.app.connection;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import larson.groupcontrol.app.message.Message;
+import larson.groupcontrol.app.message.MessageSnBuilder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link PacketWriter}逐包写出和合并写出的字节流都和按顺序编码的结果相同，
+ * 默认优先级下触控输入不用等大消息的全部分包写完
+ */
+public class PacketWriterTest {
+    private static final int MESSAGES = 300;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        MessageSnBuilder.getInstance().setClientKey("PacketWriterTest");
+    }
+
+    @Test
+    public void writesMessagesInOrder() throws Exception {
+        Random random = new Random(9);
+        Message[] messages = new Message[MESSAGES];
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < MESSAGES; i++) {
+            //偶尔夹一个分包的大消息，同一优先级内按放入顺序写出
+            byte[] body = new byte[i % 50 == 0 ? 20000 : random.nextInt(200)];
+            random.nextBytes(body);
+            messages[i] = new Message.Builder((short) 0x30).setBody(body)
+                    .setPriority(Message.PRIORITY_NORMAL).build();
+            expected.write(encode(messages[i]));
+        }
+        assertArrayEquals(expected.toByteArray(), write(messages, expected.size(), 0, 0));
+        assertArrayEquals(expected.toByteArray(),
+                write(messages, expected.size(), ConnectOption.DEFAULT_WRITE_BATCH_SIZE, 0));
+        assertArrayEquals(expected.toByteArray(),
+                write(messages, expected.size(), ConnectOption.DEFAULT_WRITE_BATCH_SIZE, 50));
+    }
+
+    @Test
+    public void interleavesTapWithLargeMessage() throws Exception {
+        //都用默认的类型和优先级，大消息应该走批量队列，触控输入走高优先级
+        byte[] body = new byte[200 * 1024];
+        new Random(12).nextBytes(body);
+        Message large = new Message.Builder((short) 0x30).setBody(body).build();
+        Message tap = new Message.Builder(Constants.MSG_MINICAP_INPUT).setBody(new byte[]{1, 2, 3, 4}).build();
+        byte[] tapBytes = encode(tap);
+        int total = large.getEncodedSize() + tapBytes.length;
+
+        GatedOutputStream out = new GatedOutputStream(total);
+        PacketWriter writer = new PacketWriter(null, out, 0, 0, ConnectOption.DEFAULT_LANE_WEIGHTS);
+        writer.startup();
+        writer.sendMessage(large);
+        //第一个分包正在写出时再放入触控消息
+        assertTrue(out.firstWrite.await(5, TimeUnit.SECONDS));
+        writer.sendMessage(tap);
+        out.gate.countDown();
+        assertTrue("writer timed out", out.done.await(30, TimeUnit.SECONDS));
+        writer.shutdown();
+
+        byte[] written = out.toByteArray();
+        assertEquals(total, written.length);
+        int tapAt = indexOf(written, tapBytes);
+        assertTrue("tap not written", tapAt > 0);
+        assertTrue("tap waited for every fragment", tapAt + tapBytes.length < written.length);
+    }
+
+    private static byte[] encode(Message msg) {
+        ByteBuffer encoded = ByteBuffer.allocate(msg.getEncodedSize());
+        msg.encodeTo(encoded);
+        return encoded.array();
+    }
+
+    private static int indexOf(byte[] array, byte[] target) {
+        outer:
+        for (int i = 0; i <= array.length - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (array[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static byte[] write(Message[] messages, int total, int batchSize, long delayMicros)
+            throws Exception {
+        CapturingOutputStream out = new CapturingOutputStream(total);
+        PacketWriter writer = new PacketWriter(null, out, batchSize, delayMicros, ConnectOption.DEFAULT_LANE_WEIGHTS);
+        writer.startup();
+        for (Message msg : messages) {
+            writer.sendMessage(msg);
+        }
+        assertTrue("writer timed out", out.done.await(30, TimeUnit.SECONDS));
+        writer.shutdown();
+        return out.toByteArray();
+    }
+
+    /**
+     * 收到total个字节时通知
+     */
+    private static class CapturingOutputStream extends OutputStream {
+        private final ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+        private final int mTotal;
+        final CountDownLatch done = new CountDownLatch(1);
+
+        CapturingOutputStream(int total) {
+            mTotal = total;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            mBytes.write(b, off, len);
+            if (mBytes.size() >= mTotal) {
+                done.countDown();
+            }
+        }
+
+        synchronized byte[] toByteArray() {
+            return mBytes.toByteArray();
+        }
+    }
+
+    /**
+     * 第一次写出时阻塞，直到gate打开
+     */
+    private static class GatedOutputStream extends CapturingOutputStream {
+        final CountDownLatch firstWrite = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        GatedOutputStream(int total) {
+            super(total);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            firstWrite.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            super.write(b, off, len);
+        }
+    }
+}
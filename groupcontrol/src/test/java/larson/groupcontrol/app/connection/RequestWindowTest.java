@@ -0,0 +1,67 @@
+package larson.groupcontrol.app.connection;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import larson.groupcontrol.app.message.Message;
+import larson.groupcontrol.app.message.MessageSnBuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link RequestWindow}同时等待回复的请求不超过窗口，回复乱序到达时按提交顺序写出排队的请求
+ */
+public class RequestWindowTest {
+    private static final int WINDOW = 4;
+    private static final int REQUESTS = 20;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        MessageSnBuilder.getInstance().setClientKey("RequestWindowTest");
+    }
+
+    @Test
+    public void boundsRequestsInFlight() throws Exception {
+        PacketRouter router = new PacketRouter();
+        final List<Message> sent = new ArrayList<>();
+        final List<Message> unanswered = new ArrayList<>();
+        RequestWindow window = new RequestWindow(new RequestWindow.Sender() {
+            @Override
+            public void send(Message msg) {
+                sent.add(msg);
+                unanswered.add(msg);
+            }
+        }, WINDOW);
+        List<Message> requests = new ArrayList<>();
+        List<MessageFuture> futures = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            Message request = new Message.Builder((short) 0x31).build();
+            MessageFuture future = router.createResponseFuture(request);
+            window.submit(request, future);
+            requests.add(request);
+            futures.add(future);
+        }
+        assertEquals(WINDOW, sent.size());
+        assertEquals(REQUESTS - WINDOW, window.getWaitingCount());
+
+        //排队中取消的请求不占窗口，也不会写出
+        futures.get(REQUESTS - 1).cancel(false);
+
+        //每次回复最后写出的请求，回复顺序和发送顺序相反
+        while (!unanswered.isEmpty()) {
+            Message request = unanswered.remove(unanswered.size() - 1);
+            PacketRouterTest.receive(router, new Message.Builder(request.getMsgId(), request.getSn()).build());
+            assertTrue(window.getInFlightCount() <= WINDOW);
+        }
+        assertEquals(requests.subList(0, REQUESTS - 1), sent);
+        assertEquals(WINDOW, window.getMaxInFlightCount());
+        assertEquals(0, window.getWaitingCount());
+        for (int i = 0; i < REQUESTS - 1; i++) {
+            assertTrue(futures.get(i).isDone());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package larson.groupcontrol.app.connection;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link StripedExecutor}同一个key按顺序执行，慢的key不影响其他条
+ */
+public class StripedExecutorTest {
+    private static final int KEYS = 16;
+    private static final int TASKS_PER_KEY = 1000;
+
+    @Test
+    public void keepsOrderPerKey() throws Exception {
+        StripedExecutor executor = new StripedExecutor(4, 8, "test");
+        final List<List<Integer>> seen = new ArrayList<>();
+        for (int key = 0; key < KEYS; key++) {
+            seen.add(Collections.synchronizedList(new ArrayList<Integer>()));
+        }
+        final CountDownLatch done = new CountDownLatch(KEYS * TASKS_PER_KEY);
+        for (int i = 0; i < TASKS_PER_KEY; i++) {
+            for (int key = 0; key < KEYS; key++) {
+                final List<Integer> list = seen.get(key);
+                final int index = i;
+                assertTrue(executor.execute(key, new Runnable() {
+                    @Override
+                    public void run() {
+                        list.add(index);
+                        done.countDown();
+                    }
+                }));
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (List<Integer> list : seen) {
+            for (int i = 0; i < TASKS_PER_KEY; i++) {
+                assertEquals(i, (int) list.get(i));
+            }
+        }
+        for (int stripe = 0; stripe < executor.getStripeCount(); stripe++) {
+            assertTrue(executor.getMaxQueueDepth(stripe) <= 8);
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void slowKeyDoesNotBlockOtherStripes() throws Exception {
+        StripedExecutor executor = new StripedExecutor(2, 4, "test");
+        int slowKey = 0;
+        int fastKey = 1;
+        while (executor.getStripe(fastKey) == executor.getStripe(slowKey)) {
+            fastKey++;
+        }
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.execute(slowKey, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        final CountDownLatch fast = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            executor.execute(fastKey, new Runnable() {
+                @Override
+                public void run() {
+                    fast.countDown();
+                }
+            });
+        }
+        assertTrue(fast.await(5, TimeUnit.SECONDS));
+        release.countDown();
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,113 @@
+package larson.groupcontrol.app.engine;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import larson.groupcontrol.app.Benchmarks;
+import larson.groupcontrol.app.filter.MessageIdFilter;
+import larson.groupcontrol.app.listener.IMessageListener;
+import larson.groupcontrol.app.message.Message;
+import larson.groupcontrol.app.message.MessageSnBuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 本地回环压力测试：一个引擎模拟设备端回显消息，另一个引擎作为控制端同时连接大量设备并持续收发
+ * <p>
+ * Loopback load test for {@link NioEngine}. One engine plays the devices and echoes every message,
+ * the other plays the controller and keeps one request in flight per connection. Prints round
+ * trips per second and connections per event-loop thread. By default it is a quick check with 32
+ * connections; with {@link Benchmarks#isEnabled()} it opens 2000, which needs about 4000 file
+ * descriptors. Connection count and round trips per connection can also be set with the
+ * {@code nio.connections} and {@code nio.rounds} system properties.
+ */
+public class NioEngineLoadTest {
+    private static final short MSG_ID = 0x21;
+    private static final int BODY_SIZE = 128;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        MessageSnBuilder.getInstance().setClientKey("NioEngineLoadTest");
+    }
+
+    @Test
+    public void loopback() throws Exception {
+        int connections = Integer.getInteger("nio.connections", Benchmarks.isEnabled() ? 2000 : 32);
+        final int rounds = Integer.getInteger("nio.rounds", Benchmarks.isEnabled() ? 50 : 10);
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        NioEngine devices = new NioEngine(cores, new NioEngine.OnConnectionListener() {
+            @Override
+            public void onConnected(final NioConnection connection) {
+                connection.addMsgListener(new IMessageListener() {
+                    @Override
+                    public void processMessage(Message msg) {
+                        connection.sendMessage(newMessage());
+                    }
+                }, new MessageIdFilter(MSG_ID));
+            }
+
+            @Override
+            public void onClosed(NioConnection connection, Exception e) {
+            }
+        });
+        NioEngine controller = new NioEngine(cores, null);
+        devices.start();
+        controller.start();
+        SocketAddress address = devices.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+        final CountDownLatch done = new CountDownLatch(connections);
+        List<NioConnection> clients = new ArrayList<>(connections);
+        long connectStart = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            final NioConnection connection = controller.connect(address);
+            connection.addMsgListener(new IMessageListener() {
+                private int received;
+
+                @Override
+                public void processMessage(Message msg) {
+                    if (++received < rounds) {
+                        connection.sendMessage(newMessage());
+                    } else {
+                        done.countDown();
+                    }
+                }
+            }, new MessageIdFilter(MSG_ID));
+            clients.add(connection);
+        }
+        long connectNanos = System.nanoTime() - connectStart;
+
+        long start = System.nanoTime();
+        for (NioConnection connection : clients) {
+            connection.sendMessage(newMessage());
+        }
+        assertTrue("round trips timed out", done.await(120, TimeUnit.SECONDS));
+        long nanos = System.nanoTime() - start;
+
+        assertEquals(connections, controller.getConnectionCount());
+        System.out.println(String.format("connections: %d, loops per engine: %d, connect: %.0f conn/s",
+                connections, cores, connections * 1e9 / connectNanos));
+        System.out.println(String.format("round trips: %.0f/s, connections per loop thread: %d",
+                (double) connections * rounds * 1e9 / nanos, connections / cores));
+
+        controller.shutdown();
+        devices.shutdown();
+    }
+
+    private static Message newMessage() {
+        try {
+            return new Message.Builder(MSG_ID).setBody(new byte[BODY_SIZE]).build();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package larson.groupcontrol.app.engine;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import larson.groupcontrol.app.Benchmarks;
+import larson.groupcontrol.app.connection.MessageFuture;
+import larson.groupcontrol.app.filter.MessageIdFilter;
+import larson.groupcontrol.app.listener.IMessageListener;
+import larson.groupcontrol.app.message.Message;
+import larson.groupcontrol.app.message.MessageSnBuilder;
+import larson.groupcontrol.app.packet.PacketView;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 比较100台模拟设备上逐个同步请求和窗口内流水线请求的总吞吐量
+ * <p>
+ * Aggregate request throughput against 100 loopback devices that answer every request with a
+ * response carrying its sn. Every device answers under its own pid, as real devices with their own
+ * client keys do, so replies must be matched without the requester's pid. The baseline sends {@code sendSyncMessage} one request at a time per
+ * device from a single thread, as callers of the blocking API do today; the pipelined runs submit
+ * all requests with {@code sendAsync} and let each connection's request window keep 1, 8 or 64 of
+ * them in flight. Results are printed to stdout.
+ */
+public class PipelinedRequestBenchmark {
+    private static final short MSG_ID = 0x22;
+    private static final int DEVICES = 100;
+    private static final int REQUESTS = 100;
+    private static final int[] WINDOWS = {1, 8, 64};
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Benchmarks.assumeEnabled();
+        MessageSnBuilder.getInstance().setClientKey("PipelinedRequestBenchmark");
+    }
+
+    @Test
+    public void compareWindows() throws Exception {
+        final AtomicInteger devicePids = new AtomicInteger(0x1000);
+        NioEngine devices = new NioEngine(1, new NioEngine.OnConnectionListener() {
+            @Override
+            public void onConnected(final NioConnection connection) {
+                final short pid = (short) devicePids.incrementAndGet();
+                connection.addMsgListener(new IMessageListener() {
+                    @Override
+                    public void processMessage(Message msg) {
+                        try {
+                            connection.sendMessage(withPid(new Message.Builder(msg.getMsgId(), msg.getSn())
+                                    .setBody(msg.getBody()).build(), pid));
+                        } catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                }, new MessageIdFilter(MSG_ID));
+            }
+
+            @Override
+            public void onClosed(NioConnection connection, Exception e) {
+            }
+        });
+        NioEngine controller = new NioEngine(1, null);
+        devices.start();
+        controller.start();
+        SocketAddress address = devices.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        List<NioConnection> clients = new ArrayList<>(DEVICES);
+        for (int i = 0; i < DEVICES; i++) {
+            clients.add(controller.connect(address));
+        }
+
+        //预热
+        runSync(clients, REQUESTS / 10);
+        runPipelined(clients, REQUESTS, 8);
+
+        System.out.println(String.format("sync, one at a time: %8.0f req/s", runSync(clients, REQUESTS)));
+        for (int window : WINDOWS) {
+            System.out.println(String.format("pipelined, window %2d: %8.0f req/s",
+                    window, runPipelined(clients, REQUESTS, window)));
+        }
+
+        controller.shutdown();
+        devices.shutdown();
+    }
+
+    /**
+     * @return 每秒完成的请求数
+     */
+    private static double runSync(List<NioConnection> clients, int requests) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            for (NioConnection connection : clients) {
+                Message response = connection.sendSyncMessage(newRequest(), 5000);
+                assertTrue("no response", response != null && response.isResponse());
+            }
+        }
+        return (double) clients.size() * requests * 1e9 / (System.nanoTime() - start);
+    }
+
+    /**
+     * @return 每秒完成的请求数
+     */
+    private static double runPipelined(List<NioConnection> clients, int requests, int window)
+            throws Exception {
+        for (NioConnection connection : clients) {
+            connection.setRequestWindow(window);
+        }
+        final CountDownLatch done = new CountDownLatch(clients.size() * requests);
+        final AtomicInteger failed = new AtomicInteger();
+        MessageFuture.Callback callback = new MessageFuture.Callback() {
+            @Override
+            public void onResponse(Message msg) {
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                failed.incrementAndGet();
+                done.countDown();
+            }
+        };
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            for (NioConnection connection : clients) {
+                connection.sendAsync(newRequest(), null, 30000).addCallback(callback);
+            }
+        }
+        assertTrue("requests timed out", done.await(60, TimeUnit.SECONDS));
+        long nanos = System.nanoTime() - start;
+        assertEquals(0, failed.get());
+        for (NioConnection connection : clients) {
+            assertTrue(connection.getRequestWindow().getMaxInFlightCount() <= window);
+        }
+        return (double) clients.size() * requests * 1e9 / nanos;
+    }
+
+    /**
+     * 把消息的pid改成另一台设备的clientKey
+     */
+    private static Message withPid(Message msg, short pid) {
+        ByteBuffer frame = ByteBuffer.allocate(msg.getEncodedSize());
+        msg.encodeTo(frame);
+        frame.put(2, (byte) pid);
+        frame.put(3, (byte) (pid >> 8));
+        Message patched = new Message.Builder(new PacketView().wrap(frame, 0, frame.position())).build();
+        patched.detach();
+        return patched;
+    }
+
+    private static Message newRequest() {
+        try {
+            return new Message.Builder(MSG_ID).setBody(new byte[64]).build();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package larson.groupcontrol.app.filter;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Random;
+
+import larson.groupcontrol.app.Benchmarks;
+import larson.groupcontrol.app.message.Message;
+import larson.groupcontrol.app.message.MessageSnBuilder;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 比较不同深度的过滤器树编译前后的匹配速度
+ * <p>
+ * For each depth, 100 random trees from {@link FilterCompilerTest#newTree(Random, int)} are
+ * evaluated against 512 messages, first as trees and then compiled. Both must accept the same
+ * number of messages. Results are printed to stdout.
+ */
+public class FilterCompilerBenchmark {
+    private static final int TREES = 100;
+    private static final int ROUNDS = 40;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Benchmarks.assumeEnabled();
+        MessageSnBuilder.getInstance().setClientKey("FilterCompilerBenchmark");
+    }
+
+    @Test
+    public void compareDepths() throws Exception {
+        Random random = new Random(23);
+        Message[] messages = FilterCompilerTest.newMessages(random, 512);
+        for (int depth = 1; depth <= 4; depth++) {
+            MessageFilter[] trees = new MessageFilter[TREES];
+            MessageFilter[] compiled = new MessageFilter[TREES];
+            for (int i = 0; i < TREES; i++) {
+                trees[i] = FilterCompilerTest.newTree(random, depth);
+                compiled[i] = FilterCompiler.compile(trees[i]);
+            }
+            //预热
+            run(trees, messages, ROUNDS / 4);
+            run(compiled, messages, ROUNDS / 4);
+
+            long evaluations = (long) ROUNDS * TREES * messages.length;
+            long start = System.nanoTime();
+            long treeAccepted = run(trees, messages, ROUNDS);
+            double treeRate = evaluations * 1e3 / (System.nanoTime() - start);
+
+            start = System.nanoTime();
+            long compiledAccepted = run(compiled, messages, ROUNDS);
+            double compiledRate = evaluations * 1e3 / (System.nanoTime() - start);
+
+            assertEquals(treeAccepted, compiledAccepted);
+            System.out.println(String.format("depth %d: tree %6.2f M evals/s | compiled %6.2f M evals/s | %.1fx",
+                    depth, treeRate, compiledRate, compiledRate / treeRate));
+        }
+    }
+
+    private static long run(MessageFilter[] filters, Message[] messages, int rounds) {
+        long accepted = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (MessageFilter filter : filters) {
+                for (Message msg : messages) {
+                    if (filter.accept(msg)) {
+                        accepted++;
+                    }
+                }
+            }
+        }
+        return accepted;
+    }
+}
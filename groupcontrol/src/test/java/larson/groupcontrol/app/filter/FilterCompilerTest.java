@@ -0,0 +1,137 @@
+package larson.groupcontrol.app.filter;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Random;
+
+import larson.groupcontrol.app.message.Message;
+import larson.groupcontrol.app.message.MessageSnBuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 编译后的过滤器和原来的过滤器树接受同样的消息
+ * <p>
+ * Compares {@link FilterCompiler#compile(MessageFilter)} with the original tree on random trees
+ * of depth 0 to 5 built from ID, type, response and custom filters, including IDs outside the
+ * 13-bit range, against random messages.
+ */
+public class FilterCompilerTest {
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        MessageSnBuilder.getInstance().setClientKey("FilterCompilerTest");
+    }
+
+    @Test
+    public void matchesTree() throws Exception {
+        Random random = new Random(23);
+        Message[] messages = newMessages(random, 500);
+        for (int depth = 0; depth <= 5; depth++) {
+            for (int tree = 0; tree < 200; tree++) {
+                MessageFilter filter = newTree(random, depth);
+                CompiledFilter compiled = FilterCompiler.compile(filter);
+                for (Message msg : messages) {
+                    assertEquals(filter + " on " + msg, filter.accept(msg), compiled.accept(msg));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void mergesIdClauses() {
+        OrFilter ids = new OrFilter();
+        for (short id = 0; id < 100; id++) {
+            ids.addFilter(new MessageIdFilter(id));
+        }
+        CompiledFilter compiled = FilterCompiler.compile(new AndFilter(ids, new ResponseFilter(false)));
+        assertEquals(1, compiled.getClauseCount());
+        assertEquals(100, compiled.getMsgIds().cardinality());
+    }
+
+    @Test
+    public void treatsSubclassesAsCustom() throws Exception {
+        MessageFilter[] filters = {
+                new MessageIdFilter((short) 3) {
+                    @Override
+                    public boolean accept(Message msg) {
+                        return msg.getMsgId() == 3 || msg.getMsgId() == 4;
+                    }
+                },
+                new OrFilter(new MessageIdFilter((short) 5), new MessageIdFilter((short) 6)) {
+                    @Override
+                    public boolean accept(Message msg) {
+                        return !super.accept(msg);
+                    }
+                }
+        };
+        Message[] messages = newMessages(new Random(24), 200);
+        for (MessageFilter filter : filters) {
+            CompiledFilter compiled = FilterCompiler.compile(filter);
+            //子类重写了accept()，不能只按getter编译成msgId位图
+            assertNull(compiled.getMsgIds());
+            for (Message msg : messages) {
+                assertEquals(filter.accept(msg), compiled.accept(msg));
+            }
+        }
+    }
+
+    /**
+     * 随机生成一棵过滤器树，depth为0时是单个过滤器
+     */
+    static MessageFilter newTree(Random random, int depth) {
+        if (depth == 0) {
+            switch (random.nextInt(5)) {
+                case 0:
+                    return new MessageTypeFilter((byte) random.nextInt(4));
+                case 1:
+                    return new ResponseFilter(random.nextBoolean());
+                case 2:
+                    return new SnFilter(random.nextInt(3));
+                default:
+                    return new MessageIdFilter((short) (random.nextInt(50) == 0 ? 0x3000 : random.nextInt(32)));
+            }
+        }
+        int children = 2 + random.nextInt(2);
+        MessageFilter[] filters = new MessageFilter[children];
+        for (int i = 0; i < children; i++) {
+            filters[i] = newTree(random, random.nextInt(4) == 0 ? 0 : depth - 1);
+        }
+        return random.nextBoolean() ? new AndFilter(filters) : new OrFilter(filters);
+    }
+
+    static Message[] newMessages(Random random, int count) throws Exception {
+        Message[] messages = new Message[count];
+        for (int i = 0; i < count; i++) {
+            short id = (short) (random.nextInt(100) == 0 ? 0x3000 : random.nextInt(32));
+            Message.Builder builder = random.nextBoolean()
+                    ? new Message.Builder(id) : new Message.Builder(id, (short) random.nextInt(1000));
+            builder.setType((byte) random.nextInt(4));
+            messages[i] = builder.build();
+        }
+        return messages;
+    }
+
+    /**
+     * 自定义过滤器，不能编译成位图
+     */
+    private static class SnFilter implements MessageFilter {
+        private final int mRemainder;
+
+        SnFilter(int remainder) {
+            mRemainder = remainder;
+        }
+
+        @Override
+        public boolean accept(Message msg) {
+            return (msg.getSn() & 0xFFFF) % 3 == mRemainder;
+        }
+
+        @Override
+        public String toString() {
+            return "sn % 3 == " + mRemainder;
+        }
+    }
+}
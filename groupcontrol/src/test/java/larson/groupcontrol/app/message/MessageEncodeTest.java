@@ -0,0 +1,167 @@
+package larson.groupcontrol.app.message;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import larson.groupcontrol.app.buffer.PooledBuffer;
+import larson.groupcontrol.app.exception.UnFormatMessageException;
+import larson.groupcontrol.app.packet.Packet;
+import larson.groupcontrol.app.packet.PacketView;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link Message#encodeTo(ByteBuffer)}必须和{@link Message#getPackets()}的编码结果逐字节相同
+ */
+public class MessageEncodeTest {
+    /**
+     * 覆盖空消息、短包边界、分包边界和多个分包
+     */
+    private static final int[] BODY_SIZES = {0, 1, 100, 4080, 4081, 4082, 4085, 4088, 8158, 8160, 8162, 65536};
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        MessageSnBuilder.getInstance().setClientKey("MessageEncodeTest");
+    }
+
+    @Test
+    public void encodeToMatchesPackets() throws Exception {
+        Random random = new Random(0);
+        for (int size : BODY_SIZES) {
+            for (byte type = 0; type < 4; type++) {
+                byte[] body = new byte[size];
+                random.nextBytes(body);
+                Message msg = new Message.Builder((short) random.nextInt(0x2000))
+                        .setBody(body).setAck(size % 2 == 0).setType(type).build();
+                byte[] expected = legacyBytes(msg);
+
+                ByteBuffer buffer = ByteBuffer.allocate(msg.getEncodedSize());
+                msg.encodeTo(buffer);
+                assertEquals(expected.length, buffer.position());
+                assertArrayEquals("size " + size, expected, buffer.array());
+                assertEquals(msg.getPackets().length, msg.getFragmentCount());
+            }
+        }
+    }
+
+    @Test
+    public void encodeInChunks() throws Exception {
+        byte[] body = new byte[50000];
+        new Random(1).nextBytes(body);
+        Message msg = new Message.Builder((short) 0x12, (short) 3).setBody(body).build();
+        ByteBuffer chunk = ByteBuffer.allocate(Packet.MAX_SOCKET_SIZE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int fragment = 0;
+        while (fragment < msg.getFragmentCount()) {
+            chunk.clear();
+            fragment = msg.encodeTo(chunk, fragment);
+            out.write(chunk.array(), 0, chunk.position());
+        }
+        assertArrayEquals(legacyBytes(msg), out.toByteArray());
+    }
+
+    @Test
+    public void fragmentsEncodeOneAtATime() throws Exception {
+        byte[] body = new byte[50000];
+        new Random(2).nextBytes(body);
+        Message msg = new Message.Builder((short) 0x34).setBody(body).build();
+        ByteBuffer fragment = ByteBuffer.allocate(Packet.MAX_SOCKET_SIZE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FragmentIterator fragments = msg.fragments();
+        while (fragments.hasNext()) {
+            fragment.clear();
+            int size = fragments.nextSize();
+            fragments.encodeNext(fragment);
+            assertEquals(size, fragment.position());
+            out.write(fragment.array(), 0, fragment.position());
+        }
+        assertEquals(msg.getFragmentCount(), fragments.getEncodedCount());
+        assertArrayEquals(legacyBytes(msg), out.toByteArray());
+    }
+
+    @Test
+    public void decodeFragmentsInPlace() throws Exception {
+        Random random = new Random(3);
+        for (int size : BODY_SIZES) {
+            byte[] body = new byte[size];
+            random.nextBytes(body);
+            Message msg = new Message.Builder((short) 0x56).setBody(body).build();
+            if (msg.getFragmentCount() < 2) {
+                continue;
+            }
+            List<Packet> packets = new ArrayList<>(Arrays.asList(msg.getPackets()));
+            Collections.shuffle(packets, random);
+            Message decoded = new Message.Builder(packets.toArray(new Packet[packets.size()])).build();
+            assertArrayEquals("size " + size, body, decoded.getBody());
+
+            PooledBuffer[] frames = new PooledBuffer[msg.getFragmentCount()];
+            FragmentIterator fragments = msg.fragments();
+            for (int i = 0; i < frames.length; i++) {
+                ByteBuffer frame = ByteBuffer.allocate(fragments.nextSize());
+                fragments.encodeNext(frame);
+                frames[i] = PooledBuffer.wrap(frame.array());
+            }
+            assertArrayEquals("size " + size, body, new Message.Builder(frames).build().getBody());
+
+            byte[] last = frames[frames.length - 1].array();
+            last[last.length - 1] ^= 1;
+            Message corrupted = new Message.Builder(frames).build();
+            assertEquals(0x56, corrupted.getMsgId());
+            try {
+                corrupted.getBody();
+                fail("corrupted crc accepted, size " + size);
+            } catch (UnFormatMessageException expected) {
+                //crc校验失败
+            }
+        }
+    }
+
+    @Test
+    public void decodeBodyOnDemand() throws Exception {
+        byte[] body = new byte[]{1, 2, 3, 4, 5};
+        Message msg = new Message.Builder((short) 0x57).setBody(body).build();
+        ByteBuffer buffer = ByteBuffer.allocate(msg.getEncodedSize());
+        msg.encodeTo(buffer);
+        PacketView view = new PacketView().wrap(buffer, 0, buffer.position());
+
+        Message detached = new Message.Builder(view).build();
+        assertTrue(detached.detach());
+        Arrays.fill(buffer.array(), (byte) 0);
+        assertEquals(0x57, detached.getMsgId());
+        assertArrayEquals(body, detached.getBody());
+
+        msg.encodeTo((ByteBuffer) buffer.clear());
+        buffer.array()[buffer.position() - 1] ^= 1;
+        Message corrupted = new Message.Builder(view.wrap(buffer, 0, buffer.position())).build();
+        assertEquals(msg.getSn(), corrupted.getSn());
+        assertFalse(corrupted.detach());
+        for (int i = 0; i < 2; i++) {
+            try {
+                corrupted.getBody();
+                fail("corrupted crc accepted");
+            } catch (UnFormatMessageException expected) {
+                //每次读取都报告crc校验失败
+            }
+        }
+    }
+
+    private static byte[] legacyBytes(Message msg) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Packet packet : msg.getPackets()) {
+            out.write(packet.getBytes());
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,103 @@
+package larson.groupcontrol.app.packet;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link FrameDecoder}跳过错误数据后重新对齐，一段连续的错误数据只算一次
+ */
+public class FrameDecoderTest {
+
+    @Test
+    public void countsEachRunOfGarbageOnce() throws Exception {
+        byte[][] frames = {newFrame(0x10, 20), newFrame(0x11, 4), newFrame(0x12, 300)};
+        //包长放不下消息头的假包头：短消息不足4字节，长消息不足8字节
+        byte[] tooSmall = fakeHeader(2, 0x0010);
+        byte[] largeTooSmall = fakeHeader(6, 0x8010);
+        byte[] noise = {0x34, 0x01, 0x35, 0x00, (byte) 0xFF, 0x34, 0x01};
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(frames[0]);
+        stream.write(tooSmall);
+        stream.write(noise);
+        stream.write(frames[1]);
+        stream.write(largeTooSmall);
+        stream.write(frames[2]);
+        byte[] bytes = stream.toByteArray();
+
+        //每次只读入几个字节，包头和假包头都会被截断
+        for (int readSize : new int[]{1, 3, 7, 64, bytes.length}) {
+            FrameDecoder decoder = new FrameDecoder();
+            List<byte[]> decoded = decode(decoder, bytes, readSize);
+            assertEquals("read size " + readSize, frames.length, decoded.size());
+            for (int i = 0; i < frames.length; i++) {
+                assertArrayEquals(frames[i], decoded.get(i));
+            }
+            assertEquals(2, decoder.getResyncCount());
+            assertEquals(tooSmall.length + noise.length + largeTooSmall.length, decoder.getSkippedBytes());
+            assertEquals(0, decoder.available());
+        }
+    }
+
+    private static List<byte[]> decode(FrameDecoder decoder, final byte[] bytes, final int readSize)
+            throws Exception {
+        final List<byte[]> decoded = new ArrayList<>();
+        InputStream in = new InputStream() {
+            private int pos;
+
+            @Override
+            public int read() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (pos >= bytes.length) {
+                    return -1;
+                }
+                int num = Math.min(Math.min(len, readSize), bytes.length - pos);
+                System.arraycopy(bytes, pos, b, off, num);
+                pos += num;
+                return num;
+            }
+        };
+        FrameDecoder.OnFrameListener listener = new FrameDecoder.OnFrameListener() {
+            @Override
+            public void onFrame(ByteBuffer buffer, int offset, int length) {
+                decoded.add(Arrays.copyOfRange(buffer.array(), offset, offset + length));
+            }
+        };
+        while (decoder.readFrom(in) > 0) {
+            decoder.decode(listener);
+        }
+        return decoded;
+    }
+
+    private static byte[] newFrame(int msgId, int bodySize) {
+        byte[] body = new byte[bodySize];
+        Arrays.fill(body, (byte) 0x34);
+        return new Packet.Builder((byte) 0, (short) 1, (short) 1, (short) (body.length + 4))
+                .setMsgId((short) msgId)
+                .setBody(body)
+                .build()
+                .getBytes();
+    }
+
+    /**
+     * 一个magic正确的包头加上msgId，包长是paddingSize，后面没有数据
+     */
+    private static byte[] fakeHeader(int paddingSize, int fullMsgId) {
+        ByteBuffer buffer = ByteBuffer.allocate(PacketHeader.SIZE + 2).order(ByteOrder.LITTLE_ENDIAN);
+        MagicScannerTest.putHeader(buffer, 0, paddingSize, fullMsgId);
+        return buffer.array();
+    }
+}
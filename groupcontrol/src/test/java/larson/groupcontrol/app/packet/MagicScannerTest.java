@@ -0,0 +1,93 @@
+package larson.groupcontrol.app.packet;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link MagicScanner}逐字比较的结果和逐字节检查相同，包括缓冲区两端不满一个字的部分
+ */
+public class MagicScannerTest {
+
+    @Test
+    public void rejectsSizesBelowMessageHeader() {
+        ByteBuffer buffer = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        for (int paddingSize = 0; paddingSize < 12; paddingSize++) {
+            putHeader(buffer, 0, paddingSize, 0x0010);
+            assertEquals("short, size " + paddingSize, paddingSize >= 4, MagicScanner.isHeader(buffer, 0, 16));
+            putHeader(buffer, 0, paddingSize, 0x8010);
+            assertEquals("large, size " + paddingSize, paddingSize >= 8, MagicScanner.isHeader(buffer, 0, 16));
+            //msgId还没收到时只能按包头判断
+            assertEquals(paddingSize >= 4, MagicScanner.isHeader(buffer, 0, 9));
+        }
+        putHeader(buffer, 0, Packet.MAX_SIZE + 1, 0x0010);
+        assertFalse(MagicScanner.isHeader(buffer, 0, 16));
+        putHeader(buffer, 0, Packet.MAX_SIZE, 0x0010);
+        assertTrue(MagicScanner.isHeader(buffer, 0, 16));
+    }
+
+    @Test
+    public void findsHeaderAtEveryAlignment() {
+        for (int position = 0; position < 24; position++) {
+            ByteBuffer buffer = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+            //magic的低字节后面紧跟0x01，逐字比较会在它们上面误报
+            for (int i = 0; i < buffer.capacity(); i++) {
+                buffer.put(i, (byte) (i % 3 == 0 ? 0x34 : 0x01));
+            }
+            putHeader(buffer, position, 20, 0x0010);
+            assertEquals(position, MagicScanner.scan(buffer, 0, position + PacketHeader.SIZE + 2));
+            assertEquals(position, MagicScanner.scan(buffer, 0, buffer.capacity()));
+        }
+    }
+
+    @Test
+    public void matchesBytewiseScan() {
+        Random random = new Random(3);
+        byte[] noise = {0x34, 0x01, 0x05, 0x00, (byte) 0x80, 0x35};
+        ByteBuffer buffer = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+        for (int round = 0; round < 20000; round++) {
+            for (int i = 0; i < buffer.capacity(); i++) {
+                buffer.put(i, noise[random.nextInt(noise.length)]);
+            }
+            int headers = random.nextInt(3);
+            for (int i = 0; i < headers; i++) {
+                putHeader(buffer, random.nextInt(buffer.capacity() - PacketHeader.SIZE - 1),
+                        random.nextInt(12), random.nextBoolean() ? 0x8010 : 0x0010);
+            }
+            int from = random.nextInt(buffer.capacity());
+            int to = from + random.nextInt(buffer.capacity() - from + 1);
+            int last = to - PacketHeader.SIZE;
+            int expected = -1;
+            for (int i = from; i <= last && expected < 0; i++) {
+                if (MagicScanner.isHeader(buffer, i, to)) {
+                    expected = i;
+                }
+            }
+            int found = MagicScanner.scan(buffer, from, to);
+            if (expected >= 0) {
+                assertEquals("from " + from + ", to " + to, expected, found);
+            } else {
+                //剩余数据不足一个包头的位置留给下一次读取
+                assertTrue("from " + from + ", to " + to + ", found " + found,
+                        found >= Math.max(from, last + 1) && found <= Math.max(from, to));
+            }
+        }
+    }
+
+    /**
+     * 在index处写入一个包头和msgId
+     */
+    static void putHeader(ByteBuffer buffer, int index, int paddingSize, int fullMsgId) {
+        buffer.putShort(index, PacketHeader.DEFAULT_MAGIC);
+        buffer.putShort(index + 2, (short) 1);
+        buffer.putShort(index + 4, (short) 1);
+        buffer.putShort(index + 6, (short) paddingSize);
+        buffer.putShort(index + PacketHeader.SIZE, (short) fullMsgId);
+    }
+}
@@ -0,0 +1,109 @@
+package larson.groupcontrol.app.packet;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import larson.groupcontrol.app.message.Message;
+import larson.groupcontrol.app.message.MessageSnBuilder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link PacketView}和{@link PacketHeaderView}读出的每个字段都和{@link Packet}、{@link PacketHeader}
+ * 解析同样字节的结果相同，堆内和直接缓冲区都一样
+ */
+public class PacketViewTest {
+    /**
+     * 包在缓冲区中的起始位置，故意不从0开始
+     */
+    private static final int OFFSET = 3;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        MessageSnBuilder.getInstance().setClientKey("PacketViewTest");
+    }
+
+    @Test
+    public void matchesPacketParse() throws Exception {
+        Random random = new Random(4);
+        byte[] large = new byte[3 * Packet.MAX_SIZE + 100];
+        random.nextBytes(large);
+        Message[] messages = {
+                new Message.Builder((short) 0x28).setBody(new byte[]{1, 2, 3}).build(),
+                new Message.Builder((short) 0x1FFF).setType(Message.MSG_TYPE_DATA).setAck(true)
+                        .setVid((short) 0x7FFF).build(),
+                new Message.Builder((short) 0x30).setBody(large).setVid((short) 9).build(),
+                //回复，流水号大于0x7FFF，读成short是负数
+                new Message.Builder((short) 0x28, (short) 0xFFF0).setBody(new byte[]{4, 5}).build(),
+                new Message.Builder((short) 0x31, (short) 0x8000).setBody(large).build()
+        };
+        for (Message msg : messages) {
+            byte[] encoded = new byte[OFFSET + msg.getEncodedSize()];
+            ByteBuffer target = ByteBuffer.wrap(encoded);
+            target.position(OFFSET);
+            msg.encodeTo(target);
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(encoded.length);
+            direct.put(encoded).clear();
+            checkFrames(encoded, ByteBuffer.wrap(encoded), msg);
+            checkFrames(encoded, direct, msg);
+        }
+    }
+
+    /**
+     * 逐个检查encoded中从{@link #OFFSET}开始的所有包
+     */
+    private static void checkFrames(byte[] encoded, ByteBuffer buffer, Message msg) {
+        PacketView view = new PacketView();
+        int offset = OFFSET;
+        int frames = 0;
+        while (offset < encoded.length) {
+            PacketHeader header = PacketHeader.parse(encoded, offset);
+            int length = PacketHeader.SIZE + header.getPaddingSize();
+            Packet packet = new Packet(encoded, offset, length);
+            view.wrap(buffer, offset, length);
+
+            PacketHeaderView headerView = view.getPacketHeader();
+            assertEquals(header.getType(), headerView.getType());
+            assertEquals(header.getMagic(), headerView.getMagic());
+            assertEquals(header.getPid(), headerView.getPid());
+            assertEquals(header.getVid(), headerView.getVid());
+            assertEquals(header.getPaddingSize(), headerView.getPaddingSize());
+            assertArrayEquals(header.getBytes(), headerView.toHeader().getBytes());
+
+            assertEquals(packet.isLargeMsg(), view.isLargeMsg());
+            assertEquals(packet.isAckMsg(), view.isAckMsg());
+            assertEquals(packet.isResponseMsg(), view.isResponseMsg());
+            assertEquals(packet.getMsgId(), view.getMsgId());
+            assertEquals(packet.getSn(), view.getSn());
+            assertEquals(packet.getSubCount(), view.getSubCount());
+            assertEquals(packet.getSubIndex(), view.getSubIndex());
+            assertEquals(length, view.getLength());
+            assertEquals(packet.getBody().length, view.getBodyLength());
+            assertEquals(offset + length - view.getBodyLength(), view.getBodyOffset());
+
+            byte[] body = new byte[view.getBodyLength()];
+            view.copyBody(0, body, 0, body.length);
+            assertArrayEquals(packet.getBody(), body);
+            byte[] frame = new byte[length];
+            view.copyTo(frame, 0);
+            assertArrayEquals(Arrays.copyOfRange(encoded, offset, offset + length), frame);
+            assertArrayEquals(packet.getBytes(), view.toPacket().getBytes());
+
+            //和消息本身对照，防止两种解析错得一样
+            assertEquals(msg.getVid(), headerView.getVid());
+            assertEquals(msg.getMsgId(), view.getMsgId());
+            assertEquals(msg.getSn(), view.getSn());
+            assertEquals(msg.isResponse(), view.isResponseMsg());
+            assertEquals(msg.isLongMsg(), view.isLargeMsg());
+            offset += length;
+            frames++;
+        }
+        assertEquals(msg.isLongMsg() ? msg.getFragmentCount() : 1, frames);
+    }
+}
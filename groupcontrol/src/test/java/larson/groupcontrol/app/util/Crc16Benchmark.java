@@ -0,0 +1,67 @@
+package larson.groupcontrol.app.util;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Random;
+
+import larson.groupcontrol.app.Benchmarks;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 比较逐位计算和查表计算CRC16的速度
+ * <p>
+ * Throughput of the original bit-at-a-time CRC16 ({@link Crc16Test#bitwise(int, byte[])}) against
+ * the table-driven {@link Crc16} for the message crc type on 64 B, 4 KB and 1 MB inputs. Each size
+ * runs for about the same total number of bytes. Results are printed to stdout.
+ */
+public class Crc16Benchmark {
+    private static final int[] SIZES = {64, 4 * 1024, 1024 * 1024};
+    private static final long TOTAL_BYTES = 64L * 1024 * 1024;
+    private static final int CRC_TYPE = CrcUtils.CRC16_CCITT;
+
+    @BeforeClass
+    public static void setUp() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void compareSizes() {
+        Random random = new Random(18);
+        for (int size : SIZES) {
+            byte[] bytes = new byte[size];
+            random.nextBytes(bytes);
+            int rounds = (int) (TOTAL_BYTES / size);
+            //预热
+            runBitwise(bytes, rounds / 8);
+            runTable(bytes, rounds);
+
+            long start = System.nanoTime();
+            int bitwise = runBitwise(bytes, rounds / 8);
+            double bitwiseRate = (double) size * (rounds / 8) * 1e3 / (System.nanoTime() - start);
+            start = System.nanoTime();
+            int table = runTable(bytes, rounds);
+            double tableRate = (double) size * rounds * 1e3 / (System.nanoTime() - start);
+            assertEquals(bitwise, table);
+            System.out.println(String.format("%7d B: bitwise %8.1f MB/s | table %8.1f MB/s | %5.1fx",
+                    size, bitwiseRate, tableRate, tableRate / bitwiseRate));
+        }
+    }
+
+    private static int runBitwise(byte[] bytes, int rounds) {
+        int crc = 0;
+        for (int i = 0; i < rounds; i++) {
+            crc = Crc16Test.bitwise(CRC_TYPE, bytes);
+        }
+        return crc;
+    }
+
+    private static int runTable(byte[] bytes, int rounds) {
+        int crc = 0;
+        for (int i = 0; i < rounds; i++) {
+            crc = CrcUtils.crc16Ccitt(CRC_TYPE, bytes);
+        }
+        return crc;
+    }
+}
@@ -0,0 +1,88 @@
+package larson.groupcontrol.app.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 查表法的CRC16和原来逐位计算的结果一致
+ * <p>
+ * Checks {@link Crc16} against the original bit-at-a-time algorithm, kept here as
+ * {@link #bitwise(int, byte[])}, for all three crc types, every length up to 64 bytes plus a few
+ * large ones, split updates and heap and direct buffers.
+ */
+public class Crc16Test {
+    private static final int[] TYPES = {CrcUtils.CRC16_XMODEM, CrcUtils.CRC16_CCITT, CrcUtils.CRC16_CCITT_FALSE};
+
+    @Test
+    public void checkValues() {
+        byte[] check = "123456789".getBytes();
+        assertEquals(0x31C3, CrcUtils.crc16Ccitt(CrcUtils.CRC16_XMODEM, check));
+        assertEquals(0x2189, CrcUtils.crc16Ccitt(CrcUtils.CRC16_CCITT, check));
+        assertEquals(0x29B1, CrcUtils.crc16Ccitt(CrcUtils.CRC16_CCITT_FALSE, check));
+    }
+
+    @Test
+    public void matchesBitwise() {
+        Random random = new Random(18);
+        int[] lengths = new int[70];
+        for (int i = 0; i <= 64; i++) {
+            lengths[i] = i;
+        }
+        lengths[65] = 1023;
+        lengths[66] = 4096;
+        lengths[67] = 4099;
+        lengths[68] = 65537;
+        lengths[69] = 1 << 20;
+        for (int type : TYPES) {
+            for (int length : lengths) {
+                byte[] bytes = new byte[length];
+                random.nextBytes(bytes);
+                int expected = bitwise(type, bytes);
+                assertEquals("type " + type + ", length " + length, expected, CrcUtils.crc16Ccitt(type, bytes));
+
+                int split = length == 0 ? 0 : random.nextInt(length);
+                Crc16 crc16 = new Crc16(type);
+                crc16.update(bytes, 0, split);
+                crc16.update(bytes, split, length - split);
+                assertEquals(expected, crc16.getValue());
+
+                ByteBuffer direct = ByteBuffer.allocateDirect(length + 3);
+                direct.position(3);
+                direct.put(bytes);
+                assertEquals(expected, CrcUtils.crc16(type, direct, 3, length));
+                ByteBuffer heap = ByteBuffer.wrap(new byte[length + 3]);
+                heap.position(3);
+                heap.put(bytes);
+                assertEquals(expected, CrcUtils.crc16(type, heap, 3, length));
+            }
+        }
+    }
+
+    /**
+     * 原来的逐位算法
+     */
+    static int bitwise(int crcType, byte[] bytes) {
+        int crc = crcType == CrcUtils.CRC16_CCITT_FALSE ? 0xFFFF : 0;
+        for (byte b : bytes) {
+            if (crcType == CrcUtils.CRC16_CCITT) {
+                b = CrcUtils.reversalByte(b);
+            }
+            for (int i = 0; i < Byte.SIZE; i++) {
+                boolean bit = ((b >> (7 - i) & 1) == 1);
+                boolean c15 = ((crc >> 15 & 1) == 1);
+                crc <<= 1;
+                if (c15 ^ bit) {
+                    crc ^= 0x1021;
+                }
+            }
+        }
+        if (crcType == CrcUtils.CRC16_CCITT) {
+            crc = CrcUtils.reversalShort((short) crc);
+        }
+        return crc & 0xffff;
+    }
+}